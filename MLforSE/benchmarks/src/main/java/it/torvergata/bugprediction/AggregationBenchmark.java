@@ -0,0 +1,42 @@
+package it.torvergata.bugprediction;
+
+import it.torvergata.bugprediction.utils.GitDateParser;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Aggregation of the {@code _Metrics.csv} rows into per-file metrics
+ * ({@code MetricStore.addRevision}), date parsing included.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AggregationBenchmark {
+
+    @Param({"10000"})
+    int commits;
+
+    @Param({"2000"})
+    int files;
+
+    @Param({"50"})
+    int authors;
+
+    private SyntheticHistory history;
+
+    @Setup
+    public void setUp() {
+        history = new SyntheticHistory(commits, files, authors, 1200, 42);
+    }
+
+    @Benchmark
+    public MetricStore addRevisions() {
+        MetricStore store = new MetricStore();
+        history.aggregate(store, new GitDateParser());
+        return store;
+    }
+}
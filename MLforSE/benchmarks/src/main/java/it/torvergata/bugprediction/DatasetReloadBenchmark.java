@@ -0,0 +1,69 @@
+package it.torvergata.bugprediction;
+
+import it.torvergata.bugprediction.utils.GitDateParser;
+import it.torvergata.bugprediction.utils.MappedCsvReader;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reloading a dataset to read two of its columns: parsing the CSV text against opening
+ * the columnar file ({@link DatasetColumns}) and scanning its mapped column views.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DatasetReloadBenchmark {
+
+    @Param({"100000"})
+    int commits;
+
+    @Param({"50000"})
+    int files;
+
+    private File csv;
+    private File columns;
+
+    @Setup
+    public void setUp() throws IOException {
+        SyntheticHistory history = new SyntheticHistory(commits, files, 50, 1200, 42);
+        MetricStore store = new MetricStore();
+        history.aggregate(store, new GitDateParser());
+        csv = File.createTempFile("dataset", ".csv");
+        csv.deleteOnExit();
+        DatasetBuilder.writeDatasetCSV(csv.getPath(), SyntheticHistory.PROJECT_KEY, SyntheticHistory.releases(8), store);
+        columns = File.createTempFile("dataset", ".bin");
+        columns.deleteOnExit();
+        DatasetColumnsWriter.write(csv.toPath(), columns.toPath(), SyntheticHistory.PROJECT_KEY, "",
+                DatasetBuilder.DATASET_TYPES);
+    }
+
+    @Benchmark
+    public double csvText() throws IOException {
+        double sum = 0;
+        try (MappedCsvReader reader = new MappedCsvReader(csv.toPath())) {
+            reader.next(); // skip header
+            while (reader.next()) sum += reader.parseInt(7) + Double.parseDouble(reader.getString(6));
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double columnar() throws IOException {
+        double sum = 0;
+        try (DatasetColumns dataset = DatasetColumns.open(Path.of(columns.getPath()))) {
+            IntBuffer nr = dataset.ints(dataset.column("NR"));
+            DoubleBuffer churn = dataset.doubles(dataset.column("Churn"));
+            for (int row = 0; row < dataset.rowCount(); row++) sum += nr.get(row) + churn.get(row);
+        }
+        return sum;
+    }
+}
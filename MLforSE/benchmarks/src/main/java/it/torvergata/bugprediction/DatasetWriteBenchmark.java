@@ -0,0 +1,46 @@
+package it.torvergata.bugprediction;
+
+import it.torvergata.bugprediction.utils.GitDateParser;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing of the final dataset ({@code DatasetBuilder.writeDatasetCSV}) to a temporary file.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DatasetWriteBenchmark {
+
+    @Param({"10000"})
+    int commits;
+
+    @Param({"2000"})
+    int files;
+
+    private MetricStore store;
+    private List<DatasetBuilder.Release> releases;
+    private File out;
+
+    @Setup
+    public void setUp() throws IOException {
+        SyntheticHistory history = new SyntheticHistory(commits, files, 50, 1200, 42);
+        store = new MetricStore();
+        history.aggregate(store, new GitDateParser());
+        releases = SyntheticHistory.releases(8);
+        out = File.createTempFile("dataset", ".csv");
+        out.deleteOnExit();
+    }
+
+    @Benchmark
+    public long writeDatasetCSV() throws IOException {
+        return DatasetBuilder.writeDatasetCSV(out.getPath(), SyntheticHistory.PROJECT_KEY, releases, store);
+    }
+}
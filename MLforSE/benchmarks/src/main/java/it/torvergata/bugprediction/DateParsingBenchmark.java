@@ -0,0 +1,47 @@
+package it.torvergata.bugprediction;
+
+import it.torvergata.bugprediction.utils.GitDateParser;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of git ISO dates: {@link GitDateParser} against a {@link DateTimeFormatter}
+ * built on every call, as the former {@code DatasetBuilder.parseDate} did.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DateParsingBenchmark {
+
+    @Param({"10000"})
+    int commits;
+
+    private String[] dates;
+
+    @Setup
+    public void setUp() {
+        dates = new SyntheticHistory(commits, 100, 10, 10, 42).dates.toArray(new String[0]);
+    }
+
+    @Benchmark
+    public void gitDateParser(Blackhole bh) {
+        for (String date : dates) {
+            bh.consume(GitDateParser.parseEpochSecond(date));
+        }
+    }
+
+    @Benchmark
+    public void dateTimeFormatter(Blackhole bh) {
+        for (String date : dates) {
+            DateTimeFormatter fmt = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss Z");
+            bh.consume(OffsetDateTime.parse(date, fmt).toEpochSecond());
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package it.torvergata.bugprediction;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of {@code git log --numstat} output into commit records, ticket matching
+ * included, as done by the extraction while git is streaming: inline, and through
+ * the {@link GitLogPipeline} with {@code workers} parser threads.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GitLogParsingBenchmark {
+
+    @Param({"10000"})
+    int commits;
+
+    @Param({"2000"})
+    int files;
+
+    @Param({"1", "4"})
+    int workers;
+
+    private String[] lines;
+    private String log;
+    private TicketMatcher matcher;
+
+    @Setup
+    public void setUp() {
+        SyntheticHistory history = new SyntheticHistory(commits, files, 50, 1200, 42);
+        lines = history.gitLogLines.toArray(new String[0]);
+        log = String.join("\n", history.gitLogLines);
+        matcher = new TicketMatcher(SyntheticHistory.PROJECT_KEY, history.ticketKeys);
+    }
+
+    @Benchmark
+    public void parseGitLog(Blackhole bh) throws IOException {
+        GitLogParser parser = new GitLogParser(matcher, bh::consume);
+        for (String line : lines) {
+            parser.accept(line);
+        }
+        parser.finish();
+    }
+
+    @Benchmark
+    public void pipeline(Blackhole bh) throws IOException {
+        new GitLogPipeline(workers, 64, 256).run(new StringReader(log), matcher, bh::consume);
+    }
+}
@@ -0,0 +1,60 @@
+package it.torvergata.bugprediction;
+
+import com.opencsv.CSVReader;
+import com.opencsv.exceptions.CsvValidationException;
+import it.torvergata.bugprediction.utils.GitDateParser;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading and aggregating a {@code _Metrics.csv} file: the memory-mapped tokenizer used by
+ * {@code DatasetBuilder} against the former OpenCSV reader.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MetricsCsvReadingBenchmark {
+
+    @Param({"50000"})
+    int commits;
+
+    @Param({"2000"})
+    int files;
+
+    private File csv;
+
+    @Setup
+    public void setUp() throws IOException {
+        csv = File.createTempFile("metrics", ".csv");
+        csv.deleteOnExit();
+        new SyntheticHistory(commits, files, 50, 1200, 42).writeMetricsCsv(csv);
+    }
+
+    @Benchmark
+    public MetricStore mappedReader() throws IOException {
+        MetricStore store = new MetricStore();
+        DatasetBuilder.aggregateMetricsCsv(csv.toPath(), d -> store, Long.MAX_VALUE, new GitDateParser());
+        return store;
+    }
+
+    @Benchmark
+    public MetricStore openCsv() throws IOException, CsvValidationException {
+        MetricStore store = new MetricStore();
+        GitDateParser dateParser = new GitDateParser();
+        try (CSVReader reader = new CSVReader(new FileReader(csv))) {
+            reader.readNext(); // skip header
+            String[] c;
+            while ((c = reader.readNext()) != null) {
+                SyntheticHistory.addRow(store, c, dateParser);
+            }
+        }
+        return store;
+    }
+}
@@ -0,0 +1,43 @@
+package it.torvergata.bugprediction;
+
+import it.torvergata.bugprediction.utils.GitDateParser;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Release lookup of commit dates ({@code DatasetBuilder.findReleaseForDate}).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ReleaseLookupBenchmark {
+
+    @Param({"10000"})
+    int commits;
+
+    @Param({"8", "36"})
+    int releaseCount;
+
+    private long[] commitDates;
+    private List<DatasetBuilder.Release> releases;
+
+    @Setup
+    public void setUp() {
+        List<String> dates = new SyntheticHistory(commits, 100, 10, 10, 42).dates;
+        commitDates = dates.stream().mapToLong(GitDateParser::parseEpochSecond).toArray();
+        releases = SyntheticHistory.releases(releaseCount);
+    }
+
+    @Benchmark
+    public void findReleaseForDate(Blackhole bh) {
+        for (long date : commitDates) {
+            bh.consume(DatasetBuilder.findReleaseForDate(releases, date));
+        }
+    }
+}
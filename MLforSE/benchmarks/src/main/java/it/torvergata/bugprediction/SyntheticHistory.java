@@ -0,0 +1,144 @@
+package it.torvergata.bugprediction;
+
+import it.torvergata.bugprediction.utils.GitDateParser;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Deterministic synthetic git history for the benchmarks: the same parameters and seed
+ * always give the same {@code git log --numstat} text and {@code _Metrics.csv} rows.
+ */
+public class SyntheticHistory {
+
+    static final String PROJECT_KEY = "BENCH";
+
+    private static final DateTimeFormatter GIT_ISO = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss Z");
+    private static final long START_EPOCH = 1_293_840_000L; // 2011-01-01
+    private static final long END_EPOCH = 1_577_836_800L;   // 2020-01-01
+
+    final List<String> gitLogLines = new ArrayList<>();
+    final List<String[]> metricsRows = new ArrayList<>(); // as split by the CSV reader, without header
+    final List<String> subjects = new ArrayList<>();
+    final List<String> dates = new ArrayList<>();
+    final List<String> ticketKeys = new ArrayList<>();
+
+    /**
+     * @param commits number of commits
+     * @param files   number of distinct Java files
+     * @param authors number of distinct authors
+     * @param tickets number of valid tickets; commit subjects also reference unknown ones
+     * @param seed    random seed
+     */
+    public SyntheticHistory(int commits, int files, int authors, int tickets, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+
+        for (int t = 1; t <= tickets; t++) ticketKeys.add(PROJECT_KEY + "-" + t);
+        TicketMatcher matcher = new TicketMatcher(PROJECT_KEY, ticketKeys);
+
+        String[] paths = new String[files];
+        for (int f = 0; f < files; f++) {
+            paths[f] = "module" + (f % 7) + "/src/main/java/org/apache/bench/pkg" + (f % 53)
+                    + "/Class" + f + ".java";
+        }
+
+        long step = (END_EPOCH - START_EPOCH) / Math.max(1, commits);
+        long epoch = END_EPOCH;
+        for (int c = 0; c < commits; c++) {
+            epoch -= 1 + random.nextLong(step * 2);
+            ZoneOffset offset = ZoneOffset.ofHours(random.nextInt(-8, 10));
+            String date = OffsetDateTime.ofInstant(Instant.ofEpochSecond(epoch), offset).format(GIT_ISO);
+            String hash = hash(random);
+            String author = "Author " + random.nextInt(authors);
+            String subject = subject(random, tickets);
+            int[] fixed = matcher.match(subject);
+            boolean linked = fixed.length > 0;
+            String fixedKeys = linked ? matcher.ticketKey(fixed[0]) : "";
+
+            subjects.add(subject);
+            dates.add(date);
+            gitLogLines.add(GitLogParser.COMMIT_MARKER + hash + GitLogParser.FIELD_SEPARATOR + date
+                    + GitLogParser.FIELD_SEPARATOR + author + GitLogParser.FIELD_SEPARATOR + subject);
+
+            int touched = 1 + random.nextInt(8);
+            for (int i = 0; i < touched; i++) {
+                String path = paths[random.nextInt(files)];
+                String added = String.valueOf(random.nextInt(200));
+                String deleted = String.valueOf(random.nextInt(80));
+                gitLogLines.add(added + "\t" + deleted + "\t" + path);
+                metricsRows.add(new String[]{hash, date, author, path, added, deleted, String.valueOf(linked),
+                        fixedKeys});
+            }
+            if (random.nextInt(20) == 0) gitLogLines.add("-\t-\tlib/binary.jar");
+            gitLogLines.add("");
+        }
+    }
+
+    /** Aggregates the metrics rows into the store, date parsing included. */
+    void aggregate(MetricStore store, GitDateParser dateParser) {
+        for (String[] row : metricsRows) addRow(store, row, dateParser);
+    }
+
+    /** Records a {@code _Metrics.csv} row split into Strings, e.g. by OpenCSV. */
+    static void addRow(MetricStore store, String[] row, GitDateParser dateParser) {
+        long commitDate = dateParser.parse(row[1]);
+        if (commitDate == GitDateParser.INVALID) return;
+        int added = row[4].equals("-") ? 0 : Integer.parseInt(row[4]);
+        int deleted = row[5].equals("-") ? 0 : Integer.parseInt(row[5]);
+        store.addRevision(row[3], row[2], commitDate, added, deleted, row[6].equals("true"));
+    }
+
+    /** Releases evenly spread over the synthetic history, sorted by date. */
+    static List<DatasetBuilder.Release> releases(int count) {
+        List<DatasetBuilder.Release> releases = new ArrayList<>();
+        long step = (END_EPOCH - START_EPOCH) / (count + 1);
+        for (int i = 1; i <= count; i++) {
+            releases.add(new DatasetBuilder.Release("1." + i + ".0",
+                    LocalDateTime.ofEpochSecond(START_EPOCH + i * step, 0, ZoneOffset.UTC)));
+        }
+        return releases;
+    }
+
+    /** Writes the metrics rows as {@link MetricsCsvWriter} does, header included. */
+    void writeMetricsCsv(File out) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(out.toPath(), StandardCharsets.UTF_8)) {
+            writer.write(MetricsCsvWriter.HEADER);
+            for (String[] row : metricsRows) {
+                writer.append(row[0]).append(',').append(row[1]).append(',')
+                        .append('"').append(row[2]).append('"').append(',')
+                        .append('"').append(row[3]).append('"').append(',')
+                        .append(row[4]).append(',').append(row[5]).append(',')
+                        .append(row[6]).append(',').append(row[7]).append('\n');
+            }
+        }
+    }
+
+    private static String subject(SplittableRandom random, int tickets) {
+        int kind = random.nextInt(10);
+        if (kind < 3) {
+            // one ticket in ten is not in the valid set
+            int ticket = 1 + random.nextInt(tickets + tickets / 10 + 1);
+            return PROJECT_KEY + "-" + ticket + ": Fix failure in component " + random.nextInt(100);
+        } else if (kind == 3) {
+            return "Merge pull request #" + random.nextInt(5000) + " from fork/" + PROJECT_KEY + "-" + random.nextInt(99);
+        }
+        return "Refactor module " + random.nextInt(100) + " and update tests for the new client";
+    }
+
+    private static String hash(SplittableRandom random) {
+        StringBuilder sb = new StringBuilder(40);
+        while (sb.length() < 40) sb.append(Long.toHexString(random.nextLong() | Long.MIN_VALUE));
+        return sb.substring(0, 40);
+    }
+}
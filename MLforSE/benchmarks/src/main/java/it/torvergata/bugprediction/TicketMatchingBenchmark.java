@@ -0,0 +1,53 @@
+package it.torvergata.bugprediction;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ticket matching over all the commit subjects of a history: the single-pass
+ * {@link TicketMatcher} against the former per-ticket {@code contains} scan.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TicketMatchingBenchmark {
+
+    @Param({"10000"})
+    int commits;
+
+    @Param({"1200"})
+    int tickets;
+
+    private String[] subjects;
+    private TicketMatcher matcher;
+    private Set<String> ticketSet;
+
+    @Setup
+    public void setUp() {
+        SyntheticHistory history = new SyntheticHistory(commits, 2000, 50, tickets, 42);
+        subjects = history.subjects.toArray(new String[0]);
+        matcher = new TicketMatcher(SyntheticHistory.PROJECT_KEY, history.ticketKeys);
+        ticketSet = new HashSet<>(history.ticketKeys);
+    }
+
+    @Benchmark
+    public void singlePassMatcher(Blackhole bh) {
+        for (String subject : subjects) {
+            bh.consume(matcher.match(subject));
+        }
+    }
+
+    @Benchmark
+    public void perTicketScan(Blackhole bh) {
+        for (String subject : subjects) {
+            bh.consume(ticketSet.stream().anyMatch(subject::contains));
+        }
+    }
+}
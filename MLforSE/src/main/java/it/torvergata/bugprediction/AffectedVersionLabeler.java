@@ -0,0 +1,419 @@
+package it.torvergata.bugprediction;
+
+import it.torvergata.bugprediction.utils.CsvRowWriter;
+import it.torvergata.bugprediction.utils.JiraIssue;
+import it.torvergata.bugprediction.utils.MappedCsvReader;
+import it.torvergata.bugprediction.utils.StringDictionary;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Labels (release, file) pairs with the affected versions of the fixed bugs.
+ *
+ * <p>Versions are the windows of the dataset: 0 is Pre-Release, k the window opened
+ * by release k. For every ticket the opening version (OV) and the fixed version (FV)
+ * are the windows of its creation and resolution dates, and the injected version (IV)
+ * is the earliest of its JIRA affected versions. Tickets without usable affected
+ * versions get an IV estimated with proportion: IV = FV - (FV - OV) * P, where P is
+ * the mean (FV - IV) / (FV - OV) of the tickets that have them.</p>
+ *
+ * <p>Every file touched by a fix commit gets the interval [IV, FV) of its tickets.
+ * The intervals of each file are sorted and merged once, so labeling a pair is a
+ * binary search over the disjoint intervals of the file.</p>
+ *
+ * <p>{@link #knownAt(int)} gives the labels that could be computed at the end of a
+ * window: only the tickets fixed by then count, and P is computed on them alone, so
+ * that a training set does not see the bugs that were still to be found.</p>
+ */
+public class AffectedVersionLabeler implements CommitSink, DatasetBuilder.BugLabels {
+
+    private static final Logger LOGGER = Logger.getLogger(AffectedVersionLabeler.class.getName());
+    private static final DateTimeFormatter JIRA_DATE = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
+    private static final int MAX_WINDOWS = 1 << 16; // IV and FV are packed in 16 bits each
+    static final String TICKETS_HEADER = "TicketID,Created,ResolutionDate,AffectedVersions";
+    private static final char VERSION_SEPARATOR = ';';
+    private static final char VERSION_ESCAPE = '\\';
+
+    /** The versions of a fixed ticket, as window ordinals */
+    static class TicketVersions {
+        final int index;    // position in the ticket list
+        final String key;
+        final int affected; // earliest JIRA affected version, Integer.MAX_VALUE if none
+        final int opening;
+        final int fixed;
+        int injected;
+        boolean estimated;
+
+        TicketVersions(int index, String key, int affected, int opening, int fixed) {
+            this.index = index;
+            this.key = key;
+            this.affected = affected;
+            this.injected = affected;
+            this.opening = opening;
+            this.fixed = fixed;
+        }
+
+        // An IV after the OV means the affected versions are wrong: the IV is estimated instead
+        boolean hasAffectedVersions() {
+            return affected <= opening;
+        }
+
+        int injectedWith(double proportion) {
+            if (hasAffectedVersions()) return affected;
+            return (int) Math.max(0, Math.min(opening, Math.round(fixed - (fixed - opening) * proportion)));
+        }
+    }
+
+    /** Disjoint intervals of file f: [starts[i], ends[i]) for i in [fileStart[f], fileStart[f + 1]) */
+    private static final class Intervals {
+        final int[] fileStart;
+        final int[] starts;
+        final int[] ends;
+
+        Intervals(int[] fileStart, int[] starts, int[] ends) {
+            this.fileStart = fileStart;
+            this.starts = starts;
+            this.ends = ends;
+        }
+
+        boolean contains(int file, int window) {
+            if (file < 0 || file + 1 >= fileStart.length) return false;
+
+            // Last interval starting at or before the window
+            int lo = fileStart[file];
+            int hi = fileStart[file + 1] - 1;
+            int found = -1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (starts[mid] <= window) {
+                    found = mid;
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            return found >= 0 && window < ends[found];
+        }
+    }
+
+    private final List<DatasetBuilder.Release> releases;
+    private final Map<Integer, TicketVersions> tickets = new HashMap<>(); // by ticket number
+    private final List<TicketVersions> ticketList = new ArrayList<>();
+    private final double proportion;
+
+    // (file, ticket) of the fixes, packed as file << 32 | ticket index, and the stream positions
+    // of their commits (see FileLineage)
+    private final StringDictionary files = new StringDictionary();
+    private long[] fixes = new long[1024];
+    private long[] fixPositions = new long[1024];
+    private int fixCount;
+    private long position; // of the next streamed commit with changes
+    private FileLineage lineage; // null to label the raw paths
+    private int[] fixIdentities; // file ID of the lineage identity of every fix, built on first use
+    private Intervals all;       // the intervals of all the tickets, built on first use
+
+    public AffectedVersionLabeler(List<DatasetBuilder.Release> releases, List<JiraIssue> issues) {
+        if (releases.size() >= MAX_WINDOWS) throw new IllegalArgumentException("Too many releases");
+        this.releases = releases;
+
+        Map<String, Integer> windowByName = new HashMap<>();
+        for (int i = 0; i < releases.size(); i++) windowByName.putIfAbsent(releases.get(i).name, i + 1);
+
+        int skipped = 0;
+        for (JiraIssue issue : issues) {
+            long created = parseJiraDate(issue.created);
+            long resolved = parseJiraDate(issue.resolutionDate);
+            int number = ticketNumber(issue.key);
+            if (created == Long.MIN_VALUE || resolved == Long.MIN_VALUE || number <= 0) {
+                skipped++;
+                continue;
+            }
+            int opening = window(created);
+            int fixed = window(resolved);
+            if (fixed < opening) {
+                skipped++;
+                continue;
+            }
+
+            int injected = Integer.MAX_VALUE;
+            for (String name : issue.affectedVersions) {
+                Integer w = windowByName.get(name);
+                if (w != null) injected = Math.min(injected, w);
+            }
+            TicketVersions t = new TicketVersions(ticketList.size(), issue.key, injected, opening, fixed);
+            if (tickets.putIfAbsent(number, t) == null) ticketList.add(t);
+        }
+
+        proportion = proportion(Integer.MAX_VALUE);
+        int estimated = 0;
+        for (TicketVersions t : ticketList) {
+            if (t.hasAffectedVersions()) continue;
+            t.injected = t.injectedWith(proportion);
+            t.estimated = true;
+            estimated++;
+        }
+        LOGGER.log(Level.INFO, "{0} tickets with affected versions, {1} estimated with P = {2,number,#.###}, {3} skipped",
+                new Object[]{ticketList.size() - estimated, estimated, proportion, skipped});
+    }
+
+    /**
+     * Reads the tickets written by {@link RetrieveTicketsID}: key, creation and
+     * resolution dates and the affected versions, as written by {@link #joinVersions}.
+     */
+    static List<JiraIssue> loadIssues(String csvPath) throws IOException {
+        List<JiraIssue> issues = new ArrayList<>();
+        try (MappedCsvReader reader = new MappedCsvReader(Path.of(csvPath))) {
+            reader.next(); // skip header
+            while (reader.next()) {
+                if (reader.fieldCount() < 4) {
+                    throw new IOException("No version data in " + csvPath + ": retrieve the tickets again");
+                }
+                String versions = reader.getString(3);
+                issues.add(new JiraIssue(reader.getString(0), reader.getString(2), reader.getString(1),
+                        splitVersions(versions)));
+            }
+        }
+        return issues;
+    }
+
+    /** Joins version names with ';', escaping the ';' and '\\' they hold with a '\\'. */
+    static String joinVersions(List<String> names) {
+        StringBuilder sb = new StringBuilder();
+        for (int n = 0; n < names.size(); n++) {
+            String name = names.get(n);
+            if (n > 0) sb.append(VERSION_SEPARATOR);
+            for (int i = 0; i < name.length(); i++) {
+                char c = name.charAt(i);
+                if (c == VERSION_SEPARATOR || c == VERSION_ESCAPE) sb.append(VERSION_ESCAPE);
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /** Splits the version names joined by {@link #joinVersions}. */
+    static List<String> splitVersions(String joined) {
+        if (joined.isEmpty()) return List.of();
+        List<String> names = new ArrayList<>();
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < joined.length(); i++) {
+            char c = joined.charAt(i);
+            if (c == VERSION_ESCAPE && i + 1 < joined.length()) {
+                name.append(joined.charAt(++i));
+            } else if (c == VERSION_SEPARATOR) {
+                names.add(name.toString());
+                name.setLength(0);
+            } else {
+                name.append(c);
+            }
+        }
+        names.add(name.toString());
+        return names;
+    }
+
+    /**
+     * Records the files touched by a fix commit; commits of every date count. To be handed
+     * every streamed commit, which numbers them as {@link DatasetBuilder.MetricsAggregator} does.
+     */
+    @Override
+    public void accept(CommitRecord commit) {
+        if (commit.changes.isEmpty()) return;
+        long commitPosition = position++;
+        for (int number : commit.tickets) {
+            TicketVersions t = tickets.get(number);
+            if (t == null) continue;
+            for (CommitRecord.FileChange change : commit.changes) addFix(change.path, commitPosition, t);
+        }
+    }
+
+    /** Records the fix rows of a {@code _Metrics.csv} file (its Tickets column). */
+    public long addFixes(Path metricsCsv) throws IOException {
+        long[] rows = new long[1];
+        MetricsCsvReader.forEachRow(metricsCsv, (row, position) -> {
+            if (row.fieldCount() < 8 || !row.fieldEquals(6, "true")) return;
+            String path = null;
+            for (String key : row.getString(7).split(" ")) {
+                TicketVersions t = tickets.get(ticketNumber(key));
+                if (t == null) continue;
+                if (path == null) path = row.getString(3);
+                addFix(path, position, t);
+            }
+            rows[0]++;
+        });
+        return rows[0];
+    }
+
+    /**
+     * Records the files of the fix commits found in a {@link TicketIndex}: one point
+     * lookup per known ticket instead of a scan of the metrics file.
+     */
+    public long addFixes(TicketIndex index) {
+        long commits = 0;
+        for (Map.Entry<Integer, TicketVersions> e : tickets.entrySet()) {
+            for (int commit : index.commitsOf(e.getKey())) {
+                for (int file : index.filesOf(commit)) {
+                    addFix(index.filePath(file), index.commitPosition(commit), e.getValue());
+                }
+                commits++;
+            }
+        }
+        return commits;
+    }
+
+    /**
+     * Labels the files by lineage identity: the fixes of all the paths of a file count,
+     * each path with the file it named at the position of the fix.
+     */
+    @Override
+    public DatasetBuilder.BugLabels resolve(FileLineage lineage) {
+        this.lineage = lineage;
+        fixIdentities = null;
+        return this;
+    }
+
+    @Override
+    public boolean isBuggy(String file, int window, int nFix) {
+        if (all == null) all = buildIntervals(Integer.MAX_VALUE, proportion);
+        return all.contains(files.find(file), window);
+    }
+
+    /**
+     * The labels known at the end of a window: only the tickets fixed by then, with the
+     * IVs to estimate estimated with the P of those tickets. The intervals are built
+     * right away, so the labels can be read by several threads.
+     */
+    public DatasetBuilder.BugLabels knownAt(int window) {
+        Intervals known = buildIntervals(window, proportion(window));
+        return (file, w, nFix) -> known.contains(files.find(file), w);
+    }
+
+    /** Writes the versions of every ticket, by release name, to data/&lt;KEY&gt;_TicketVersions.csv. */
+    public void writeTicketVersions(String outFileName) throws IOException {
+        try (CsvRowWriter writer = new CsvRowWriter(Path.of(outFileName))) {
+            writer.line("TicketID,InjectedVersion,OpeningVersion,FixedVersion,Estimated");
+            for (TicketVersions t : new TreeMap<>(tickets).values()) {
+                writer.field(t.key)
+                        .field(windowName(t.injected))
+                        .field(windowName(t.opening))
+                        .field(windowName(t.fixed))
+                        .field(Boolean.toString(t.estimated))
+                        .endRow();
+            }
+        }
+    }
+
+    public int ticketCount() {
+        return tickets.size();
+    }
+
+    private void addFix(String path, long commitPosition, TicketVersions t) {
+        if (all != null) throw new IllegalStateException("Fixes added after labeling started");
+        if (fixCount == fixes.length) {
+            fixes = Arrays.copyOf(fixes, fixCount * 2);
+            fixPositions = Arrays.copyOf(fixPositions, fixCount * 2);
+        }
+        fixPositions[fixCount] = commitPosition;
+        fixes[fixCount++] = (long) files.idOf(path) << 32 | t.index;
+    }
+
+    // The file of every fix: the path itself, or the identity of the file it named at the fix position
+    private int[] fixIdentities() {
+        if (fixIdentities != null) return fixIdentities;
+        int[] ids = new int[fixCount];
+        for (int i = 0; i < fixCount; i++) {
+            int file = (int) (fixes[i] >>> 32);
+            ids[i] = lineage == null ? file
+                    : files.idOf(lineage.identity(lineage.key(files.get(file), fixPositions[i])));
+        }
+        fixIdentities = ids;
+        return ids;
+    }
+
+    // Mean (FV - IV) / (FV - OV) of the tickets fixed by the window that have affected versions
+    private double proportion(int window) {
+        double ratioSum = 0;
+        int withAffected = 0;
+        for (TicketVersions t : ticketList) {
+            if (t.fixed > window || !t.hasAffectedVersions()) continue;
+            ratioSum += (double) (t.fixed - t.affected) / Math.max(1, t.fixed - t.opening);
+            withAffected++;
+        }
+        return withAffected > 0 ? ratioSum / withAffected : 1;
+    }
+
+    // The [IV, FV) intervals of the tickets fixed by the window, packed as file << 32 | IV << 16 | FV,
+    // sorted, and merged where they overlap on the same file
+    private Intervals buildIntervals(int window, double p) {
+        int[] fileOf = fixIdentities();
+        long[] packed = new long[fixCount];
+        int n = 0;
+        for (int i = 0; i < fixCount; i++) {
+            TicketVersions t = ticketList.get((int) fixes[i]);
+            if (t.fixed > window) continue;
+            int injected = t.injectedWith(p);
+            if (injected >= t.fixed) continue; // injected and fixed in the same window: no release affected
+            packed[n++] = (long) fileOf[i] << 32 | (long) injected << 16 | t.fixed;
+        }
+        Arrays.sort(packed, 0, n);
+
+        int[] fileStart = new int[files.size() + 1];
+        int[] starts = new int[n];
+        int[] ends = new int[n];
+        int count = 0;
+        int file = 0;
+        for (int i = 0; i < n; i++) {
+            int f = (int) (packed[i] >>> 32);
+            int start = (int) (packed[i] >>> 16) & 0xFFFF;
+            int end = (int) packed[i] & 0xFFFF;
+            while (file < f) fileStart[++file] = count;
+            if (count > fileStart[f] && start <= ends[count - 1]) {
+                ends[count - 1] = Math.max(ends[count - 1], end);
+            } else {
+                starts[count] = start;
+                ends[count] = end;
+                count++;
+            }
+        }
+        while (file < files.size()) fileStart[++file] = count;
+        LOGGER.log(Level.FINE, "Affected-version index: {0} intervals over {1} files", new Object[]{count, files.size()});
+        return new Intervals(fileStart, starts, ends);
+    }
+
+    private int window(long epochSecond) {
+        return DatasetBuilder.releaseIndexFor(releases, epochSecond) + 1;
+    }
+
+    private String windowName(int window) {
+        return window == 0 ? DatasetBuilder.PRE_RELEASE : releases.get(window - 1).name;
+    }
+
+    // Number of a "PROJECT-123" key, -1 if it has none
+    private static int ticketNumber(String key) {
+        try {
+            return Integer.parseInt(key.substring(key.lastIndexOf('-') + 1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static long parseJiraDate(String date) {
+        if (date == null || date.isEmpty()) return Long.MIN_VALUE;
+        try {
+            return OffsetDateTime.parse(date, JIRA_DATE).toEpochSecond();
+        } catch (DateTimeParseException e) {
+            return Long.MIN_VALUE;
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package it.torvergata.bugprediction;
+
+import it.torvergata.bugprediction.utils.JiraClient;
+import it.torvergata.bugprediction.utils.JiraIssue;
+import it.torvergata.bugprediction.utils.MappedCsvReader;
+import it.torvergata.bugprediction.utils.RunReport;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs the whole pipeline (releases, tickets, git metrics, dataset) for a list of
+ * projects, a bounded number of them at a time. Each stage hands its result to the
+ * next one in memory, so only the final dataset and the run report of every project
+ * are written. A project that fails is logged and reported without stopping the others.
+ */
+public class BatchRunner {
+
+    private static final Logger LOGGER = Logger.getLogger(BatchRunner.class.getName());
+
+    /** A project to analyse, as listed in the projects file */
+    static class Project {
+        final String key;          // JIRA project key, e.g. "BOOKKEEPER"
+        final String repoPath;     // local working copy or bare repository
+        final String ticketPrefix; // key used by the commit messages to reference tickets
+        final String repoUrl;      // cloned into repoPath when missing, may be empty
+
+        Project(String key, String repoPath, String ticketPrefix, String repoUrl) {
+            this.key = key;
+            this.repoPath = repoPath;
+            this.ticketPrefix = ticketPrefix;
+            this.repoUrl = repoUrl;
+        }
+
+        // Name of the output files, as in the single-project runs
+        String name() {
+            return key.toLowerCase();
+        }
+    }
+
+    /**
+     * Usage: BatchRunner [projects.csv] [--parallel N] [--workers N] [--per-release] [--snapshot] [--label-av]
+     * The projects file has the header Key,RepoPath,TicketPrefix,RepoUrl; an empty
+     * TicketPrefix defaults to the key and RepoUrl can be left empty for repositories
+     * already on disk. --parallel is the number of projects run at once (default 2),
+     * --workers the number of git workers of each project. --snapshot also writes the
+     * size and complexity metrics of the files at every release. --label-av labels the files
+     * with the affected versions of their bugs (see {@link AffectedVersionLabeler}).
+     */
+    public static void main(String[] args) throws Exception {
+        String projectsFile = args.length > 0 && !args[0].startsWith("--") ? args[0] : "projects.csv";
+        int parallel = parseParallel(args);
+        int workers = GitMetricsExtractor.parseWorkers(args);
+        boolean perRelease = Arrays.asList(args).contains("--per-release");
+        boolean snapshot = Arrays.asList(args).contains("--snapshot");
+        boolean labelAv = Arrays.asList(args).contains("--label-av");
+
+        List<Project> projects = loadProjects(projectsFile);
+        LOGGER.log(Level.INFO, "Running {0} projects, {1} at a time", new Object[]{projects.size(), parallel});
+
+        List<String> failed = runAll(projects, parallel, workers, perRelease, snapshot, labelAv);
+        if (failed.isEmpty()) {
+            LOGGER.log(Level.INFO, "All {0} projects completed", projects.size());
+        } else {
+            LOGGER.log(Level.WARNING, "{0} of {1} projects failed: {2}",
+                    new Object[]{failed.size(), projects.size(), failed});
+        }
+    }
+
+    /** Runs the projects on a fixed pool and returns the keys of the failed ones. */
+    static List<String> runAll(List<Project> projects, int parallel, int workers, boolean perRelease,
+                               boolean snapshot, boolean labelAv) throws InterruptedException {
+        List<String> failed = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(parallel);
+        // A single client: the projects share its response cache and connection pool
+        try (JiraClient jira = JiraClient.fromSystemProperties()) {
+            Map<Project, Future<?>> results = new LinkedHashMap<>();
+            for (Project project : projects) {
+                results.put(project, executor.submit(() -> {
+                    runProject(project, jira, workers, perRelease, snapshot, labelAv);
+                    return null;
+                }));
+            }
+
+            for (Map.Entry<Project, Future<?>> result : results.entrySet()) {
+                String key = result.getKey().key;
+                try {
+                    result.getValue().get();
+                    LOGGER.log(Level.INFO, "Final dataset created for project: {0}", key);
+                } catch (ExecutionException e) {
+                    LOGGER.log(Level.SEVERE, e.getCause(), () -> "Pipeline failed for project " + key);
+                    failed.add(key);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return failed;
+    }
+
+    static void runProject(Project project, JiraClient jira, int workers, boolean perRelease, boolean snapshot,
+                           boolean labelAv) throws Exception {
+        try (RunReport report = RunReport.start(project.name() + "_Pipeline")) {
+            List<DatasetBuilder.Release> releases = new ArrayList<>();
+            TicketMatcher ticketMatcher;
+            String head; // walked instead of HEAD, and recorded as the source commit of the dataset
+            List<JiraIssue> issues = new ArrayList<>();
+            AffectedVersionLabeler labeler = null;
+            try {
+                try (RunReport.Stage stage = report.stage("releases")) {
+                    List<GetReleaseInfo.Version> versions = GetReleaseInfo.fetchVersions(jira, project.key, stage);
+                    if (versions.size() < GetReleaseInfo.MIN_VERSIONS) {
+                        throw new IllegalStateException("Number of versions too low (" + versions.size() + ")");
+                    }
+                    for (GetReleaseInfo.Version v : versions) releases.add(new DatasetBuilder.Release(v.name, v.date));
+                }
+
+                try (RunReport.Stage stage = report.stage("tickets")) {
+                    // Only the numbers: the commit messages may use a prefix other than the JIRA key
+                    List<String> ticketNumbers = new ArrayList<>();
+                    RetrieveTicketsID.streamFixedBugs(jira, project.key, stage, issue -> {
+                        ticketNumbers.add(issue.key.substring(issue.key.lastIndexOf('-') + 1));
+                        if (labelAv) issues.add(issue);
+                    });
+                    ticketMatcher = new TicketMatcher(project.ticketPrefix, ticketNumbers);
+                }
+
+                RunReport.Stage cloneStage = report.stage("clone");
+                try {
+                    if (project.repoUrl.isEmpty() && !new File(project.repoPath).exists()) {
+                        throw new IOException("Repository not found: " + project.repoPath);
+                    }
+                    GitMetricsExtractor.cloneRepoIfNeeded(project.name(), project.repoPath, project.repoUrl);
+                    head = MetricsCheckpoint.resolveHead(project.repoPath);
+                } finally {
+                    cloneStage.close();
+                }
+
+                if (labelAv) {
+                    try (RunReport.Stage stage = report.stage("labels")) {
+                        labeler = DatasetBuilder.saveTicketVersions(project.key,
+                                new AffectedVersionLabeler(releases, issues), stage);
+                    }
+                }
+            } catch (Exception e) {
+                report.fail(e);
+                throw e;
+            }
+
+            AffectedVersionLabeler fixes = labeler;
+            String outFileName = DatasetBuilder.buildDataset(project.name(), releases, perRelease, report,
+                    (maxAllowedDate, mapForDate, lineage, stage) -> {
+                        DatasetBuilder.MetricsAggregator aggregator =
+                                new DatasetBuilder.MetricsAggregator(maxAllowedDate, mapForDate, lineage);
+                        CommitSink sink = fixes == null ? aggregator : aggregator.andThen(fixes);
+                        GitMetricsExtractor.streamGitHistory(project.repoPath, head, ticketMatcher,
+                                sink.countedBy(stage), workers);
+                        DatasetBuilder.recordDateErrors(aggregator.dateParser, stage);
+                    },
+                    labeler != null ? labeler : DatasetBuilder.FIX_TOUCHED);
+            DatasetBuilder.writeColumns(project.name(), outFileName, head, report);
+
+            if (snapshot) {
+                try (RunReport.Stage stage = report.stage("snapshot")) {
+                    SnapshotMetricsExtractor.extractSnapshots(project.name(), project.repoPath, releases, stage);
+                } catch (IOException e) {
+                    report.fail(e);
+                    throw e;
+                }
+            }
+        }
+    }
+
+    static List<Project> loadProjects(String csvPath) throws IOException {
+        List<Project> projects = new ArrayList<>();
+        try (MappedCsvReader reader = new MappedCsvReader(Path.of(csvPath))) {
+            reader.next(); // skip header
+            while (reader.next()) {
+                String key = reader.getString(0).trim().toUpperCase();
+                String prefix = reader.fieldCount() > 2 ? reader.getString(2).trim() : "";
+                String url = reader.fieldCount() > 3 ? reader.getString(3).trim() : "";
+                projects.add(new Project(key, reader.getString(1).trim(), prefix.isEmpty() ? key : prefix, url));
+            }
+        }
+        return projects;
+    }
+
+    // Number of projects run at once from "--parallel N"
+    private static int parseParallel(String[] args) {
+        for (int i = 0; i + 1 < args.length; i++) {
+            if (args[i].equals("--parallel")) return Math.max(1, Integer.parseInt(args[i + 1]));
+        }
+        return 2;
+    }
+}
@@ -0,0 +1,41 @@
+package it.torvergata.bugprediction;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A commit read from the git history, together with the numstat rows of the
+ * Java files it touched.
+ */
+public class CommitRecord {
+
+    /** Added/deleted lines of one file; -1 stands for the "-" git prints for binary files. */
+    public static class FileChange {
+        final String path;
+        final int added;
+        final int deleted;
+
+        FileChange(String path, int added, int deleted) {
+            this.path = path;
+            this.added = added;
+            this.deleted = deleted;
+        }
+    }
+
+    final String hash;
+    final String date;   // as printed by git --date=iso
+    final String author;
+    final int[] tickets; // numbers of the tickets referenced by the subject
+    final List<FileChange> changes = new ArrayList<>();
+
+    CommitRecord(String hash, String date, String author, int[] tickets) {
+        this.hash = hash;
+        this.date = date;
+        this.author = author;
+        this.tickets = tickets;
+    }
+
+    boolean isTicketLinked() {
+        return tickets.length > 0;
+    }
+}
@@ -0,0 +1,31 @@
+package it.torvergata.bugprediction;
+
+import it.torvergata.bugprediction.utils.RunReport;
+
+import java.io.IOException;
+
+/**
+ * Receives the commits of a history walk as soon as they are parsed.
+ */
+@FunctionalInterface
+public interface CommitSink {
+
+    void accept(CommitRecord commit) throws IOException;
+
+    /** Returns a sink that counts the commits and their numstat lines in the stage, then hands them to this sink. */
+    default CommitSink countedBy(RunReport.Stage stage) {
+        return commit -> {
+            stage.increment(RunReport.COMMITS);
+            stage.add(RunReport.NUMSTAT_LINES, commit.changes.size());
+            accept(commit);
+        };
+    }
+
+    /** Returns a sink that hands every commit to this sink and then to {@code other}. */
+    default CommitSink andThen(CommitSink other) {
+        return commit -> {
+            accept(commit);
+            other.accept(commit);
+        };
+    }
+}
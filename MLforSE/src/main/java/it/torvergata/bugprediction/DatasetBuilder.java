@@ -1,145 +1,597 @@
 package it.torvergata.bugprediction;
 
-import com.opencsv.exceptions.CsvValidationException;
+import it.torvergata.bugprediction.utils.CsvRowWriter;
 import it.torvergata.bugprediction.utils.FileWriterUtils;
-import com.opencsv.CSVReader;
+import it.torvergata.bugprediction.utils.GitDateParser;
+import it.torvergata.bugprediction.utils.JiraIssue;
+import it.torvergata.bugprediction.utils.MappedCsvReader;
+import it.torvergata.bugprediction.utils.RunReport;
+import it.torvergata.bugprediction.utils.StringDictionary;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
+import java.time.ZoneOffset;
 import java.util.*;
+import java.util.function.LongFunction;
+import java.util.stream.IntStream;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class DatasetBuilder {
 
     private static final Logger LOGGER = Logger.getLogger(DatasetBuilder.class.getName());
-
-    static class Metric {
-        int locAdded = 0;
-        int locDeleted = 0;
-        int nRev = 0;
-        int nFix = 0;
-        Set<String> authors = new HashSet<>();
-        boolean buggy = false;
-        LocalDateTime date; // last commit date
-
-        // derived metrics
-        int locTouched = 0; // LOC_Added + LOC_Deleted
-        double churn = 0;   // LOC_Touched / NR
-    }
+    static final String PRE_RELEASE = "Pre-Release";
+    static final String DATASET_HEADER =
+            "Project,Version,File,LOC_Added,LOC_Deleted,LOC_Touched,Churn,NR,NFix,NAuth,Buggy";
+    static final DatasetColumns.Type[] DATASET_TYPES = {
+            DatasetColumns.Type.NOMINAL, DatasetColumns.Type.NOMINAL, DatasetColumns.Type.STRING,
+            DatasetColumns.Type.INT, DatasetColumns.Type.INT, DatasetColumns.Type.INT, DatasetColumns.Type.DOUBLE,
+            DatasetColumns.Type.INT, DatasetColumns.Type.INT, DatasetColumns.Type.INT, DatasetColumns.Type.NOMINAL};
 
     static class Release {
         String name;
         LocalDateTime date;
+        long epochSecond; // release date as UTC epoch seconds
         Release(String name, LocalDateTime date) {
             this.name = name;
             this.date = date;
+            this.epochSecond = date.toEpochSecond(ZoneOffset.UTC);
+        }
+    }
+
+    /**
+     * Per-release windows of file metrics. Window 0 holds the commits made before the
+     * first release, window k the ones made between release k and release k+1.
+     */
+    static class ReleaseBuckets {
+        final List<Release> releases;
+        final List<MetricStore> windows = new ArrayList<>();
+
+        ReleaseBuckets(List<Release> releases, StringDictionary files, StringDictionary authors) {
+            this.releases = releases;
+            for (int i = 0; i <= releases.size(); i++) windows.add(new MetricStore(files, authors));
+        }
+
+        MetricStore windowFor(long commitEpoch) {
+            return windows.get(releaseIndexFor(releases, commitEpoch) + 1);
+        }
+    }
+
+    /**
+     * Aggregates the streamed commits into per-file metrics, skipping the ones
+     * committed after the allowed date. Renames are recorded in the lineage, if any, at
+     * the stream position of their commit: every commit with changes counts, skipped or not.
+     */
+    static class MetricsAggregator implements CommitSink {
+        final GitDateParser dateParser = new GitDateParser();
+        private final long maxAllowedDate;
+        private final LongFunction<MetricStore> mapForDate;
+        private final FileLineage lineage; // null to keep the raw paths
+        private long position;             // of the next commit with changes
+
+        MetricsAggregator(long maxAllowedDate, LongFunction<MetricStore> mapForDate) {
+            this(maxAllowedDate, mapForDate, null);
+        }
+
+        MetricsAggregator(long maxAllowedDate, LongFunction<MetricStore> mapForDate, FileLineage lineage) {
+            this.maxAllowedDate = maxAllowedDate;
+            this.mapForDate = mapForDate;
+            this.lineage = lineage;
+        }
+
+        @Override
+        public void accept(CommitRecord commit) {
+            if (commit.changes.isEmpty()) return;
+            long commitPosition = position++;
+            long commitEpoch = dateParser.parse(commit.date);
+            if (commitEpoch == GitDateParser.INVALID || commitEpoch > maxAllowedDate) return;
+
+            MetricStore store = mapForDate.apply(commitEpoch);
+            int authorId = store.authors.idOf(commit.author);
+            boolean isFix = commit.isTicketLinked();
+            for (CommitRecord.FileChange change : commit.changes) {
+                String renamed = lineage != null ? lineage.record(change.path, commitPosition) : null;
+                store.addRevision(store.files.idOf(renamed != null ? renamed : change.path), authorId, commitEpoch,
+                        Math.max(change.added, 0), Math.max(change.deleted, 0), isFix);
+            }
         }
     }
 
+    /**
+     * Usage: DatasetBuilder [--per-release] [--label-av] [--from-git [--write-metrics] [--workers N]]
+     * By default the metrics are read from data/&lt;project&gt;_Metrics.csv. With --from-git the
+     * git history is streamed straight into the aggregation and the intermediate CSV is
+     * written only if --write-metrics is also given.
+     * With --per-release one row per (release, file) is written, with the metrics cumulated
+     * up to that release, instead of one row per file.
+     * With --label-av a file is buggy in the versions affected by the bugs it was fixed for
+     * (see {@link AffectedVersionLabeler}) rather than whenever a fix touched it.
+     */
     public static void main(String[] args) throws Exception {
         String project = "bookkeeper";
         String dataDir = "data/";
+        List<String> options = Arrays.asList(args);
+        boolean fromGit = options.contains("--from-git");
+
+        try (RunReport report = RunReport.start(project + "_DatasetBuilder")) {
+            List<Release> releases;
+            try (RunReport.Stage stage = report.stage("releases")) {
+                releases = loadReleases(dataDir + "BOOKKEEPERVersionInfo.csv");
+                stage.add(RunReport.CSV_ROWS_READ, releases.size());
+            }
+
+            AffectedVersionLabeler labeler = null;
+            if (options.contains("--label-av")) {
+                try (RunReport.Stage stage = report.stage("labels")) {
+                    labeler = loadLabeler("BOOKKEEPER", dataDir, releases, stage);
+                } catch (IOException e) {
+                    report.fail(e);
+                    throw e;
+                }
+            }
+
+            ProjectMetrics source = metricsSource(project, dataDir, fromGit, options.contains("--write-metrics"),
+                    GitMetricsExtractor.parseWorkers(args), labeler);
+            String outFileName = buildDataset(project, releases, options.contains("--per-release"), report, source,
+                    labeler != null ? labeler : FIX_TOUCHED);
+            writeColumns(project, outFileName, source.sourceCommit(), report);
+
+            LOGGER.log(Level.INFO, "Final dataset created for project: {0}", project);
+        }
+    }
+
+    /**
+     * Builds the affected-version labels from data/&lt;KEY&gt;_Tickets.csv and saves the
+     * versions of every ticket in data/&lt;KEY&gt;_TicketVersions.csv.
+     */
+    static AffectedVersionLabeler loadLabeler(String projectKey, String dataDir, List<Release> releases,
+                                              RunReport.Stage stage) throws IOException {
+        List<JiraIssue> issues = AffectedVersionLabeler.loadIssues(dataDir + RetrieveTicketsID.ticketsFileName(projectKey));
+        stage.add(RunReport.CSV_ROWS_READ, issues.size());
+        return saveTicketVersions(projectKey, new AffectedVersionLabeler(releases, issues), stage);
+    }
+
+    /**
+     * Feeds the fix commits to the labeler from data/&lt;project&gt;_TicketIndex.bin, or from
+     * the metrics file when there is no index yet.
+     */
+    static void addFixes(AffectedVersionLabeler labeler, String project, String dataDir) throws IOException {
+        Path indexFile = Path.of(dataDir + project + "_TicketIndex.bin");
+        if (!Files.exists(indexFile)) {
+            labeler.addFixes(Path.of(dataDir + project + "_Metrics.csv"));
+            return;
+        }
+        try (TicketIndex index = TicketIndex.open(indexFile)) {
+            labeler.addFixes(index);
+        }
+    }
+
+    /**
+     * The metrics of the project, read from data/&lt;project&gt;_Metrics.csv or, with fromGit,
+     * streamed from its git history. The fix commits are fed to the labeler, if any.
+     */
+    static ProjectMetrics metricsSource(String project, String dataDir, boolean fromGit, boolean writeMetrics,
+                                        int workers, AffectedVersionLabeler labeler) {
+        return new ProjectMetrics(project, dataDir, fromGit, writeMetrics, workers, labeler);
+    }
+
+    /**
+     * The metrics source of the main: once it has been read, it also tells the commit the
+     * metrics were extracted at, i.e. the HEAD walked with fromGit, or the commit of the
+     * checkpoint of the metrics file (empty when the file has no valid checkpoint).
+     */
+    static class ProjectMetrics implements MetricsSource {
+        private final String project;
+        private final String dataDir;
+        private final boolean fromGit;
+        private final boolean writeMetrics;
+        private final int workers;
+        private final AffectedVersionLabeler labeler;
+        private String sourceCommit = "";
+
+        ProjectMetrics(String project, String dataDir, boolean fromGit, boolean writeMetrics, int workers,
+                       AffectedVersionLabeler labeler) {
+            this.project = project;
+            this.dataDir = dataDir;
+            this.fromGit = fromGit;
+            this.writeMetrics = writeMetrics;
+            this.workers = workers;
+            this.labeler = labeler;
+        }
+
+        @Override
+        public void aggregate(long maxAllowedDate, LongFunction<MetricStore> mapForDate, FileLineage lineage,
+                              RunReport.Stage stage) throws Exception {
+            if (fromGit) {
+                sourceCommit = buildMetricsMapFromGit(project, dataDir, maxAllowedDate, writeMetrics, workers,
+                        mapForDate, lineage, labeler != null ? labeler : commit -> { }, stage);
+            } else {
+                buildMetricsMap(project, dataDir, maxAllowedDate, mapForDate, lineage, stage);
+                if (labeler != null) addFixes(labeler, project, dataDir);
+                sourceCommit = MetricsCheckpoint.extractedCommit(dataDir + project + "_Metrics.csv");
+            }
+        }
+
+        String sourceCommit() {
+            return sourceCommit;
+        }
+    }
 
-        List<Release> releases = loadReleases(dataDir + "BOOKKEEPERVersionInfo.csv");
-        LocalDateTime maxAllowedDate = computeMaxAllowedDate(releases);
+    static AffectedVersionLabeler saveTicketVersions(String projectKey, AffectedVersionLabeler labeler,
+                                                     RunReport.Stage stage) throws IOException {
+        String outFileName = FileWriterUtils.prepareOutputDataFilePath(projectKey + "_TicketVersions.csv");
+        labeler.writeTicketVersions(outFileName);
+        stage.add(RunReport.RECORDS, labeler.ticketCount());
+        stage.add(RunReport.CSV_ROWS_WRITTEN, labeler.ticketCount());
+        LOGGER.log(Level.INFO, "Ticket versions saved in {0}", outFileName);
+        return labeler;
+    }
+
+    /**
+     * Feeds the revisions of the project to the stores given by mapForDate, and its
+     * renames to the lineage when there is one.
+     */
+    @FunctionalInterface
+    interface MetricsSource {
+        void aggregate(long maxAllowedDate, LongFunction<MetricStore> mapForDate, FileLineage lineage,
+                       RunReport.Stage stage) throws Exception;
+    }
+
+    /** Tells whether a file is buggy in a version (window 0 is Pre-Release, k the window of release k). */
+    @FunctionalInterface
+    interface BugLabels {
+        boolean isBuggy(String file, int window, int nFix);
 
-        Map<String, Metric> metrics = buildMetricsMap(project, dataDir, maxAllowedDate);
-        writeDatasetCSV(project, releases, metrics);
+        /** The labels to use once the files are named after their lineage identity. */
+        default BugLabels resolve(FileLineage lineage) {
+            return this;
+        }
+    }
 
-        LOGGER.log(Level.INFO, "Final dataset created for project: {0}", project);
+    /** The default labels: a file is buggy if at least one ticket-linked commit touched it. */
+    static final BugLabels FIX_TOUCHED = (file, window, nFix) -> nFix > 0;
+
+    static String buildDataset(String project, List<Release> releases, boolean perRelease, RunReport report,
+                               MetricsSource source) throws Exception {
+        return buildDataset(project, releases, perRelease, report, source, FIX_TOUCHED);
     }
 
-    private static LocalDateTime computeMaxAllowedDate(List<Release> releases) {
+    /**
+     * Aggregates the metrics read from the source and writes the dataset of the project
+     * in data/&lt;project&gt;.csv, or data/&lt;project&gt;_PerRelease.csv with perRelease.
+     * With the system property dataset.gzip=true the file is gzip-compressed (.csv.gz).
+     * With dataset.memoryBudget (e.g. 512m or 2g) the metrics are aggregated within that
+     * heap budget, spilling to temporary files when needed (see {@link SpillingMetricStore}).
+     * The Buggy column is given by the labels, read once the aggregation is over.
+     * Renamed files are followed: their rows are named after their newest path and
+     * cover the history of all their paths, unless dataset.followRenames=false.
+     * Returns the name of the dataset file.
+     */
+    static String buildDataset(String project, List<Release> releases, boolean perRelease, RunReport report,
+                               MetricsSource source, BugLabels labels) throws Exception {
+        String outFileName = FileWriterUtils.prepareOutputDataFilePath(
+                datasetFileName(perRelease ? project + "_PerRelease" : project));
+        buildDataset(project, outFileName, releases, perRelease, report, source, labels);
+        return outFileName;
+    }
+
+    static void buildDataset(String project, String outFileName, List<Release> releases, boolean perRelease,
+                             RunReport report, MetricsSource source, BugLabels labels) throws Exception {
+        long maxAllowedDate = computeMaxAllowedDate(releases);
+        FileLineage lineage = Boolean.parseBoolean(System.getProperty("dataset.followRenames", "true"))
+                ? new FileLineage()
+                : null;
+        long budgetBytes = parseSize(System.getProperty("dataset.memoryBudget", "0"));
+        if (budgetBytes > 0) {
+            buildDatasetWithBudget(project, outFileName, releases, report, source, labels, lineage,
+                    maxAllowedDate, budgetBytes, perRelease);
+            return;
+        }
+
+        MetricStore metrics = new MetricStore();
+        ReleaseBuckets buckets = new ReleaseBuckets(releases, metrics.files, metrics.authors);
+        LongFunction<MetricStore> mapForDate = perRelease ? buckets::windowFor : d -> metrics;
+
+        try (RunReport.Stage stage = report.stage("aggregate")) {
+            source.aggregate(maxAllowedDate, mapForDate, lineage, stage);
+            if (lineage != null) recordRenames(lineage, stage);
+        } catch (Exception e) {
+            report.fail(e);
+            throw e;
+        }
+
+        MetricStore resolved = metrics;
+        if (lineage != null && lineage.renameCount() > 0) {
+            int[] identities = lineage.identities(metrics.files);
+            if (perRelease) buckets.windows.replaceAll(window -> window.resolve(identities));
+            else resolved = metrics.resolve(identities);
+            labels = labels.resolve(lineage);
+        }
+
+        try (RunReport.Stage stage = report.stage("write")) {
+            if (perRelease) {
+                writePerReleaseDatasetCSV(project, outFileName, buckets, maxAllowedDate, labels, stage);
+            } else {
+                writeDatasetCSV(project, outFileName, releases, resolved, labels, stage);
+            }
+        }
+    }
+
+    static void recordRenames(FileLineage lineage, RunReport.Stage stage) {
+        stage.add(RunReport.RENAMES, lineage.renameCount());
+        LOGGER.log(Level.INFO, "Followed {0} renames", lineage.renameCount());
+    }
+
+    private static void buildDatasetWithBudget(String project, String outFileName, List<Release> releases,
+                                               RunReport report, MetricsSource source, BugLabels labels,
+                                               FileLineage lineage, long maxAllowedDate, long budgetBytes,
+                                               boolean perRelease) throws Exception {
+        try (SpillingMetricStore store = new SpillingMetricStore(releases, perRelease, budgetBytes)) {
+            try (RunReport.Stage stage = report.stage("aggregate")) {
+                source.aggregate(maxAllowedDate, store::windowFor, lineage, stage);
+                if (lineage != null) recordRenames(lineage, stage);
+            } catch (Exception e) {
+                report.fail(e);
+                throw e;
+            }
+            if (lineage != null && lineage.renameCount() > 0) {
+                store.resolve(lineage);
+                labels = labels.resolve(lineage);
+            }
+
+            try (RunReport.Stage stage = report.stage("write")) {
+                try {
+                    stage.add(RunReport.CSV_ROWS_WRITTEN, store.writeDataset(project, outFileName, maxAllowedDate, labels));
+                    stage.add(RunReport.BYTES_WRITTEN, new File(outFileName).length());
+                } catch (IOException e) {
+                    LOGGER.log(Level.SEVERE, "Error writing CSV file", e);
+                    stage.error(e);
+                }
+                stage.add(RunReport.SPILL_RUNS, store.runCount());
+            }
+            LOGGER.log(Level.INFO, "Dataset saved in {0}", outFileName);
+        }
+    }
+
+    // A size in bytes, with an optional k, m or g suffix
+    static long parseSize(String size) {
+        String s = size.trim().toLowerCase();
+        int shift = 0;
+        if (s.endsWith("k")) shift = 10;
+        else if (s.endsWith("m")) shift = 20;
+        else if (s.endsWith("g")) shift = 30;
+        if (shift > 0) s = s.substring(0, s.length() - 1);
+        return Long.parseLong(s) << shift;
+    }
+
+    static long computeMaxAllowedDate(List<Release> releases) {
         int half = releases.size() / 2;
         List<Release> firstHalf = releases.subList(0, half);
-        return firstHalf.get(firstHalf.size() - 1).date;
+        return firstHalf.get(firstHalf.size() - 1).epochSecond;
+    }
+
+    private static void buildMetricsMap(String project, String dataDir, long maxAllowedDate,
+                                        LongFunction<MetricStore> mapForDate, FileLineage lineage,
+                                        RunReport.Stage stage) throws IOException {
+
+        String inFileName = dataDir + project + "_Metrics.csv";
+        GitDateParser dateParser = new GitDateParser();
+        long rows = aggregateMetricsCsv(Path.of(inFileName), mapForDate, lineage, maxAllowedDate, dateParser);
+        stage.add(RunReport.CSV_ROWS_READ, rows);
+        stage.add(RunReport.BYTES_READ, new File(inFileName).length());
+        recordDateErrors(dateParser, stage);
     }
 
-    private static Map<String, Metric> buildMetricsMap(String project, String dataDir, LocalDateTime maxAllowedDate)
-            throws IOException, CsvValidationException {
+    /** Aggregates the rows of a {@code _Metrics.csv} file and returns how many were read. */
+    static long aggregateMetricsCsv(Path csvPath, LongFunction<MetricStore> mapForDate, long maxAllowedDate,
+                                    GitDateParser dateParser) throws IOException {
+        return aggregateMetricsCsv(csvPath, mapForDate, null, maxAllowedDate, dateParser);
+    }
 
-        Map<String, Metric> map = new HashMap<>();
-        try (CSVReader reader = new CSVReader(new FileReader(dataDir + project + "_Metrics.csv"))) {
-            reader.readNext(); // skip header
-            String[] c;
-            while ((c = reader.readNext()) != null) {
-                processCommitLine(map, c, maxAllowedDate);
+    static long aggregateMetricsCsv(Path csvPath, LongFunction<MetricStore> mapForDate, FileLineage lineage,
+                                    long maxAllowedDate, GitDateParser dateParser) throws IOException {
+        return MetricsCsvReader.forEachRow(csvPath,
+                (row, position) -> processCommitLine(mapForDate, row, lineage, position, maxAllowedDate, dateParser));
+    }
+
+    // Extract-and-aggregate mode: no intermediate text round trip unless writeMetricsCsv is set.
+    // Returns the commit walked, HEAD when the walk started.
+    private static String buildMetricsMapFromGit(String project, String dataDir, long maxAllowedDate,
+                                               boolean writeMetricsCsv, int workers,
+                                               LongFunction<MetricStore> mapForDate, FileLineage lineage,
+                                               CommitSink fixes, RunReport.Stage stage) throws Exception {
+        String projectPath = new File("projects", project).getPath();
+        GitMetricsExtractor.cloneRepoIfNeeded(project, projectPath, "https://github.com/apache/" + project + ".git");
+        String head = MetricsCheckpoint.resolveHead(projectPath);
+
+        Set<String> validTickets = GitMetricsExtractor.loadTickets(dataDir + RetrieveTicketsID.ticketsFileName(project));
+        TicketMatcher ticketMatcher = new TicketMatcher(project, validTickets);
+        MetricsAggregator aggregator = new MetricsAggregator(maxAllowedDate, mapForDate, lineage);
+        CommitSink sink = aggregator.andThen(fixes);
+
+        if (writeMetricsCsv) {
+            String outFileName = FileWriterUtils.prepareOutputDataFilePath(project + "_Metrics.csv");
+            try (MetricsCsvWriter csvWriter = new MetricsCsvWriter(outFileName, ticketMatcher)) {
+                GitMetricsExtractor.streamGitHistory(projectPath, head, ticketMatcher,
+                        sink.andThen(csvWriter).countedBy(stage), workers);
             }
+            stage.add(RunReport.CSV_ROWS_WRITTEN, stage.get(RunReport.NUMSTAT_LINES));
+            stage.add(RunReport.BYTES_WRITTEN, new File(outFileName).length());
+            LOGGER.log(Level.INFO, "Metrics extracted in {0}", outFileName);
+        } else {
+            GitMetricsExtractor.streamGitHistory(projectPath, head, ticketMatcher, sink.countedBy(stage), workers);
         }
-        return map;
+        recordDateErrors(aggregator.dateParser, stage);
+        return head;
     }
 
-    private static void processCommitLine(Map<String, Metric> map, String[] c, LocalDateTime maxAllowedDate) {
-        LocalDateTime commitDate = parseDate(c[1]);
-        if (commitDate.isAfter(maxAllowedDate)) return;
+    static void recordDateErrors(GitDateParser dateParser, RunReport.Stage stage) {
+        stage.add(RunReport.PARSE_ERRORS, dateParser.getErrorCount());
+        if (dateParser.getErrorCount() > 0) {
+            LOGGER.log(Level.WARNING, "Skipped {0} revisions with a malformed commit date",
+                    dateParser.getErrorCount());
+        }
+    }
+
+    // On the current row of a mapped reader: file and author are decoded into reused
+    // buffers and become Strings only the first time they are seen
+    static void processCommitLine(LongFunction<MetricStore> mapForDate, MappedCsvReader c, FileLineage lineage,
+                                  long position, long maxAllowedDate, GitDateParser dateParser) {
+        long commitDate = dateParser.parse(c.text(1));
+        if (commitDate == GitDateParser.INVALID || commitDate > maxAllowedDate) return;
 
-        String file = c[3];
-        boolean isFix = c[6].equals("true");
-        int added = c[4].equals("-") ? 0 : Integer.parseInt(c[4]);
-        int deleted = c[5].equals("-") ? 0 : Integer.parseInt(c[5]);
+        boolean isFix = c.fieldEquals(6, "true");
+        int added = c.fieldEquals(4, "-") ? 0 : c.parseInt(4);
+        int deleted = c.fieldEquals(5, "-") ? 0 : c.parseInt(5);
 
-        Metric m = map.getOrDefault(file, new Metric());
-        m.locAdded += added;
-        m.locDeleted += deleted;
-        m.nRev++;
-        if (isFix) {
-            m.nFix++;
-            m.buggy = true;
+        MetricStore store = mapForDate.apply(commitDate);
+        String renamed = lineage != null ? lineage.record(c.text(3), position) : null;
+        store.addRevision(store.files.idOf(renamed != null ? renamed : c.text(3)), store.authors.idOf(c.text(2)),
+                commitDate, added, deleted, isFix);
+    }
+
+    private static void writeDatasetCSV(String project, String outFileName, List<Release> releases,
+                                        MetricStore store, BugLabels labels, RunReport.Stage stage) {
+        try {
+            stage.add(RunReport.CSV_ROWS_WRITTEN, writeDatasetCSV(outFileName, project, releases, store, labels));
+            stage.add(RunReport.BYTES_WRITTEN, new File(outFileName).length());
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Error writing CSV file", e);
+            stage.error(e);
         }
-        m.authors.add(c[2]);
-        if (m.date == null || commitDate.isAfter(m.date))
-            m.date = commitDate;
+    }
+
+    static long writeDatasetCSV(String outFileName, String project, List<Release> releases, MetricStore store)
+            throws IOException {
+        return writeDatasetCSV(outFileName, project, releases, store, FIX_TOUCHED);
+    }
 
-        m.locTouched = m.locAdded + m.locDeleted;
-        m.churn = m.nRev > 0 ? (double) m.locTouched / m.nRev : 0;
+    /** Writes one row per file, in the version of its last commit, and returns the number of rows written. */
+    static long writeDatasetCSV(String outFileName, String project, List<Release> releases, MetricStore store,
+                                BugLabels labels) throws IOException {
+        long rows = 0;
+        try (CsvRowWriter writer = new CsvRowWriter(Path.of(outFileName))) {
+            writer.line(DATASET_HEADER);
 
-        map.put(file, m);
+            for (int id = 0; id < store.fileIdLimit(); id++) {
+                if (!store.contains(id)) continue;
+                int window = releaseIndexFor(releases, store.lastCommit[id]) + 1;
+                String version = window == 0 ? PRE_RELEASE : releases.get(window - 1).name;
+                writeRow(writer, project, version, store, id,
+                        labels.isBuggy(store.file(id), window, store.nFix[id]));
+                rows++;
+            }
+        }
+        return rows;
     }
 
-    private static void writeDatasetCSV(String project, List<Release> releases, Map<String, Metric> map) {
-        String outFileName = FileWriterUtils.prepareOutputDataFilePath(project + ".csv");
+    /**
+     * Writes one row per (release, file): the windows are accumulated release after release,
+     * so the metrics of a release include all the history up to it.
+     */
+    private static void writePerReleaseDatasetCSV(String project, String outFileName, ReleaseBuckets buckets,
+                                                  long maxAllowedDate, BugLabels labels, RunReport.Stage stage) {
+        long rows = 0;
 
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(outFileName))) {
-            writer.write("Project,Version,File,LOC_Added,LOC_Deleted,LOC_Touched,Churn,NR,NFix,NAuth,Buggy\n");
+        try (CsvRowWriter writer = new CsvRowWriter(Path.of(outFileName))) {
+            writer.line(DATASET_HEADER);
 
-            for (Map.Entry<String, Metric> entry : map.entrySet()) {
-                String f = entry.getKey();
-                Metric m = entry.getValue();
-                String version = findReleaseForDate(releases, m.date);
+            MetricStore first = buckets.windows.get(0);
+            MetricStore cumulative = new MetricStore(first.files, first.authors);
+            int[] byPath = sortedByPath(first.files);
+            for (int k = 0; k < buckets.windows.size(); k++) {
+                Release release = k == 0 ? null : buckets.releases.get(k - 1);
+                if (release != null && release.epochSecond > maxAllowedDate) break;
 
-                writer.write(String.join(",",
-                        project,
-                        version,
-                        f,
-                        String.valueOf(m.locAdded),
-                        String.valueOf(m.locDeleted),
-                        String.valueOf(m.locTouched),
-                        String.format("%.2f", m.churn),
-                        String.valueOf(m.nRev),
-                        String.valueOf(m.nFix),
-                        String.valueOf(m.authors.size()),
-                        m.buggy ? "Yes" : "No"));
-                writer.newLine();
+                cumulative.add(buckets.windows.get(k));
+                String version = release == null ? PRE_RELEASE : release.name;
+                for (int id : byPath) {
+                    if (!cumulative.contains(id)) continue;
+                    writeRow(writer, project, version, cumulative, id,
+                            labels.isBuggy(cumulative.file(id), k, cumulative.nFix[id]));
+                    rows++;
+                }
             }
 
         } catch (IOException e) {
             LOGGER.log(Level.SEVERE, "Error writing CSV file", e);
+            stage.error(e);
         }
+        stage.add(RunReport.CSV_ROWS_WRITTEN, rows);
+        stage.add(RunReport.BYTES_WRITTEN, new File(outFileName).length());
+        LOGGER.log(Level.INFO, "Per-release dataset saved in {0}", outFileName);
+    }
+
+    private static void writeRow(CsvRowWriter writer, String project, String version, MetricStore m, int id,
+                                 boolean buggy) throws IOException {
+        writeRow(writer, project, version, m.file(id), m.locAdded[id], m.locDeleted[id],
+                m.nRev[id], m.nFix[id], m.nAuth[id], buggy);
+    }
+
+    static void writeRow(CsvRowWriter writer, String project, String version, String file,
+                         int locAdded, int locDeleted, int nRev, int nFix, int nAuth, boolean buggy)
+            throws IOException {
+        int locTouched = locAdded + locDeleted;
+        writer.field(project)
+                .field(version)
+                .field(file)
+                .field(locAdded)
+                .field(locDeleted)
+                .field(locTouched)
+                .ratio(locTouched, nRev, 2) // churn
+                .field(nRev)
+                .field(nFix)
+                .field(nAuth)
+                .field(buggy ? "Yes" : "No")
+                .endRow();
+    }
+
+    static String datasetFileName(String baseName) {
+        return baseName + (Boolean.getBoolean("dataset.gzip") ? ".csv.gz" : ".csv");
+    }
+
+    /**
+     * Writes the dataset also in the columnar format of {@link DatasetColumns}, next to
+     * the CSV with a .bin extension, for fast reloads; skipped with dataset.columns=false.
+     * The source commit is the commit the metrics were extracted at, empty if unknown.
+     */
+    static void writeColumns(String project, String csvFileName, String sourceCommit, RunReport report) {
+        if (!Boolean.parseBoolean(System.getProperty("dataset.columns", "true"))) return;
+        String outFileName = csvFileName.replaceFirst("\\.csv(\\.gz)?$", "") + ".bin";
+        try (RunReport.Stage stage = report.stage("columns")) {
+            try {
+                int rows = DatasetColumnsWriter.write(Path.of(csvFileName), Path.of(outFileName), project,
+                        sourceCommit, DATASET_TYPES);
+                stage.add(RunReport.RECORDS, rows);
+                stage.add(RunReport.BYTES_WRITTEN, new File(outFileName).length());
+                LOGGER.log(Level.INFO, "Columnar dataset saved in {0}", outFileName);
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Error writing the columnar dataset", e);
+                stage.error(e);
+            }
+        }
+    }
+
+    // File IDs in path order, so that every release block is written in the same order
+    static int[] sortedByPath(StringDictionary files) {
+        return IntStream.range(0, files.size())
+                .boxed()
+                .sorted(Comparator.comparing(files::get))
+                .mapToInt(Integer::intValue)
+                .toArray();
     }
 
     // Load all releases sorted by date
-    private static List<Release> loadReleases(String csvPath) throws IOException, CsvValidationException {
+    static List<Release> loadReleases(String csvPath) throws IOException {
         List<Release> releases = new ArrayList<>();
 
-        try (CSVReader reader = new CSVReader(new FileReader(csvPath))) {
-            reader.readNext(); // skip header
-            String[] r;
-            while ((r = reader.readNext()) != null) {
-                String name = r[2];
-                String dateStr = r[3];
-                LocalDateTime date = LocalDateTime.parse(dateStr);
+        try (MappedCsvReader reader = new MappedCsvReader(Path.of(csvPath))) {
+            reader.next(); // skip header
+            while (reader.next()) {
+                String name = reader.getString(2);
+                LocalDateTime date = LocalDateTime.parse(reader.text(3));
                 releases.add(new Release(name, date));
             }
         }
@@ -149,31 +601,25 @@ public class DatasetBuilder {
     }
 
     // Find the latest release <= commit date
-    private static String findReleaseForDate(List<Release> releases, LocalDateTime commitDate) {
-        String version = "Pre-Release";
-        for (Release r : releases) {
-            if (!r.date.isAfter(commitDate)) {
-                version = r.name;
-            } else {
-                break;
-            }
-        }
-        return version;
+    static String findReleaseForDate(List<Release> releases, long commitDate) {
+        int index = releaseIndexFor(releases, commitDate);
+        return index < 0 ? PRE_RELEASE : releases.get(index).name;
     }
 
-    // Robust parsing of commit data (git format)
-    private static LocalDateTime parseDate(String dateStr) {
-        try {
-            // Example: 2020-03-05 14:22:12 +0000
-            DateTimeFormatter fmt = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss Z");
-            return LocalDateTime.parse(dateStr, fmt);
-        } catch (Exception e) {
-            try {
-                // fallback (ISO)
-                return LocalDateTime.parse(dateStr);
-            } catch (Exception ex) {
-                return LocalDateTime.now();
+    // Binary search over the date-sorted releases; -1 if the date precedes every release
+    static int releaseIndexFor(List<Release> releases, long epochSecond) {
+        int lo = 0;
+        int hi = releases.size() - 1;
+        int found = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (releases.get(mid).epochSecond <= epochSecond) {
+                found = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
             }
         }
+        return found;
     }
 }
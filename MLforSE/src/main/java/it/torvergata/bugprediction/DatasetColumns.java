@@ -0,0 +1,276 @@
+package it.torvergata.bugprediction;
+
+import it.torvergata.bugprediction.utils.CsvRowWriter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Read-only, memory-mapped view of a dataset in the columnar format written by
+ * {@link DatasetColumnsWriter}. Opening it only reads the header; every column is a
+ * view of the mapped file ({@link IntBuffer} or {@link DoubleBuffer}), and text columns
+ * are dictionary-encoded: their view holds the codes, decoded with {@link #dictionaryValue}.
+ * It can be converted back to CSV, or to ARFF for Weka, on demand.
+ *
+ * <p>Layout, all big-endian: magic number, version, row and column count, the project
+ * and the commit the metrics were extracted at, then for every column its name, type,
+ * decimals and section offsets; the sections follow the header. A dictionary section is
+ * the start of every value in its string bytes, then the UTF-8 values.</p>
+ */
+public class DatasetColumns implements Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(DatasetColumns.class.getName());
+
+    static final int MAGIC = 0x4453434C; // "DSCL"
+    static final int VERSION = 1;
+
+    /** Column types; nominal and string columns are both stored as dictionary codes. */
+    public enum Type {
+        INT, DOUBLE, NOMINAL, STRING;
+
+        boolean isText() {
+            return this == NOMINAL || this == STRING;
+        }
+    }
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int rowCount;
+    private final String project;
+    private final String sourceCommit;
+    private final String[] names;
+    private final Type[] types;
+    private final int[] decimals;
+    private final int[] dataOffsets;
+    private final int[] dictionarySizes;
+    private final int[] dictionaryOffsets;
+
+    private DatasetColumns(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        if (channel.size() > Integer.MAX_VALUE) throw new IOException("Dataset too large to map: " + path);
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        if (buffer.capacity() < 16 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            channel.close();
+            throw new IOException("Not a columnar dataset (or an older version): " + path);
+        }
+        rowCount = buffer.getInt();
+        int columnCount = buffer.getInt();
+        project = readString();
+        sourceCommit = readString();
+        names = new String[columnCount];
+        types = new Type[columnCount];
+        decimals = new int[columnCount];
+        dataOffsets = new int[columnCount];
+        dictionarySizes = new int[columnCount];
+        dictionaryOffsets = new int[columnCount];
+        for (int c = 0; c < columnCount; c++) {
+            names[c] = readString();
+            types[c] = Type.values()[buffer.get()];
+            decimals[c] = buffer.get();
+            dataOffsets[c] = buffer.getInt();
+            dictionarySizes[c] = buffer.getInt();
+            dictionaryOffsets[c] = buffer.getInt();
+        }
+    }
+
+    public static DatasetColumns open(Path path) throws IOException {
+        return new DatasetColumns(path);
+    }
+
+    public int rowCount() {
+        return rowCount;
+    }
+
+    public int columnCount() {
+        return names.length;
+    }
+
+    public String project() {
+        return project;
+    }
+
+    /** Hash of the commit the metrics were extracted at, empty if unknown. */
+    public String sourceCommit() {
+        return sourceCommit;
+    }
+
+    public String columnName(int column) {
+        return names[column];
+    }
+
+    public Type columnType(int column) {
+        return types[column];
+    }
+
+    /** Index of the column with the given name. */
+    public int column(String name) {
+        for (int c = 0; c < names.length; c++) {
+            if (names[c].equals(name)) return c;
+        }
+        throw new IllegalArgumentException("No column " + name);
+    }
+
+    /** The values of an int column, or the dictionary codes of a text column. */
+    public IntBuffer ints(int column) {
+        if (types[column] == Type.DOUBLE) throw new IllegalArgumentException(names[column] + " is a double column");
+        return buffer.slice(dataOffsets[column], 4 * rowCount).asIntBuffer();
+    }
+
+    public DoubleBuffer doubles(int column) {
+        if (types[column] != Type.DOUBLE) throw new IllegalArgumentException(names[column] + " is not a double column");
+        return buffer.slice(dataOffsets[column], 8 * rowCount).asDoubleBuffer();
+    }
+
+    /** Number of distinct values of a text column. */
+    public int dictionarySize(int column) {
+        return dictionarySizes[column];
+    }
+
+    public String dictionaryValue(int column, int code) {
+        int offsets = dictionaryOffsets[column];
+        int bytes = offsets + 4 * (dictionarySizes[column] + 1);
+        int from = buffer.getInt(offsets + 4 * code);
+        int to = buffer.getInt(offsets + 4 * code + 4);
+        byte[] value = new byte[to - from];
+        buffer.get(bytes + from, value);
+        return new String(value, StandardCharsets.UTF_8);
+    }
+
+    /** Writes the dataset back as CSV, with the rows and the formatting of the original file. */
+    public void writeCsv(Path out) throws IOException {
+        String[][] dictionaries = dictionaries();
+        try (CsvRowWriter writer = new CsvRowWriter(out)) {
+            writer.line(String.join(",", names));
+            for (int row = 0; row < rowCount; row++) {
+                for (int c = 0; c < names.length; c++) {
+                    if (types[c] == Type.DOUBLE) {
+                        writer.field(buffer.getDouble(dataOffsets[c] + 8 * row), decimals[c]);
+                    } else if (types[c] == Type.INT) {
+                        writer.field(buffer.getInt(dataOffsets[c] + 4 * row));
+                    } else {
+                        writer.field(dictionaries[c][buffer.getInt(dataOffsets[c] + 4 * row)]);
+                    }
+                }
+                writer.endRow();
+            }
+        }
+    }
+
+    /** Writes the dataset as a Weka ARFF file: nominal columns list their dictionary values. */
+    public void writeArff(Path out) throws IOException {
+        String[][] dictionaries = dictionaries();
+        try (Writer writer = Files.newBufferedWriter(out, StandardCharsets.UTF_8)) {
+            writer.write("@relation " + arffQuote(project) + "\n\n");
+            for (int c = 0; c < names.length; c++) {
+                writer.write("@attribute " + arffQuote(names[c]) + ' ');
+                switch (types[c]) {
+                    case NOMINAL:
+                        StringBuilder values = new StringBuilder("{");
+                        for (String value : dictionaries[c]) {
+                            if (values.length() > 1) values.append(',');
+                            values.append(arffQuote(value));
+                        }
+                        writer.write(values.append('}').toString());
+                        break;
+                    case STRING:
+                        writer.write("string");
+                        break;
+                    default:
+                        writer.write("numeric");
+                }
+                writer.write('\n');
+            }
+            writer.write("\n@data\n");
+
+            StringBuilder line = new StringBuilder();
+            for (int row = 0; row < rowCount; row++) {
+                line.setLength(0);
+                for (int c = 0; c < names.length; c++) {
+                    if (c > 0) line.append(',');
+                    if (types[c] == Type.DOUBLE) {
+                        line.append(buffer.getDouble(dataOffsets[c] + 8 * row));
+                    } else if (types[c] == Type.INT) {
+                        line.append(buffer.getInt(dataOffsets[c] + 4 * row));
+                    } else {
+                        line.append(arffQuote(dictionaries[c][buffer.getInt(dataOffsets[c] + 4 * row)]));
+                    }
+                }
+                writer.write(line.append('\n').toString());
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    // The dictionaries of the text columns, decoded once for a full conversion
+    private String[][] dictionaries() {
+        String[][] dictionaries = new String[names.length][];
+        for (int c = 0; c < names.length; c++) {
+            if (!types[c].isText()) continue;
+            dictionaries[c] = new String[dictionarySizes[c]];
+            for (int code = 0; code < dictionarySizes[c]; code++) dictionaries[c][code] = dictionaryValue(c, code);
+        }
+        return dictionaries;
+    }
+
+    private String readString() {
+        byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Quotes an ARFF name or value when it is not a plain token
+    private static String arffQuote(String value) {
+        boolean plain = !value.isEmpty();
+        for (int i = 0; i < value.length() && plain; i++) {
+            char c = value.charAt(i);
+            plain = c > ' ' && c != ',' && c != '\'' && c != '"' && c != '{' && c != '}' && c != '%' && c != '\\';
+        }
+        if (plain) return value;
+        return '\'' + value.replace("\\", "\\\\").replace("'", "\\'") + '\'';
+    }
+
+    /**
+     * Usage: DatasetColumns &lt;dataset.bin&gt; [--csv &lt;out.csv&gt; | --arff &lt;out.arff&gt;]
+     * Prints the schema of the dataset, or converts it.
+     */
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            LOGGER.severe("Usage: DatasetColumns <dataset.bin> [--csv <out.csv> | --arff <out.arff>]");
+            return;
+        }
+        long start = System.nanoTime();
+        try (DatasetColumns dataset = open(Path.of(args[0]))) {
+            LOGGER.log(Level.INFO, "{0}: {1} rows of {2} at {3}, opened in {4} us",
+                    new Object[]{args[0], dataset.rowCount(), dataset.project(), dataset.sourceCommit(),
+                            (System.nanoTime() - start) / 1000});
+            for (int c = 0; c < dataset.columnCount(); c++) {
+                LOGGER.log(Level.INFO, "  {0} {1}{2}", new Object[]{dataset.columnName(c), dataset.columnType(c),
+                        dataset.columnType(c).isText() ? " (" + dataset.dictionarySize(c) + " values)" : ""});
+            }
+            if (args.length >= 3 && args[1].equals("--csv")) {
+                dataset.writeCsv(Path.of(args[2]));
+                LOGGER.log(Level.INFO, "CSV written to {0}", args[2]);
+            } else if (args.length >= 3 && args[1].equals("--arff")) {
+                dataset.writeArff(Path.of(args[2]));
+                LOGGER.log(Level.INFO, "ARFF written to {0}", args[2]);
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Error reading the columnar dataset", e);
+        }
+    }
+}
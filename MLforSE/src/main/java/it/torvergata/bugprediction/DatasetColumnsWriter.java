@@ -0,0 +1,174 @@
+package it.torvergata.bugprediction;
+
+import it.torvergata.bugprediction.utils.MappedCsvReader;
+import it.torvergata.bugprediction.utils.StringDictionary;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Converts a dataset CSV into the columnar format read by {@link DatasetColumns}.
+ * The CSV is read twice through a {@link MappedCsvReader}: the first pass counts the
+ * rows and builds the dictionaries of the text columns, so that the size of every
+ * section is known; the second one writes the values straight into the mapped output
+ * file. Nothing but the dictionaries is kept on the heap.
+ */
+public class DatasetColumnsWriter {
+
+    private DatasetColumnsWriter() {
+    }
+
+    /**
+     * Writes the columnar version of the CSV (plain or gzip-compressed) and returns its
+     * number of rows. The types give the type of every CSV column, in order.
+     */
+    public static int write(Path csv, Path out, String project, String sourceCommit,
+                            DatasetColumns.Type[] types) throws IOException {
+        if (!csv.toString().endsWith(".gz")) return writePlain(csv, out, project, sourceCommit, types);
+
+        Path plain = Files.createTempFile(out.toAbsolutePath().getParent(), "dataset", ".csv");
+        try {
+            try (InputStream in = new GZIPInputStream(Files.newInputStream(csv), 1 << 16)) {
+                Files.copy(in, plain, StandardCopyOption.REPLACE_EXISTING);
+            }
+            return writePlain(plain, out, project, sourceCommit, types);
+        } finally {
+            Files.deleteIfExists(plain);
+        }
+    }
+
+    private static int writePlain(Path csv, Path out, String project, String sourceCommit,
+                                  DatasetColumns.Type[] types) throws IOException {
+        int columns = types.length;
+        String[] names = new String[columns];
+        StringDictionary[] dictionaries = new StringDictionary[columns];
+        int[] decimals = new int[columns];
+        int rows = 0;
+
+        // Pass 1: names, row count, dictionaries and decimals of the double columns
+        try (MappedCsvReader reader = new MappedCsvReader(csv)) {
+            if (!reader.next() || reader.fieldCount() != columns) {
+                throw new IOException("Expected " + columns + " columns in " + csv);
+            }
+            for (int c = 0; c < columns; c++) {
+                names[c] = reader.getString(c);
+                if (types[c].isText()) dictionaries[c] = new StringDictionary();
+            }
+            while (reader.next()) {
+                if (reader.fieldCount() != columns) throw new IOException("Malformed row " + (rows + 2) + " in " + csv);
+                for (int c = 0; c < columns; c++) {
+                    if (dictionaries[c] != null) {
+                        dictionaries[c].idOf(reader.text(c));
+                    } else if (types[c] == DatasetColumns.Type.DOUBLE) {
+                        decimals[c] = Math.max(decimals[c], decimals(reader.text(c)));
+                    }
+                }
+                rows++;
+            }
+        }
+
+        // Layout: header, then the data and dictionary sections of every column
+        byte[] projectBytes = utf8(project);
+        byte[] commitBytes = utf8(sourceCommit);
+        byte[][] nameBytes = new byte[columns][];
+        long headerBytes = 16L + 2 + projectBytes.length + 2 + commitBytes.length;
+        for (int c = 0; c < columns; c++) {
+            nameBytes[c] = utf8(names[c]);
+            headerBytes += 2 + nameBytes[c].length + 2 + 12;
+        }
+        long[] dataOffsets = new long[columns];
+        long[] dictionaryOffsets = new long[columns];
+        byte[][][] values = new byte[columns][][];
+        long size = headerBytes;
+        for (int c = 0; c < columns; c++) {
+            dataOffsets[c] = size;
+            size += (long) rows * (types[c] == DatasetColumns.Type.DOUBLE ? 8 : 4);
+            if (dictionaries[c] == null) continue;
+            dictionaryOffsets[c] = size;
+            values[c] = new byte[dictionaries[c].size()][];
+            size += 4L * (values[c].length + 1);
+            for (int code = 0; code < values[c].length; code++) {
+                values[c][code] = utf8(dictionaries[c].get(code));
+                size += values[c][code].length;
+            }
+        }
+        if (size > Integer.MAX_VALUE) throw new IOException("Dataset too large to map: " + csv);
+
+        Path tmp = out.resolveSibling(out.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.putInt(DatasetColumns.MAGIC).putInt(DatasetColumns.VERSION).putInt(rows).putInt(columns);
+            putString(buffer, projectBytes);
+            putString(buffer, commitBytes);
+            for (int c = 0; c < columns; c++) {
+                putString(buffer, nameBytes[c]);
+                buffer.put((byte) types[c].ordinal())
+                        .put((byte) decimals[c])
+                        .putInt((int) dataOffsets[c])
+                        .putInt(values[c] == null ? 0 : values[c].length)
+                        .putInt((int) dictionaryOffsets[c]);
+            }
+            for (int c = 0; c < columns; c++) {
+                if (values[c] == null) continue;
+                buffer.position((int) dictionaryOffsets[c]);
+                int offset = 0;
+                for (byte[] value : values[c]) {
+                    buffer.putInt(offset);
+                    offset += value.length;
+                }
+                buffer.putInt(offset);
+                for (byte[] value : values[c]) buffer.put(value);
+            }
+
+            // Pass 2: the values
+            try (MappedCsvReader reader = new MappedCsvReader(csv)) {
+                reader.next(); // skip header
+                for (int row = 0; reader.next(); row++) {
+                    for (int c = 0; c < columns; c++) {
+                        int at = (int) dataOffsets[c];
+                        switch (types[c]) {
+                            case INT:
+                                buffer.putInt(at + 4 * row, reader.parseInt(c));
+                                break;
+                            case DOUBLE:
+                                buffer.putDouble(at + 8 * row, Double.parseDouble(reader.getString(c)));
+                                break;
+                            default:
+                                buffer.putInt(at + 4 * row, dictionaries[c].find(reader.text(c)));
+                        }
+                    }
+                }
+            }
+            buffer.force();
+        }
+        Files.move(tmp, out, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return rows;
+    }
+
+    // Digits after the decimal point of a number
+    private static int decimals(CharSequence number) {
+        for (int i = 0; i < number.length(); i++) {
+            if (number.charAt(i) == '.') return number.length() - i - 1;
+        }
+        return 0;
+    }
+
+    private static byte[] utf8(String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) throw new IOException("Header string too long: " + s.substring(0, 64));
+        return bytes;
+    }
+
+    private static void putString(MappedByteBuffer buffer, byte[] bytes) {
+        buffer.putShort((short) bytes.length).put(bytes);
+    }
+}
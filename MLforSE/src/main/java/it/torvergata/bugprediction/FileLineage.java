@@ -0,0 +1,194 @@
+package it.torvergata.bugprediction;
+
+import it.torvergata.bugprediction.utils.StringDictionary;
+
+import java.util.Arrays;
+
+/**
+ * Stable identities of files across renames, built from the {@code {old => new}}
+ * numstat paths of a single history pass (git log -M). Every rename joins the file
+ * before it and the file after it in a union-find, and each set is named after the new
+ * path of its most recent rename.
+ *
+ * <p>A path renamed away may be used again by an unrelated file, so a path alone does
+ * not tell the file: a revision of a path is keyed by the path and the position of the
+ * closest newer rename away from it, if any. Positions number the commits with changes
+ * in the order they are streamed, newest first as git log prints them: 0 for the first
+ * one, then one more for each. Author dates cannot stand in for them, as rebased and
+ * cherry-picked commits keep dates older than their parents'. The revisions made after
+ * the last rename away keep the plain path as key and start an identity of their own.
+ * The key of a revision is given by {@link #record} while streaming, and by {@link #key}
+ * once the pass is over; the two agree as long as the positions are recorded in
+ * increasing order, so that a rename is always known before the older revisions of its
+ * path. The metrics are recorded under the keys and resolved to the identities at the end.</p>
+ */
+public class FileLineage {
+
+    private static final char POSITION_SEPARATOR = '\0'; // between a path and the position it was renamed away
+
+    private final StringDictionary keys = new StringDictionary(); // union-find nodes
+    private int[] parent = new int[64];
+    private int[] name = new int[64];         // node whose path names the set, valid on roots
+    private long[] renamedAt = new long[64];  // position of the rename that gave the name, valid on roots
+    private int nodes;
+    private int renames;
+
+    // Positions every path was renamed away at, ascending
+    private final StringDictionary renamedPaths = new StringDictionary();
+    private long[][] renamedAway = new long[16][];
+
+    /**
+     * Records a numstat path seen in the commit at the given stream position and returns
+     * the key to record the revision under, or null if it is the path itself. For a
+     * rename it is the key of the new path.
+     */
+    public String record(CharSequence numstatPath, long position) {
+        String[] rename = splitRename(numstatPath);
+        if (rename == null) return generationKey(numstatPath, position);
+
+        addRenamedAway(rename[0], position);
+        String newKey = key(rename[1], position);
+        union(node(rename[0] + POSITION_SEPARATOR + position), node(newKey), position);
+        renames++;
+        return newKey;
+    }
+
+    /** The key of a numstat path in the commit at the given position, once the renames have been recorded. */
+    public String key(CharSequence numstatPath, long position) {
+        String[] rename = splitRename(numstatPath);
+        CharSequence path = rename != null ? rename[1] : numstatPath;
+        String key = generationKey(path, position);
+        return key != null ? key : path.toString();
+    }
+
+    /** The identity of a key, i.e. the newest path of its lineage; the path itself if it was never renamed. */
+    public String identity(String key) {
+        int id = keys.find(key);
+        if (id >= 0) return pathOf(keys.get(name[find(id)]));
+        String[] rename = splitRename(key);
+        return rename != null ? identity(rename[1]) : key;
+    }
+
+    /** For every key of the dictionary, the ID of its identity, interned if needed. */
+    public int[] identities(StringDictionary files) {
+        int n = files.size();
+        int[] ids = new int[n];
+        for (int f = 0; f < n; f++) {
+            String identity = identity(files.get(f));
+            ids[f] = identity.equals(files.get(f)) ? f : files.idOf(identity);
+        }
+        return ids;
+    }
+
+    /** Number of renames recorded so far. */
+    public int renameCount() {
+        return renames;
+    }
+
+    /**
+     * Splits a path printed by git --numstat for a rename, {@code a/{old => new}/b} or
+     * {@code old => new}, into the old and the new path. Returns null for other paths.
+     */
+    static String[] splitRename(CharSequence path) {
+        int arrow = indexOf(path, " => ");
+        if (arrow < 0) return null;
+        String s = path.toString();
+        int open = s.lastIndexOf('{', arrow);
+        int close = s.indexOf('}', arrow);
+        if (open < 0 || close < 0) return new String[]{s.substring(0, arrow), s.substring(arrow + 4)};
+
+        String prefix = s.substring(0, open);
+        String suffix = s.substring(close + 1);
+        return new String[]{
+                join(prefix, s.substring(open + 1, arrow), suffix),
+                join(prefix, s.substring(arrow + 4, close), suffix)};
+    }
+
+    // git writes "a/{ => b}/c" for a move from a/c: an empty side leaves a double slash
+    private static String join(String prefix, String middle, String suffix) {
+        if (middle.isEmpty() && prefix.endsWith("/") && suffix.startsWith("/")) {
+            return prefix + suffix.substring(1);
+        }
+        return prefix + middle + suffix;
+    }
+
+    private static int indexOf(CharSequence s, String target) {
+        outer:
+        for (int i = 0; i <= s.length() - target.length(); i++) {
+            for (int j = 0; j < target.length(); j++) {
+                if (s.charAt(i + j) != target.charAt(j)) continue outer;
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    // The key of a revision of the path made before it was renamed away, null if it never was since
+    private String generationKey(CharSequence path, long position) {
+        if (renamedPaths.size() == 0) return null;
+        int id = renamedPaths.find(path);
+        if (id < 0) return null;
+        long[] positions = renamedAway[id];
+        int i = Arrays.binarySearch(positions, position);
+        i = i < 0 ? -i - 1 : i; // positions[i - 1]: the closest rename streamed before the commit
+        return i > 0 ? path.toString() + POSITION_SEPARATOR + positions[i - 1] : null;
+    }
+
+    private void addRenamedAway(String path, long position) {
+        int id = renamedPaths.idOf(path);
+        if (id == renamedAway.length) renamedAway = Arrays.copyOf(renamedAway, id * 2);
+        long[] positions = renamedAway[id] == null ? new long[0] : renamedAway[id];
+        int i = Arrays.binarySearch(positions, position);
+        if (i >= 0) return;
+        i = -i - 1;
+        long[] grown = new long[positions.length + 1];
+        System.arraycopy(positions, 0, grown, 0, i);
+        grown[i] = position;
+        System.arraycopy(positions, i, grown, i + 1, positions.length - i);
+        renamedAway[id] = grown;
+    }
+
+    private static String pathOf(String key) {
+        int separator = key.indexOf(POSITION_SEPARATOR);
+        return separator < 0 ? key : key.substring(0, separator);
+    }
+
+    private int node(String key) {
+        int id = keys.idOf(key);
+        if (id < nodes) return id;
+        if (id == parent.length) {
+            int capacity = id * 2;
+            parent = Arrays.copyOf(parent, capacity);
+            name = Arrays.copyOf(name, capacity);
+            renamedAt = Arrays.copyOf(renamedAt, capacity);
+        }
+        parent[id] = id;
+        name[id] = id;
+        renamedAt[id] = Long.MAX_VALUE;
+        nodes = id + 1;
+        return id;
+    }
+
+    private int find(int id) {
+        while (parent[id] != id) {
+            parent[id] = parent[parent[id]]; // path halving
+            id = parent[id];
+        }
+        return id;
+    }
+
+    private void union(int oldNode, int newNode, long position) {
+        int a = find(oldNode);
+        int b = find(newNode);
+        // The set is named after its most recent rename, i.e. the first streamed, this one included
+        int newest = renamedAt[a] < renamedAt[b] ? a : b;
+        if (renamedAt[newest] < position) {
+            name[b] = name[newest];
+            renamedAt[b] = renamedAt[newest];
+        } else {
+            name[b] = newNode;
+            renamedAt[b] = position;
+        }
+        if (a != b) parent[a] = b;
+    }
+}
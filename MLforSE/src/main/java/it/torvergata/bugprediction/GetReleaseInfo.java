@@ -1,126 +1,125 @@
 package it.torvergata.bugprediction;
 
-import it.torvergata.bugprediction.utils.JsonUtils;
+import it.torvergata.bugprediction.utils.JiraClient;
 import it.torvergata.bugprediction.utils.FileWriterUtils;
+import it.torvergata.bugprediction.utils.RunReport;
 import org.json.*;
 import java.io.*;
-import java.net.*;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class GetReleaseInfo {
 
     private static final Logger LOGGER = Logger.getLogger(GetReleaseInfo.class.getName());
-    private static final String PROJECT_KEY = "BOOKKEEPER"; // change to "STORM" for the other project
-    private static final String API_URL = "https://issues.apache.org/jira/rest/api/2/project/" + PROJECT_KEY;
-
-    private static final HashMap<LocalDateTime, String> releaseNames = new HashMap<>();
-    private static final HashMap<LocalDateTime, String> releaseIDs = new HashMap<>();
-    private static final ArrayList<LocalDateTime> releases = new ArrayList<>();
+    private static final String PROJECT_KEY = "BOOKKEEPER"; // default when no key is given
+    static final int MIN_VERSIONS = 6;
+
+    /** A released version of the project */
+    static class Version {
+        final String id;
+        final String name;
+        final LocalDateTime date;
+
+        Version(String id, String name, LocalDateTime date) {
+            this.id = id;
+            this.name = name;
+            this.date = date;
+        }
+    }
 
+    /**
+     * Usage: GetReleaseInfo [PROJECT_KEY]
+     */
     public static void main(String[] args) {
-        try {
-            // Reads versions from the JIRA REST service
-            JSONObject json = JsonUtils.getJsonObject(new URL(API_URL));
-            JSONArray versions = json.getJSONArray("versions");
-
-            for (int i = 0; i < versions.length(); i++) {
-                String name = "";
-                String id = "";
-                JSONObject v = versions.getJSONObject(i);
-
-                // Ignores releases with missing dates
-                if (v.has("releaseDate")) {
-                    if (v.has("name"))
-                        name = v.get("name").toString();
-                    if (v.has("id"))
-                        id = v.get("id").toString();
-                    addRelease(v.get("releaseDate").toString(),
-                            name, id);
+        String projectKey = args.length > 0 ? args[0] : PROJECT_KEY;
+
+        try (RunReport report = RunReport.start(projectKey + "_GetReleaseInfo")) {
+            List<Version> versions = new ArrayList<>();
+            try (RunReport.Stage stage = report.stage("versions");
+                 JiraClient jira = JiraClient.fromSystemProperties()) {
+                versions = fetchVersions(jira, projectKey, stage);
+                stage.add(RunReport.CACHE_HITS, jira.getCacheHits());
+
+                // Check minimum number of versions
+                if (versions.size() < MIN_VERSIONS) {
+                    LOGGER.log(Level.WARNING, "Number of versions too low ({0}). Interrupted.", versions.size());
+                    return;
                 }
-            }
-
-            // Sort by date
-            releases.sort(Comparator.naturalOrder());
 
-            // Use only the first half of the releases
-            int half = releases.size() / 2;
-            List<LocalDateTime> firstHalf = new ArrayList<>(releases.subList(0, half));
-
-            // Update maps to contain only the first half
-            HashMap<LocalDateTime, String> filteredReleaseNames = new HashMap<>();
-            HashMap<LocalDateTime, String> filteredReleaseIDs = new HashMap<>();
-
-            for (LocalDateTime dt : firstHalf) {
-                filteredReleaseNames.put(dt, releaseNames.get(dt));
-                filteredReleaseIDs.put(dt, releaseIDs.get(dt));
+            } catch (Exception e) {
+                LOGGER.log(Level.SEVERE, "Error during processing", e);
+                report.fail(e);
             }
 
-            // Replace the original maps with the filtered ones
-            releaseNames.clear();
-            releaseNames.putAll(filteredReleaseNames);
-
-            releaseIDs.clear();
-            releaseIDs.putAll(filteredReleaseIDs);
-
-            // Replace the release list with just the first half
-            releases.clear();
-            releases.addAll(firstHalf);
+            // Name of CSV for output
+            String fileName = projectKey + "VersionInfo.csv";
+            String outFileName = FileWriterUtils.prepareOutputDataFilePath(fileName);
 
-            // Check minimum number of versions
-            if (releases.size() < 6) {
-                LOGGER.log(Level.WARNING, "Number of versions too low ({0}). Interrupted.", releases.size());
-                return;
+            try (RunReport.Stage stage = report.stage("write")) {
+                writeVersionInfo(outFileName, versions);
+                stage.add(RunReport.CSV_ROWS_WRITTEN, versions.size());
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Error writing CSV file", e);
+                report.fail(e);
             }
 
-        } catch (Exception e) {
-            LOGGER.log(Level.SEVERE, "Error during processing", e);
+            LOGGER.log(Level.INFO, "Release info saved in {0}", outFileName);
+            LOGGER.log(Level.INFO, "Total valid versions: {0}", versions.size());
         }
+    }
 
-        // Name of CSV for output
-        String fileName = PROJECT_KEY + "VersionInfo.csv";
-        String outFileName = FileWriterUtils.prepareOutputDataFilePath(fileName);
+    /**
+     * Reads the versions of the project from the JIRA REST service (or its local cache)
+     * and returns the first half of the dated ones, sorted by date.
+     */
+    static List<Version> fetchVersions(JiraClient jira, String projectKey, RunReport.Stage stage)
+            throws IOException {
+        JSONObject json = jira.getJson(jira.getBaseUrl() + "/rest/api/2/project/" + projectKey);
+        JSONArray versions = json.getJSONArray("versions");
+        stage.increment(RunReport.HTTP_PAGES);
+        stage.add(RunReport.RECORDS, versions.length());
+
+        // One version per date, the last one listed wins
+        Map<LocalDateTime, Version> byDate = new TreeMap<>();
+        for (int i = 0; i < versions.length(); i++) {
+            JSONObject v = versions.getJSONObject(i);
+
+            // Ignores releases with missing dates
+            if (v.has("releaseDate")) {
+                String name = v.has("name") ? v.get("name").toString() : "";
+                String id = v.has("id") ? v.get("id").toString() : "";
+                LocalDateTime date = LocalDate.parse(v.get("releaseDate").toString()).atStartOfDay();
+                byDate.put(date, new Version(id, name, date));
+            }
+        }
 
-        int numVersions = 0;
+        // Use only the first half of the releases
+        List<Version> sorted = new ArrayList<>(byDate.values());
+        return new ArrayList<>(sorted.subList(0, sorted.size() / 2));
+    }
 
+    static void writeVersionInfo(String outFileName, List<Version> versions) throws IOException {
         try (FileWriter fileWriter = new FileWriter(outFileName)) {
             fileWriter.append("Index,VersionID,Name,Date\n");
 
-            numVersions = releases.size();
-            for (int i = 0; i < numVersions; i++) {
-                int index = i + 1;
-                fileWriter.append(Integer.toString(index))
+            for (int i = 0; i < versions.size(); i++) {
+                Version v = versions.get(i);
+                fileWriter.append(Integer.toString(i + 1))
                         .append(",")
-                        .append(releaseIDs.get(releases.get(i)))
+                        .append(v.id)
                         .append(",")
-                        .append(releaseNames.get(releases.get(i)))
+                        .append(v.name)
                         .append(",")
-                        .append(releases.get(i).toString())
+                        .append(v.date.toString())
                         .append("\n");
             }
-
-        } catch (IOException e) {
-            LOGGER.log(Level.SEVERE, "Error writing CSV file", e);
         }
-
-        LOGGER.log(Level.INFO, "Release info saved in {0}", outFileName);
-        LOGGER.log(Level.INFO, "Total valid versions: {0}", numVersions);
-    }
-
-    /** Adds a release avoiding duplicates and managing the date */
-    private static void addRelease(String dateStr, String name, String id) {
-        LocalDate date = LocalDate.parse(dateStr);
-        LocalDateTime dateTime = date.atStartOfDay();
-        if (!releases.contains(dateTime))
-            releases.add(dateTime);
-        releaseNames.put(dateTime, name);
-        releaseIDs.put(dateTime, id);
     }
 
 }
@@ -0,0 +1,57 @@
+package it.torvergata.bugprediction;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * History read from the output of {@code git log --numstat}, by one git process or,
+ * with more than one worker, by several processes on contiguous shards of the history.
+ */
+public class GitCliHistorySource implements HistorySource {
+
+    private final String projectPath;
+    private final int workers;
+
+    public GitCliHistorySource(String projectPath, int workers) {
+        this.projectPath = projectPath;
+        this.workers = workers;
+    }
+
+    @Override
+    public void streamHistory(String revisions, TicketMatcher ticketMatcher, CommitSink sink) throws IOException {
+        if (workers > 1) {
+            ShardedHistoryExtractor.streamGitHistory(projectPath, revisions, ticketMatcher, sink,
+                    workers, ShardedHistoryExtractor.DEFAULT_SHARD_SIZE);
+        } else {
+            runGitLog(revisions, ticketMatcher, sink);
+        }
+    }
+
+    @Override
+    public void close() {
+        // Nothing to release: every call runs its own processes
+    }
+
+    /**
+     * Runs {@code git log -M --numstat} on the repository and hands every parsed commit
+     * to the sink while git is still producing output, through a {@link GitLogPipeline}.
+     */
+    private void runGitLog(String revisions, TicketMatcher ticketMatcher, CommitSink sink) throws IOException {
+        ProcessBuilder pb = new ProcessBuilder("git", "-C", projectPath, "-c", GitLogParser.LOG_ENCODING,
+                "log", "-M", "--numstat", "--date=iso", GitLogParser.PRETTY_FORMAT, revisions);
+        pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+        Process process = pb.start();
+
+        boolean completed = false;
+        try (InputStreamReader output = new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8)) {
+            GitLogPipeline.fromSystemProperties().run(output, ticketMatcher, sink);
+            completed = true;
+        } finally {
+            // Stops git when the sink failed before the end of the log
+            if (!completed) process.destroy();
+        }
+        // A git error (bad revision, not a repository) ends the log early: it is a failed walk
+        ShardedHistoryExtractor.waitForGit(process, "log");
+    }
+}
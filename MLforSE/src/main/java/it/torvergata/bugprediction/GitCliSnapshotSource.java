@@ -0,0 +1,122 @@
+package it.torvergata.bugprediction;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Snapshots read with the git executable. Trees are listed by {@code git ls-tree}, while
+ * all the blobs go through one long-lived {@code git cat-file --batch} process: each
+ * request is an object ID on its stdin and each answer a header plus the raw content.
+ */
+public class GitCliSnapshotSource implements SnapshotSource {
+
+    private final String projectPath;
+    private final Process catFile;
+    private final OutputStream requests;
+    private final InputStream responses;
+    private byte[] buffer = new byte[64 * 1024];
+
+    public GitCliSnapshotSource(String projectPath) throws IOException {
+        this.projectPath = projectPath;
+        this.catFile = new ProcessBuilder("git", "-C", projectPath, "cat-file", "--batch")
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        this.requests = new BufferedOutputStream(catFile.getOutputStream());
+        this.responses = new BufferedInputStream(catFile.getInputStream(), 64 * 1024);
+    }
+
+    @Override
+    public String commitAt(long epochSecond) throws IOException {
+        String out = new String(run("rev-list", "-1", "--before=@" + epochSecond, "HEAD"),
+                StandardCharsets.UTF_8).trim();
+        return out.isEmpty() ? null : out;
+    }
+
+    @Override
+    public List<FileBlob> listJavaFiles(String commit) throws IOException {
+        // -z: entries end with NUL and paths are not quoted
+        byte[] out = run("ls-tree", "-r", "-z", "--full-tree", commit);
+        List<FileBlob> files = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i < out.length; i++) {
+            if (out[i] != 0) continue;
+            // "<mode> blob <id>\t<path>"
+            String entry = new String(out, start, i - start, StandardCharsets.UTF_8);
+            start = i + 1;
+            int tab = entry.indexOf('\t');
+            String[] meta = entry.substring(0, tab).split(" ");
+            String path = entry.substring(tab + 1);
+            if (meta[1].equals("blob") && path.endsWith(".java")) files.add(new FileBlob(path, meta[2]));
+        }
+        return files;
+    }
+
+    @Override
+    public SourceMetrics analyze(String blobId) throws IOException {
+        requests.write((blobId + "\n").getBytes(StandardCharsets.US_ASCII));
+        requests.flush();
+
+        // "<id> blob <size>", or "<id> missing"
+        String header = readHeader();
+        if (header == null) throw new EOFException("git cat-file exited");
+        if (header.endsWith(" missing")) throw new IOException("Missing object " + blobId);
+        int size = Integer.parseInt(header.substring(header.lastIndexOf(' ') + 1));
+
+        if (buffer.length < size) buffer = new byte[Math.max(size, buffer.length * 2)];
+        int read = 0;
+        while (read < size) {
+            int n = responses.read(buffer, read, size - read);
+            if (n < 0) throw new EOFException("Truncated object " + blobId);
+            read += n;
+        }
+        if (responses.read() != '\n') throw new IOException("Malformed git cat-file output for " + blobId);
+        return SourceMetrics.analyze(buffer, size);
+    }
+
+    @Override
+    public void close() throws IOException {
+        requests.close();
+        try {
+            catFile.waitFor();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            catFile.destroy();
+        }
+    }
+
+    private String readHeader() throws IOException {
+        StringBuilder sb = new StringBuilder(64);
+        int c;
+        while ((c = responses.read()) != '\n') {
+            if (c < 0) return null;
+            sb.append((char) c);
+        }
+        return sb.toString();
+    }
+
+    private byte[] run(String... command) throws IOException {
+        List<String> args = new ArrayList<>(List.of("git", "-C", projectPath));
+        args.addAll(List.of(command));
+        Process process = new ProcessBuilder(args).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = process.getInputStream()) {
+            in.transferTo(out);
+        }
+        try {
+            int exitCode = process.waitFor();
+            if (exitCode != 0) throw new IOException("git " + command[0] + " exited with code " + exitCode);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while running git " + command[0], e);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,68 @@
+package it.torvergata.bugprediction;
+
+import java.io.IOException;
+
+/**
+ * Turns the lines of {@code git log --numstat --pretty=format:COMMIT:%H%x1f%ad%x1f%an%x1f%s}
+ * into {@link CommitRecord}s. A commit is handed to the sink once all of its
+ * numstat rows have been read. The header fields are separated by the ASCII unit
+ * separator, which author names and subjects do not hold.
+ */
+public class GitLogParser {
+
+    static final String COMMIT_MARKER = "COMMIT:";
+    static final char FIELD_SEPARATOR = '\u001f';
+    static final String PRETTY_FORMAT = "--pretty=format:" + COMMIT_MARKER + "%H%x1f%ad%x1f%an%x1f%s";
+    /** Makes git re-encode the log in UTF-8, whatever the encoding of each commit. */
+    static final String LOG_ENCODING = "i18n.logOutputEncoding=UTF-8";
+
+    private final TicketMatcher ticketMatcher;
+    private final CommitSink sink;
+    private CommitRecord current;
+
+    public GitLogParser(TicketMatcher ticketMatcher, CommitSink sink) {
+        this.ticketMatcher = ticketMatcher;
+        this.sink = sink;
+    }
+
+    public void accept(String line) throws IOException {
+        if (line.startsWith(COMMIT_MARKER)) {
+            flush();
+            String[] parts = line.split(String.valueOf(FIELD_SEPARATOR), 4);
+            String hash = parts[0].substring(COMMIT_MARKER.length());
+            String subject = parts.length > 3 ? parts[3] : "";
+            current = new CommitRecord(hash, parts[1], parts[2], ticketMatcher.match(subject));
+
+        } else if (current != null && !line.trim().isEmpty()) {
+            String[] parts = line.split("\t");
+            if (parts.length == 3 && isJavaFile(parts[2])) {
+                current.changes.add(new CommitRecord.FileChange(parts[2], parseCount(parts[0]), parseCount(parts[1])));
+            }
+        }
+    }
+
+    /** Emits the last commit; to be called when the log is over. */
+    public void finish() throws IOException {
+        flush();
+    }
+
+    private void flush() throws IOException {
+        if (current != null) {
+            sink.accept(current);
+            current = null;
+        }
+    }
+
+    /**
+     * Returns true for the numstat path of a Java file. A rename counts by its new path:
+     * git prints {@code src/{A.java => B.java}} for a rename within a directory.
+     */
+    static boolean isJavaFile(String numstatPath) {
+        String[] rename = FileLineage.splitRename(numstatPath);
+        return (rename != null ? rename[1] : numstatPath).endsWith(".java");
+    }
+
+    private static int parseCount(String s) {
+        return s.equals("-") ? -1 : Integer.parseInt(s);
+    }
+}
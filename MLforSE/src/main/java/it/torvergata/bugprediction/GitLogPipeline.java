@@ -0,0 +1,198 @@
+package it.torvergata.bugprediction;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Parses a {@code git log --numstat} stream in three stages, so that reading git's
+ * output never waits for parsing or writing:
+ * <ol>
+ *   <li>a reader thread drains the stream and cuts it into batches of whole commits;</li>
+ *   <li>a pool of workers parses the batches and matches their tickets;</li>
+ *   <li>the calling thread hands the parsed commits to the sink, batch after batch
+ *   in stream order.</li>
+ * </ol>
+ * Batches are queued in a bounded ring buffer in stream order: when the sink falls
+ * {@code depth} batches behind, the reader blocks and git fills its pipe, so memory
+ * stays bounded. Handing over whole batches keeps the synchronization per commit low.
+ *
+ * <p>Configured through system properties: {@code git.pipeline.workers} (0 parses on
+ * the calling thread, as a plain loop), {@code git.pipeline.depth} and
+ * {@code git.pipeline.batchCommits}.</p>
+ */
+public class GitLogPipeline {
+
+    private static final Logger LOGGER = Logger.getLogger(GitLogPipeline.class.getName());
+
+    /** A run of consecutive log lines starting at a commit header */
+    private static final class Batch {
+        final List<String> lines = new ArrayList<>();
+        final CompletableFuture<List<CommitRecord>> commits = new CompletableFuture<>();
+        final boolean last;
+        final IOException error; // why the reader stopped, on the last batch
+
+        Batch(boolean last, IOException error) {
+            this.last = last;
+            this.error = error;
+        }
+    }
+
+    private final int workers;
+    private final int depth;
+    private final int batchCommits;
+
+    public GitLogPipeline(int workers, int depth, int batchCommits) {
+        this.workers = Math.max(0, workers);
+        this.depth = Math.max(1, depth);
+        this.batchCommits = Math.max(1, batchCommits);
+    }
+
+    /**
+     * Reads the configuration from the system properties. By default the parsers get
+     * the cores left by the reader and the writer, up to 4; with 2 cores or less the
+     * stages would only take turns on the same cores, so the log is parsed inline.
+     */
+    public static GitLogPipeline fromSystemProperties() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        return new GitLogPipeline(
+                Integer.getInteger("git.pipeline.workers", cores > 2 ? Math.min(4, cores - 2) : 0),
+                Integer.getInteger("git.pipeline.depth", 64),
+                Integer.getInteger("git.pipeline.batchCommits", 256));
+    }
+
+    /**
+     * Parses the whole stream and hands every commit to the sink, in stream order.
+     */
+    public void run(Reader gitOutput, TicketMatcher ticketMatcher, CommitSink sink) throws IOException {
+        BufferedReader reader = new BufferedReader(gitOutput, 1 << 16);
+        if (workers == 0) {
+            GitLogParser parser = new GitLogParser(ticketMatcher, sink);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                parser.accept(line);
+            }
+            parser.finish();
+            return;
+        }
+
+        LOGGER.log(Level.INFO, "Parsing git log with {0} workers, up to {1} batches of {2} commits in flight",
+                new Object[]{workers, depth, batchCommits});
+
+        BlockingQueue<Batch> ordered = new ArrayBlockingQueue<>(depth);
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService parsers = Executors.newFixedThreadPool(workers, r -> {
+            Thread t = new Thread(r, "git-log-parser-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        long[] readerBlockedNanos = new long[1];
+        Thread readerThread = new Thread(
+                () -> readBatches(reader, ordered, parsers, ticketMatcher, readerBlockedNanos), "git-log-reader");
+        readerThread.setDaemon(true);
+        readerThread.start();
+
+        long batches = 0;
+        long commitCount = 0;
+        long writerWaitNanos = 0;
+        try {
+            while (true) {
+                Batch batch = ordered.take();
+                if (batch.last) {
+                    if (batch.error != null) throw batch.error;
+                    break;
+                }
+                long start = System.nanoTime();
+                List<CommitRecord> commits = batch.commits.get();
+                writerWaitNanos += System.nanoTime() - start;
+                for (CommitRecord commit : commits) {
+                    sink.accept(commit);
+                }
+                commitCount += commits.size();
+                batches++;
+            }
+            readerThread.join();
+        } catch (ExecutionException e) {
+            throw new IOException("Error parsing the git log", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while parsing the git log");
+        } finally {
+            readerThread.interrupt();
+            parsers.shutdownNow();
+        }
+
+        LOGGER.log(Level.INFO, "Parsed {0} commits in {1} batches; reader blocked {2} ms on a full queue, writer waited {3} ms for parsers",
+                new Object[]{commitCount, batches, readerBlockedNanos[0] / 1_000_000, writerWaitNanos / 1_000_000});
+    }
+
+    // Reader stage: queues each batch in stream order, then hands it to a parser
+    private void readBatches(BufferedReader reader, BlockingQueue<Batch> ordered, ExecutorService parsers,
+                             TicketMatcher ticketMatcher, long[] blockedNanos) {
+        IOException error = null;
+        try {
+            Batch batch = new Batch(false, null);
+            int commits = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(GitLogParser.COMMIT_MARKER) && ++commits > batchCommits) {
+                    blockedNanos[0] += dispatch(batch, ordered, parsers, ticketMatcher);
+                    batch = new Batch(false, null);
+                    commits = 1;
+                }
+                batch.lines.add(line);
+            }
+            if (!batch.lines.isEmpty()) blockedNanos[0] += dispatch(batch, ordered, parsers, ticketMatcher);
+        } catch (IOException e) {
+            error = e;
+        } catch (InterruptedException e) {
+            // The consumer gave up: nobody is waiting for the end marker
+            return;
+        }
+
+        try {
+            ordered.put(new Batch(true, error));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Returns how long the reader waited for room in the queue
+    private static long dispatch(Batch batch, BlockingQueue<Batch> ordered, ExecutorService parsers,
+                                 TicketMatcher ticketMatcher) throws InterruptedException {
+        long blocked = 0;
+        if (!ordered.offer(batch)) {
+            long start = System.nanoTime();
+            ordered.put(batch);
+            blocked = System.nanoTime() - start;
+        }
+        parsers.execute(() -> parse(batch, ticketMatcher));
+        return blocked;
+    }
+
+    private static void parse(Batch batch, TicketMatcher ticketMatcher) {
+        try {
+            List<CommitRecord> commits = new ArrayList<>();
+            GitLogParser parser = new GitLogParser(ticketMatcher, commits::add);
+            for (String line : batch.lines) {
+                parser.accept(line);
+            }
+            parser.finish();
+            batch.commits.complete(commits);
+        } catch (Exception e) {
+            batch.commits.completeExceptionally(e);
+        }
+    }
+}
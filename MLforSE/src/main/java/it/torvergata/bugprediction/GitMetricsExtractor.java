@@ -1,8 +1,12 @@
 package it.torvergata.bugprediction;
 
 import it.torvergata.bugprediction.utils.FileWriterUtils;
+import it.torvergata.bugprediction.utils.RunReport;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -11,25 +15,61 @@ public class GitMetricsExtractor {
 
     private static final Logger LOGGER = Logger.getLogger(GitMetricsExtractor.class.getName());
 
+    /**
+     * Usage: GitMetricsExtractor [--workers N] [--incremental]
+     * With more than one worker the history is extracted by parallel git processes.
+     * Run with -Dgit.backend=jgit to read the repository in process instead.
+     * With --incremental only the commits since the last run are extracted and added.
+     */
     public static void main(String[] args) throws Exception {
+        int workers = parseWorkers(args);
+        boolean incremental = Arrays.asList(args).contains("--incremental");
         String projectName = "bookkeeper";
         String basePath = "projects";
         File projectDir = new File(basePath, projectName);
         String projectPath = projectDir.getPath();
         String repoUrl = "https://github.com/apache/bookkeeper.git";
 
-        cloneRepoIfNeeded(projectName, projectPath, repoUrl);
-
-        Set<String> validTickets = loadTickets("data/" + projectName + "_Tickets.csv");
-        String ticketPrefix = projectName.toUpperCase() + "-";
+        try (RunReport report = RunReport.start(projectName + "_GitMetricsExtractor")) {
+            RunReport.Stage cloneStage = report.stage("clone");
+            try {
+                cloneRepoIfNeeded(projectName, projectPath, repoUrl);
+            } catch (GitCloneException e) {
+                report.fail(e);
+                throw e;
+            } finally {
+                cloneStage.close();
+            }
 
-        String outFileName = FileWriterUtils.prepareOutputDataFilePath(projectName + "_Metrics.csv");
-        extractGitMetrics(projectPath, outFileName, validTickets, ticketPrefix);
+            Set<String> validTickets;
+            try (RunReport.Stage stage = report.stage("tickets")) {
+                validTickets = loadTickets("data/" + RetrieveTicketsID.ticketsFileName(projectName));
+                stage.add(RunReport.CSV_ROWS_READ, validTickets.size());
+            }
+            TicketMatcher ticketMatcher = new TicketMatcher(projectName, validTickets);
+
+            String outFileName = FileWriterUtils.prepareOutputDataFilePath(projectName + "_Metrics.csv");
+            String indexFileName = FileWriterUtils.prepareOutputDataFilePath(projectName + "_TicketIndex.bin");
+            try (RunReport.Stage stage = report.stage("extract")) {
+                long sizeBefore = new File(outFileName).length();
+                if (incremental) {
+                    extractGitMetricsIncremental(projectPath, outFileName, indexFileName, ticketMatcher, validTickets,
+                            workers, stage);
+                } else {
+                    sizeBefore = 0;
+                    extractGitMetrics(projectPath, outFileName, indexFileName, ticketMatcher, validTickets, workers,
+                            stage);
+                }
+                stage.add(RunReport.CSV_ROWS_WRITTEN, stage.get(RunReport.NUMSTAT_LINES));
+                stage.add(RunReport.BYTES_WRITTEN, Math.max(0, new File(outFileName).length() - sizeBefore));
+            }
 
-        LOGGER.log(Level.INFO, "Metrics extracted in {0}", outFileName);
+            LOGGER.log(Level.INFO, "Metrics extracted in {0}, ticket index in {1}",
+                    new Object[]{outFileName, indexFileName});
+        }
     }
 
-    private static void cloneRepoIfNeeded(String projectName, String projectPath, String repoUrl) throws GitCloneException {
+    static void cloneRepoIfNeeded(String projectName, String projectPath, String repoUrl) throws GitCloneException {
         File repoDir = new File(projectPath);
         if (!repoDir.exists()) {
             LOGGER.log(Level.INFO, "Cloning the repository {0}...", projectName);
@@ -65,58 +105,116 @@ public class GitMetricsExtractor {
         }
     }
 
-    private static void extractGitMetrics(String projectPath, String outFileName,
-                                          Set<String> validTickets, String ticketPrefix) {
-        try (FileWriter fileWriter = new FileWriter(outFileName)) {
-            fileWriter.append("CommitID,Date,Author,File,LOC_Added,LOC_Deleted,TicketLinked\n");
-
-            ProcessBuilder pb = new ProcessBuilder("git", "-C", projectPath,
-                    "log", "--numstat", "--date=iso", "--pretty=format:COMMIT:%H;%ad;%an;%s");
-            pb.redirectErrorStream(true);
-            Process process = pb.start();
-
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
-                String line;
-                String currentCommit = "";
-                String date = "";
-                String author = "";
-                String message;
-                boolean ticketLinked = false;
-
-                while ((line = reader.readLine()) != null) {
-                    if (line.startsWith("COMMIT:")) {
-                        String[] parts = line.split(";", 4);
-                        currentCommit = parts[0].split(":")[1];
-                        date = parts[1];
-                        author = parts[2];
-                        message = parts[3];
-
-                        String finalMessage = message;
-                        ticketLinked = validTickets.stream()
-                                .anyMatch(ticket -> finalMessage.contains(ticketPrefix + ticket));
-
-                    } else if (!line.trim().isEmpty()) {
-                        String[] parts = line.split("\t");
-                        if (parts.length == 3 && parts[2].endsWith(".java")) {
-                            fileWriter.append(currentCommit).append(",")
-                                    .append(date).append(",")
-                                    .append("\"").append(author).append("\"").append(",")
-                                    .append("\"").append(parts[2]).append("\"").append(",")
-                                    .append(parts[0]).append(",")
-                                    .append(parts[1]).append(",")
-                                    .append(String.valueOf(ticketLinked)).append("\n");
-                        }
-                    }
-                }
+    // Number of git workers from "--workers N"; "--workers" alone means one per core
+    static int parseWorkers(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--workers")) {
+                return i + 1 < args.length
+                        ? Math.max(1, Integer.parseInt(args[i + 1]))
+                        : Runtime.getRuntime().availableProcessors();
             }
+        }
+        return 1;
+    }
 
+    /**
+     * Extracts the full history into the metrics CSV and the ticket index, and writes the
+     * checkpoint of the extracted commit, so that a later incremental run starts from it.
+     */
+    private static void extractGitMetrics(String projectPath, String outFileName, String indexFileName,
+                                          TicketMatcher ticketMatcher, Set<String> validTickets, int workers,
+                                          RunReport.Stage stage) {
+        try {
+            String head = MetricsCheckpoint.resolveHead(projectPath);
+            writeExtraction(projectPath, head, false, outFileName, indexFileName, ticketMatcher, workers, stage);
+            MetricsCheckpoint.of(head, MetricsCheckpoint.ticketsFingerprint(validTickets), outFileName, indexFileName)
+                    .store(outFileName + ".checkpoint");
         } catch (Exception e) {
             LOGGER.log(Level.SEVERE, "Error writing CSV file", e);
+            stage.error(e);
+        }
+    }
+
+    /**
+     * Extracts only the commits made since the last checkpoint, appended to the metrics
+     * CSV and to the ticket index as a new segment, so that the run costs time in the
+     * number of new commits rather than in the length of the history. Falls back to a full
+     * extraction when there is no usable checkpoint, when the metrics or the index are not
+     * the files it was written with, when the checkpointed commit is no longer in the
+     * history (force push, rebase) or when the ticket list changed.
+     */
+    private static void extractGitMetricsIncremental(String projectPath, String outFileName, String indexFileName,
+                                                     TicketMatcher ticketMatcher, Set<String> validTickets,
+                                                     int workers, RunReport.Stage stage) {
+        String checkpointFile = outFileName + ".checkpoint";
+        try {
+            String head = MetricsCheckpoint.resolveHead(projectPath);
+            String fingerprint = MetricsCheckpoint.ticketsFingerprint(validTickets);
+            MetricsCheckpoint checkpoint = MetricsCheckpoint.load(checkpointFile);
+
+            // restore() comes last: it cuts off what an interrupted run appended
+            boolean resumable = checkpoint != null
+                    && checkpoint.ticketsFingerprint.equals(fingerprint)
+                    && MetricsCheckpoint.isAncestor(projectPath, checkpoint.lastCommit, head)
+                    && checkpoint.restore(outFileName, indexFileName);
+
+            if (!resumable) {
+                LOGGER.log(Level.INFO, "No valid checkpoint, extracting the full history");
+                writeExtraction(projectPath, head, false, outFileName, indexFileName, ticketMatcher, workers, stage);
+            } else if (!checkpoint.lastCommit.equals(head)) {
+                LOGGER.log(Level.INFO, "Extracting commits {0}..{1}", new Object[]{checkpoint.lastCommit, head});
+                writeExtraction(projectPath, checkpoint.lastCommit + ".." + head, true, outFileName, indexFileName,
+                        ticketMatcher, workers, stage);
+            } else {
+                LOGGER.log(Level.INFO, "Metrics already up to date at {0}", head);
+                return;
+            }
+
+            MetricsCheckpoint.of(head, fingerprint, outFileName, indexFileName).store(checkpointFile);
+        } catch (Exception e) {
+            LOGGER.log(Level.SEVERE, "Error writing CSV file", e);
+            stage.error(e);
+        }
+    }
+
+    /**
+     * Walks the revisions into the metrics CSV and the ticket index. A full extraction
+     * writes new files, which replace the current ones only once the walk succeeded; with
+     * append, the commits go in a new segment at the end of the current files, which the
+     * checkpoint of the previous run cuts off again if this one stops half way.
+     */
+    private static void writeExtraction(String projectPath, String revisions, boolean append,
+                                        String outFileName, String indexFileName, TicketMatcher ticketMatcher,
+                                        int workers, RunReport.Stage stage) throws IOException {
+        Path csv = Path.of(outFileName);
+        Path tmp = append ? csv : csv.resolveSibling(csv.getFileName() + ".tmp");
+        try {
+            try (MetricsCsvWriter csvWriter = new MetricsCsvWriter(tmp.toString(), ticketMatcher, append);
+                 TicketIndexWriter indexWriter = new TicketIndexWriter(indexFileName, ticketMatcher.prefix())) {
+                streamGitHistory(projectPath, revisions, ticketMatcher,
+                        csvWriter.andThen(indexWriter).countedBy(stage), workers);
+                if (append) indexWriter.append();
+                else indexWriter.commit();
+            }
+            if (!append) Files.move(tmp, csv, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            if (!append) Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Hands every commit of the revision range (e.g. "HEAD" or "a1b2..HEAD") to the sink,
+     * read by the backend chosen with the git.backend system property.
+     */
+    static void streamGitHistory(String projectPath, String revisions, TicketMatcher ticketMatcher,
+                                 CommitSink sink, int workers) throws IOException {
+        try (HistorySource source = HistorySource.open(projectPath, workers)) {
+            source.streamHistory(revisions, ticketMatcher, sink);
         }
     }
 
     // Function to load all valid JIRA tickets from CSV
-    private static Set<String> loadTickets(String ticketsCsvPath) {
+    static Set<String> loadTickets(String ticketsCsvPath) {
         Set<String> tickets = new HashSet<>();
 
         try (BufferedReader br = new BufferedReader(new FileReader(ticketsCsvPath))) {
@@ -124,6 +222,7 @@ public class GitMetricsExtractor {
                     .skip(1) // skip header
                     .map(String::trim) // removes leading/trailing whitespace
                     .filter(line -> !line.isEmpty()) // avoid empty lines
+                    .map(line -> line.indexOf(',') < 0 ? line : line.substring(0, line.indexOf(','))) // key column
                     .forEach(tickets::add);
         } catch (IOException e) {
             LOGGER.log(Level.SEVERE, e, () -> "Error reading tickets CSV file: " + ticketsCsvPath);
@@ -0,0 +1,36 @@
+package it.torvergata.bugprediction;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Walks the history of a local git repository and hands every commit, with the
+ * added/deleted lines of the Java files it touched, to a {@link CommitSink}.
+ *
+ * <p>The backend is chosen with the {@code git.backend} system property: {@code cli}
+ * (the default) runs the git executable, {@code jgit} reads the repository in process.</p>
+ */
+public interface HistorySource extends Closeable {
+
+    /**
+     * Streams the commits of the revision range (e.g. "HEAD" or "a1b2..HEAD"), newest first.
+     */
+    void streamHistory(String revisions, TicketMatcher ticketMatcher, CommitSink sink) throws IOException;
+
+    /**
+     * Opens the repository (working copy or bare) with the configured backend.
+     *
+     * @param workers number of git processes of the cli backend
+     */
+    static HistorySource open(String projectPath, int workers) throws IOException {
+        String backend = System.getProperty("git.backend", "cli");
+        switch (backend) {
+            case "cli":
+                return new GitCliHistorySource(projectPath, workers);
+            case "jgit":
+                return new JGitHistorySource(projectPath);
+            default:
+                throw new IllegalArgumentException("Unknown git backend: " + backend);
+        }
+    }
+}
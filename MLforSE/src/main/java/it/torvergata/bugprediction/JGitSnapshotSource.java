@@ -0,0 +1,81 @@
+package it.torvergata.bugprediction;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.revwalk.filter.CommitTimeRevFilter;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.PathSuffixFilter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Snapshots read in process with JGit. A single object reader serves the tree walks
+ * and the blob reads, so they share its pack caches.
+ */
+public class JGitSnapshotSource implements SnapshotSource {
+
+    private final Repository repository;
+    private final ObjectReader reader;
+
+    public JGitSnapshotSource(String projectPath) throws IOException {
+        File dir = new File(projectPath);
+        File dotGit = new File(dir, ".git");
+        this.repository = new FileRepositoryBuilder()
+                .setGitDir(dotGit.exists() ? dotGit : dir)
+                .setMustExist(true)
+                .build();
+        this.reader = repository.newObjectReader();
+    }
+
+    @Override
+    public String commitAt(long epochSecond) throws IOException {
+        ObjectId head = repository.resolve(Constants.HEAD);
+        if (head == null) return null;
+        try (RevWalk walk = new RevWalk(reader)) {
+            walk.setRevFilter(CommitTimeRevFilter.before(new Date(epochSecond * 1000)));
+            walk.markStart(walk.parseCommit(head));
+            RevCommit commit = walk.next();
+            return commit == null ? null : commit.name();
+        }
+    }
+
+    @Override
+    public List<FileBlob> listJavaFiles(String commit) throws IOException {
+        List<FileBlob> files = new ArrayList<>();
+        try (RevWalk walk = new RevWalk(reader);
+             TreeWalk tree = new TreeWalk(repository, reader)) {
+            tree.addTree(walk.parseCommit(ObjectId.fromString(commit)).getTree());
+            tree.setRecursive(true);
+            tree.setFilter(PathSuffixFilter.create(".java"));
+            while (tree.next()) {
+                if (tree.getFileMode(0).getObjectType() == Constants.OBJ_BLOB) {
+                    files.add(new FileBlob(tree.getPathString(), tree.getObjectId(0).name()));
+                }
+            }
+        }
+        return files;
+    }
+
+    @Override
+    public SourceMetrics analyze(String blobId) throws IOException {
+        ObjectLoader loader = reader.open(ObjectId.fromString(blobId), Constants.OBJ_BLOB);
+        byte[] content = loader.getCachedBytes(Integer.MAX_VALUE);
+        return SourceMetrics.analyze(content, content.length);
+    }
+
+    @Override
+    public void close() {
+        reader.close();
+        repository.close();
+    }
+}
@@ -0,0 +1,127 @@
+package it.torvergata.bugprediction;
+
+import it.torvergata.bugprediction.utils.LongHashSet;
+import it.torvergata.bugprediction.utils.StringDictionary;
+
+import java.util.Arrays;
+
+/**
+ * Per-file churn metrics kept in parallel primitive arrays indexed by file ID.
+ * File paths and author names are interned in dictionaries, and the distinct
+ * authors of each file are (file, author) ID pairs in one shared long set, so
+ * recording a revision of an already known file allocates nothing.
+ * Stores built on the same dictionaries can be merged with {@link #add(MetricStore)}.
+ */
+public class MetricStore {
+
+    final StringDictionary files;
+    final StringDictionary authors;
+
+    int[] locAdded;
+    int[] locDeleted;
+    int[] nRev;
+    int[] nFix;
+    int[] nAuth;
+    long[] lastCommit; // epoch seconds of the last commit
+    final LongHashSet fileAuthors = new LongHashSet(1024); // (file, author) ID pairs
+
+    public MetricStore() {
+        this(new StringDictionary(), new StringDictionary());
+    }
+
+    public MetricStore(StringDictionary files, StringDictionary authors) {
+        this.files = files;
+        this.authors = authors;
+        int capacity = Math.max(64, files.size());
+        locAdded = new int[capacity];
+        locDeleted = new int[capacity];
+        nRev = new int[capacity];
+        nFix = new int[capacity];
+        nAuth = new int[capacity];
+        lastCommit = new long[capacity];
+        Arrays.fill(lastCommit, Long.MIN_VALUE);
+    }
+
+    public void addRevision(String file, String author, long commitEpoch, int added, int deleted, boolean isFix) {
+        addRevision(files.idOf(file), authors.idOf(author), commitEpoch, added, deleted, isFix);
+    }
+
+    public void addRevision(int fileId, int authorId, long commitEpoch, int added, int deleted, boolean isFix) {
+        ensureCapacity(fileId);
+        locAdded[fileId] += added;
+        locDeleted[fileId] += deleted;
+        nRev[fileId]++;
+        if (isFix) nFix[fileId]++;
+        if (fileAuthors.add(LongHashSet.pair(fileId, authorId))) nAuth[fileId]++;
+        if (commitEpoch > lastCommit[fileId]) lastCommit[fileId] = commitEpoch;
+    }
+
+    /** Accumulates the revisions of another store, built on the same dictionaries, into this one. */
+    public void add(MetricStore other) {
+        ensureCapacity(other.files.size() - 1);
+        int n = Math.min(other.locAdded.length, files.size());
+        for (int id = 0; id < n; id++) {
+            if (other.nRev[id] == 0) continue;
+            locAdded[id] += other.locAdded[id];
+            locDeleted[id] += other.locDeleted[id];
+            nRev[id] += other.nRev[id];
+            nFix[id] += other.nFix[id];
+            if (other.lastCommit[id] > lastCommit[id]) lastCommit[id] = other.lastCommit[id];
+        }
+        other.fileAuthors.forEach(pair -> {
+            if (fileAuthors.add(pair)) nAuth[(int) (pair >>> 32)]++;
+        });
+    }
+
+    /**
+     * Returns a store, on the same dictionaries, where the revisions of every file are
+     * recorded under identities[file] instead, e.g. the paths of a renamed file under
+     * its newest one (see {@link FileLineage#identities}).
+     */
+    public MetricStore resolve(int[] identities) {
+        MetricStore resolved = new MetricStore(files, authors);
+        int n = Math.min(nRev.length, identities.length);
+        for (int id = 0; id < n; id++) {
+            if (nRev[id] == 0) continue;
+            int to = identities[id];
+            resolved.ensureCapacity(to);
+            resolved.locAdded[to] += locAdded[id];
+            resolved.locDeleted[to] += locDeleted[id];
+            resolved.nRev[to] += nRev[id];
+            resolved.nFix[to] += nFix[id];
+            if (lastCommit[id] > resolved.lastCommit[to]) resolved.lastCommit[to] = lastCommit[id];
+        }
+        fileAuthors.forEach(pair -> {
+            int to = identities[(int) (pair >>> 32)];
+            if (resolved.fileAuthors.add(LongHashSet.pair(to, (int) pair))) resolved.nAuth[to]++;
+        });
+        return resolved;
+    }
+
+    /** Returns true if the file has at least one revision in this store. */
+    public boolean contains(int fileId) {
+        return fileId < nRev.length && nRev[fileId] > 0;
+    }
+
+    /** Upper bound (exclusive) of the file IDs that may be in this store. */
+    public int fileIdLimit() {
+        return Math.min(files.size(), nRev.length);
+    }
+
+    public String file(int fileId) {
+        return files.get(fileId);
+    }
+
+    private void ensureCapacity(int fileId) {
+        if (fileId < nRev.length) return;
+        int oldLength = nRev.length;
+        int capacity = Math.max(oldLength * 2, fileId + 1);
+        locAdded = Arrays.copyOf(locAdded, capacity);
+        locDeleted = Arrays.copyOf(locDeleted, capacity);
+        nRev = Arrays.copyOf(nRev, capacity);
+        nFix = Arrays.copyOf(nFix, capacity);
+        nAuth = Arrays.copyOf(nAuth, capacity);
+        lastCommit = Arrays.copyOf(lastCommit, capacity);
+        Arrays.fill(lastCommit, oldLength, capacity, Long.MIN_VALUE);
+    }
+}
@@ -0,0 +1,217 @@
+package it.torvergata.bugprediction;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Properties;
+import java.util.TreeSet;
+
+/**
+ * Remembers up to which commit {@code <project>_Metrics.csv} has been extracted, so that
+ * the next run only has to process the commits that landed afterwards. The checkpoint
+ * also holds the length of the metrics CSV and of the ticket index it was written with,
+ * and the SHA-256 of their last {@value #TAIL_BYTES} bytes: checking them costs the same
+ * whatever the length of the history. Files replaced without the checkpoint do not match,
+ * and the next run extracts the full history again; files that only grew after it, by a
+ * run that stopped before writing its own, are cut back to it.
+ */
+public class MetricsCheckpoint {
+
+    static final int TAIL_BYTES = 1 << 16;
+
+    private static final String LAST_COMMIT = "lastCommit";
+    private static final String TICKETS = "tickets";
+    private static final String METRICS_LENGTH = "metricsLength";
+    private static final String METRICS_TAIL = "metricsTailSha256";
+    private static final String INDEX_LENGTH = "ticketIndexLength";
+    private static final String INDEX_TAIL = "ticketIndexTailSha256";
+
+    final String lastCommit;
+    final String ticketsFingerprint; // the TicketLinked column is only valid for the same ticket set
+    final long metricsLength;
+    final String metricsTail;
+    final long indexLength;
+    final String indexTail;
+
+    MetricsCheckpoint(String lastCommit, String ticketsFingerprint, long metricsLength, String metricsTail,
+                      long indexLength, String indexTail) {
+        this.lastCommit = lastCommit;
+        this.ticketsFingerprint = ticketsFingerprint;
+        this.metricsLength = metricsLength;
+        this.metricsTail = metricsTail;
+        this.indexLength = indexLength;
+        this.indexTail = indexTail;
+    }
+
+    /** The checkpoint of the metrics CSV and ticket index just extracted at the commit. */
+    static MetricsCheckpoint of(String lastCommit, String ticketsFingerprint, String metricsFile, String indexFile)
+            throws IOException {
+        Path metrics = Path.of(metricsFile);
+        Path index = Path.of(indexFile);
+        long metricsLength = Files.size(metrics);
+        long indexLength = Files.size(index);
+        return new MetricsCheckpoint(lastCommit, ticketsFingerprint, metricsLength, tailSha256(metrics, metricsLength),
+                indexLength, tailSha256(index, indexLength));
+    }
+
+    /** Returns the checkpoint stored in the file, or null if there is none. */
+    static MetricsCheckpoint load(String path) throws IOException {
+        File file = new File(path);
+        if (!file.exists()) return null;
+
+        Properties props = new Properties();
+        try (Reader reader = new FileReader(file, StandardCharsets.UTF_8)) {
+            props.load(reader);
+        }
+        String lastCommit = props.getProperty(LAST_COMMIT);
+        if (lastCommit == null) return null;
+        try {
+            return new MetricsCheckpoint(lastCommit, props.getProperty(TICKETS, ""),
+                    Long.parseLong(props.getProperty(METRICS_LENGTH, "-1")), props.getProperty(METRICS_TAIL, ""),
+                    Long.parseLong(props.getProperty(INDEX_LENGTH, "-1")), props.getProperty(INDEX_TAIL, ""));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /** Writes the checkpoint, through a temporary file so that it is never half written. */
+    void store(String path) throws IOException {
+        Properties props = new Properties();
+        props.setProperty(LAST_COMMIT, lastCommit);
+        props.setProperty(TICKETS, ticketsFingerprint);
+        props.setProperty(METRICS_LENGTH, Long.toString(metricsLength));
+        props.setProperty(METRICS_TAIL, metricsTail);
+        props.setProperty(INDEX_LENGTH, Long.toString(indexLength));
+        props.setProperty(INDEX_TAIL, indexTail);
+        Path file = Path.of(path);
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            props.store(writer, "Last commit extracted into the metrics CSV");
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Returns true if the metrics CSV and the ticket index start with the content this
+     * checkpoint was written with, after cutting off what a run that stopped half way
+     * appended to them; false, leaving them as they are, if they do not.
+     */
+    boolean restore(String metricsFile, String indexFile) throws IOException {
+        Path metrics = Path.of(metricsFile);
+        Path index = Path.of(indexFile);
+        if (!startsWith(metrics, metricsLength, metricsTail) || !startsWith(index, indexLength, indexTail)) {
+            return false;
+        }
+        truncate(metrics, metricsLength);
+        truncate(index, indexLength);
+        return true;
+    }
+
+    /**
+     * The commit the metrics file was extracted at, from its checkpoint; empty if it has
+     * none, or if the file was changed without it.
+     */
+    static String extractedCommit(String metricsFile) throws IOException {
+        MetricsCheckpoint checkpoint = load(metricsFile + ".checkpoint");
+        Path metrics = Path.of(metricsFile);
+        return checkpoint != null && Files.exists(metrics) && Files.size(metrics) == checkpoint.metricsLength
+                && startsWith(metrics, checkpoint.metricsLength, checkpoint.metricsTail)
+                ? checkpoint.lastCommit
+                : "";
+    }
+
+    // True if the file holds at least length bytes, the last TAIL_BYTES of which hash to tail
+    private static boolean startsWith(Path file, long length, String tail) throws IOException {
+        return length >= 0 && Files.exists(file) && Files.size(file) >= length && tail.equals(tailSha256(file, length));
+    }
+
+    private static void truncate(Path file, long length) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            if (channel.size() > length) channel.truncate(length);
+        }
+    }
+
+    /** SHA-256 of the last {@value #TAIL_BYTES} bytes (or fewer) before the given length of the file. */
+    static String tailSha256(Path file, long length) throws IOException {
+        MessageDigest digest = sha256();
+        long from = Math.max(0, length - TAIL_BYTES);
+        ByteBuffer buffer = ByteBuffer.allocate((int) (length - from));
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, from + buffer.position()) < 0) throw new IOException("File shrank: " + file);
+            }
+        }
+        digest.update(buffer.flip());
+        return hex(digest.digest());
+    }
+
+    /** SHA-256 of the sorted ticket keys, one per line. */
+    static String ticketsFingerprint(Collection<String> tickets) {
+        MessageDigest digest = sha256();
+        for (String ticket : new TreeSet<>(tickets)) {
+            digest.update(ticket.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) '\n');
+        }
+        return hex(digest.digest());
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) sb.append(String.format("%02x", b));
+        return sb.toString();
+    }
+
+    /** Resolves HEAD to a commit hash, so that the processed range cannot move during a run. */
+    static String resolveHead(String projectPath) throws IOException {
+        Process process = new ProcessBuilder("git", "-C", projectPath, "rev-parse", "HEAD").start();
+        String head = new String(process.getInputStream().readAllBytes()).trim();
+        if (waitFor(process) != 0 || head.isEmpty()) {
+            throw new IOException("Cannot resolve HEAD of " + projectPath);
+        }
+        return head;
+    }
+
+    /**
+     * Returns true if the commit is still an ancestor of {@code head}. It is not after a
+     * force push or a rebase, and then the stored metrics no longer describe the history.
+     */
+    static boolean isAncestor(String projectPath, String commit, String head) throws IOException {
+        ProcessBuilder pb = new ProcessBuilder("git", "-C", projectPath,
+                "merge-base", "--is-ancestor", commit, head);
+        pb.redirectErrorStream(true);
+        Process process = pb.start();
+        process.getInputStream().transferTo(OutputStream.nullOutputStream());
+        // exit code 1 means "not an ancestor", anything else means the commit is gone
+        return waitFor(process) == 0;
+    }
+
+    private static int waitFor(Process process) throws IOException {
+        try {
+            return process.waitFor();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for git", e);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package it.torvergata.bugprediction;
+
+import it.torvergata.bugprediction.utils.MappedCsvReader;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads the rows of a {@code <project>_Metrics.csv} file in git log order, newest commit
+ * first, together with the stream position of their commit (see {@link FileLineage}).
+ * The file is a sequence of segments, each starting with the header line: the full
+ * extraction, then the commits of every incremental run, each newer than the ones before
+ * it. The segments are found by a byte scan for the header at the start of a line, which
+ * a row cannot hold as it starts with a commit hash, and are read last to first.
+ */
+final class MetricsCsvReader {
+
+    private static final int WINDOW_SIZE = 1 << 28; // 256 MiB
+
+    /** Handles one row; the reader is positioned on it. */
+    @FunctionalInterface
+    interface RowHandler {
+        void row(MappedCsvReader row, long position) throws IOException;
+    }
+
+    private MetricsCsvReader() {
+    }
+
+    /** Hands every row of the file to the handler, newest commit first, and returns how many there were. */
+    static long forEachRow(Path metricsCsv, RowHandler handler) throws IOException {
+        long[] starts = segmentStarts(metricsCsv);
+        long rows = 0;
+        long position = -1; // the rows of a commit are contiguous
+        String hash = "";
+        for (int s = starts.length - 2; s >= 0; s--) {
+            try (MappedCsvReader reader = new MappedCsvReader(metricsCsv, starts[s], starts[s + 1])) {
+                reader.next(); // skip header
+                while (reader.next()) {
+                    if (!reader.fieldEquals(0, hash)) {
+                        hash = reader.getString(0);
+                        position++;
+                    }
+                    handler.row(reader, position);
+                    rows++;
+                }
+            }
+        }
+        return rows;
+    }
+
+    /** Offsets of the segments of the file, oldest first, followed by the size of the file. */
+    static long[] segmentStarts(Path metricsCsv) throws IOException {
+        byte[] marker = ("\n" + MetricsCsvWriter.HEADER).getBytes(StandardCharsets.UTF_8);
+        long[] starts = {0, 0, 0, 0};
+        int count = 1;
+        try (FileChannel channel = FileChannel.open(metricsCsv, StandardOpenOption.READ)) {
+            long size = channel.size();
+            // Windows overlap by the marker length; each one owns the markers starting before the next
+            long step = WINDOW_SIZE - marker.length;
+            for (long window = 0; window < size; window += step) {
+                int length = (int) Math.min(WINDOW_SIZE, size - window);
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, window, length);
+                boolean last = window + length >= size;
+                for (int i = 0; i + marker.length <= length && (last || i < step); i++) {
+                    if (buffer.get(i) == '\n' && startsWith(buffer, i, marker)) {
+                        if (count + 1 == starts.length) starts = Arrays.copyOf(starts, count * 2);
+                        starts[count++] = window + i + 1;
+                    }
+                }
+            }
+            starts[count] = size;
+        }
+        return Arrays.copyOf(starts, count + 1);
+    }
+
+    private static boolean startsWith(MappedByteBuffer buffer, int at, byte[] marker) {
+        for (int j = 1; j < marker.length; j++) {
+            if (buffer.get(at + j) != marker[j]) return false;
+        }
+        return true;
+    }
+}
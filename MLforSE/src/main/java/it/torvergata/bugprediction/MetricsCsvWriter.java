@@ -0,0 +1,72 @@
+package it.torvergata.bugprediction;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes the numstat rows of the streamed commits to the {@code <project>_Metrics.csv} file, in UTF-8.
+ * An incremental run appends the newer commits as a segment of their own, which starts
+ * with the header line again; {@link MetricsCsvReader} reads the segments newest first.
+ */
+public class MetricsCsvWriter implements CommitSink, Closeable {
+
+    static final String HEADER = "CommitID,Date,Author,File,LOC_Added,LOC_Deleted,TicketLinked,Tickets\n";
+
+    private final Writer writer;
+    private final TicketMatcher ticketMatcher;
+
+    public MetricsCsvWriter(String outFileName, TicketMatcher ticketMatcher) throws IOException {
+        this(outFileName, ticketMatcher, false);
+    }
+
+    /**
+     * @param append true to add a segment after the rows of an existing file, e.g. the
+     *               commits of an incremental run
+     */
+    public MetricsCsvWriter(String outFileName, TicketMatcher ticketMatcher, boolean append) throws IOException {
+        this.writer = new BufferedWriter(new FileWriter(outFileName, StandardCharsets.UTF_8, append));
+        this.ticketMatcher = ticketMatcher;
+        writer.write(HEADER);
+    }
+
+    @Override
+    public void accept(CommitRecord commit) throws IOException {
+        if (commit.changes.isEmpty()) return;
+
+        String tickets = joinTicketKeys(commit.tickets);
+        for (CommitRecord.FileChange change : commit.changes) {
+            writer.append(commit.hash).append(",")
+                    .append(commit.date).append(",")
+                    .append("\"").append(commit.author).append("\"").append(",")
+                    .append("\"").append(change.path).append("\"").append(",")
+                    .append(formatCount(change.added)).append(",")
+                    .append(formatCount(change.deleted)).append(",")
+                    .append(String.valueOf(commit.isTicketLinked())).append(",")
+                    .append(tickets).append("\n");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+
+    private static String formatCount(int count) {
+        return count < 0 ? "-" : String.valueOf(count);
+    }
+
+    // Space-separated ticket keys, so that the list fits in a single CSV field
+    private String joinTicketKeys(int[] ticketNumbers) {
+        if (ticketNumbers.length == 0) return "";
+        StringBuilder sb = new StringBuilder();
+        for (int n : ticketNumbers) {
+            if (sb.length() > 0) sb.append(' ');
+            sb.append(ticketMatcher.ticketKey(n));
+        }
+        return sb.toString();
+    }
+}
@@ -1,53 +1,86 @@
 package it.torvergata.bugprediction;
 
+import it.torvergata.bugprediction.utils.CsvRowWriter;
+import it.torvergata.bugprediction.utils.JiraClient;
+import it.torvergata.bugprediction.utils.JiraIssue;
 import it.torvergata.bugprediction.utils.JsonUtils;
 import it.torvergata.bugprediction.utils.FileWriterUtils;
-import org.json.*;
+import it.torvergata.bugprediction.utils.RunReport;
 import java.io.*;
-import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class RetrieveTicketsID {
 
     private static final Logger LOGGER = Logger.getLogger(RetrieveTicketsID.class.getName());
-    private static final String PROJECT_KEY = "BOOKKEEPER"; // o "STORM"
+    private static final String PROJECT_KEY = "BOOKKEEPER"; // default when no key is given
     private static final String JIRA_API_SEARCH =
-            "https://issues.apache.org/jira/rest/api/2/search?jql=project=%22"
-                    + PROJECT_KEY + "%22AND%22issueType%22=%22Bug%22AND(%22status%22=%22closed%22OR"
-                    + "%22status%22=%22resolved%22)AND%22resolution%22=%22fixed%22&fields=key,resolutiondate,versions,created";
+            "/rest/api/2/search?jql=project=%%22%s%%22AND%%22issueType%%22=%%22Bug%%22AND(%%22status%%22=%%22closed%%22OR"
+                    + "%%22status%%22=%%22resolved%%22)AND%%22resolution%%22=%%22fixed%%22&fields=key,resolutiondate,versions,created";
+    private static final int PAGE_SIZE = 1000;
 
+    /**
+     * Usage: RetrieveTicketsID [PROJECT_KEY]
+     */
     public static void main(String[] args) {
-        String fileName = PROJECT_KEY + "_Tickets.csv";
-        String outFileName = FileWriterUtils.prepareOutputDataFilePath(fileName);
-
-        int startAt = 0;
-        int maxResults = 1000;
-        boolean more = true;
-
-        try (FileWriter fileWriter = new FileWriter(outFileName)) {
-            fileWriter.append("TicketID\n");
-
-            // Only gets a max of 1000 at a time, so must do this multiple times if bugs > 1000
-            while (more) {
-                // Get JSON API for closed bugs w/ AV in the project
-                String queryUrl = JIRA_API_SEARCH + "&startAt=" + startAt + "&maxResults=" + maxResults;
-                JSONObject json = JsonUtils.getJsonObject(new URL(queryUrl));
-                JSONArray issues = json.getJSONArray("issues");
-
-                for (int i = 0; i < issues.length(); i++) {
-                    fileWriter.append(issues.getJSONObject(i).getString("key")).append("\n");
-                }
-
-                int total = json.getInt("total");
-                startAt += maxResults;
-                more = startAt < total;
+        String projectKey = args.length > 0 ? args[0] : PROJECT_KEY;
+        String outFileName = FileWriterUtils.prepareOutputDataFilePath(ticketsFileName(projectKey));
+
+        try (RunReport report = RunReport.start(projectKey + "_RetrieveTicketsID");
+             RunReport.Stage stage = report.stage("tickets");
+             JiraClient jira = JiraClient.fromSystemProperties()) {
+
+            try (CsvRowWriter writer = new CsvRowWriter(Path.of(outFileName))) {
+                writer.line(AffectedVersionLabeler.TICKETS_HEADER);
+                streamFixedBugs(jira, projectKey, stage, issue -> writeTicket(writer, issue));
+            } catch (Exception e) {
+                LOGGER.log(Level.SEVERE, "Error writing CSV file", e);
+                stage.error(e);
             }
-        } catch (Exception e) {
-            LOGGER.log(Level.SEVERE, "Error writing CSV file", e);
+            stage.add(RunReport.CACHE_HITS, jira.getCacheHits());
+            stage.add(RunReport.CSV_ROWS_WRITTEN, stage.get(RunReport.RECORDS));
+            stage.add(RunReport.BYTES_WRITTEN, new File(outFileName).length());
         }
 
         LOGGER.log(Level.INFO, "Tickets saved in {0}", outFileName);
     }
 
+    /** Name of the tickets file of a project, e.g. BOOKKEEPER_Tickets.csv: JIRA keys are upper case. */
+    static String ticketsFileName(String project) {
+        return project.toUpperCase() + "_Tickets.csv";
+    }
+
+    // Key, dates and affected versions, which the affected-version labeling needs
+    static void writeTicket(CsvRowWriter writer, JiraIssue issue) throws IOException {
+        writer.field(issue.key)
+                .field(issue.created == null ? "" : issue.created)
+                .field(issue.resolutionDate == null ? "" : issue.resolutionDate)
+                .field(AffectedVersionLabeler.joinVersions(issue.affectedVersions))
+                .endRow();
+    }
+
+    /**
+     * Hands the closed or resolved, fixed bugs of the project to the consumer, page after page.
+     */
+    static void streamFixedBugs(JiraClient jira, String projectKey, RunReport.Stage stage,
+                                JsonUtils.IssueConsumer consumer) throws IOException {
+        // Only gets a max of 1000 at a time: the pages after the first one are fetched concurrently
+        // Get JSON API for closed bugs w/ AV in the project
+        String searchUrl = jira.getBaseUrl() + String.format(JIRA_API_SEARCH, projectKey);
+        jira.fetchSearchPages(searchUrl, PAGE_SIZE, (startAt, body) -> {
+            stage.increment(RunReport.HTTP_PAGES);
+            stage.add(RunReport.BYTES_READ, Files.size(body));
+            // Pages are streamed issue by issue, without building their JSON tree
+            try (Reader reader = Files.newBufferedReader(body, StandardCharsets.UTF_8)) {
+                JsonUtils.streamIssues(reader, issue -> {
+                    consumer.accept(issue);
+                    stage.increment(RunReport.RECORDS);
+                });
+            }
+        });
+    }
+
 }
@@ -0,0 +1,130 @@
+package it.torvergata.bugprediction;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Extracts a range of the git history with several {@code git log} processes running at once.
+ * The commit list is cut into contiguous shards of the sequential log order; every shard
+ * is diffed by its own git worker and the shards are handed to the sink in order, so the
+ * sink sees exactly the same commit sequence as the single-process extraction.
+ */
+public class ShardedHistoryExtractor {
+
+    private static final Logger LOGGER = Logger.getLogger(ShardedHistoryExtractor.class.getName());
+
+    static final int DEFAULT_SHARD_SIZE = 2000;
+
+    private ShardedHistoryExtractor() {}
+
+    public static void streamGitHistory(String projectPath, String revisions, TicketMatcher ticketMatcher,
+                                        CommitSink sink, int workers, int shardSize) throws IOException {
+        List<String> commits = listCommits(projectPath, revisions);
+        List<List<String>> shards = new ArrayList<>();
+        for (int from = 0; from < commits.size(); from += shardSize) {
+            shards.add(commits.subList(from, Math.min(from + shardSize, commits.size())));
+        }
+        LOGGER.log(Level.INFO, "Extracting {0} commits in {1} shards with {2} workers",
+                new Object[]{commits.size(), shards.size(), workers});
+
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        try {
+            // At most one shard more than the workers is in flight, so that finished shards
+            // waiting for an earlier one do not pile up in memory
+            Deque<Future<List<CommitRecord>>> inFlight = new ArrayDeque<>();
+            int next = 0;
+            while (next < shards.size() || !inFlight.isEmpty()) {
+                while (next < shards.size() && inFlight.size() <= workers) {
+                    List<String> shard = shards.get(next++);
+                    inFlight.add(executor.submit(() -> extractShard(projectPath, shard, ticketMatcher)));
+                }
+                // Shards are consumed in log order while the later ones are still running
+                for (CommitRecord commit : inFlight.poll().get()) {
+                    sink.accept(commit);
+                }
+            }
+        } catch (ExecutionException e) {
+            throw new IOException("Error extracting a history shard", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while extracting history shards", e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /** Lists the commit hashes of the revision range, in the same order as {@code git log}. */
+    static List<String> listCommits(String projectPath, String revisions) throws IOException {
+        Process process = new ProcessBuilder("git", "-C", projectPath, "rev-list", revisions)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        List<String> commits = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty()) commits.add(line);
+            }
+        }
+        waitForGit(process, "rev-list");
+        return commits;
+    }
+
+    private static List<CommitRecord> extractShard(String projectPath, List<String> shard,
+                                                   TicketMatcher ticketMatcher) throws IOException {
+        // --no-walk=unsorted shows exactly the given commits, in the given order
+        ProcessBuilder pb = new ProcessBuilder("git", "-C", projectPath, "-c", GitLogParser.LOG_ENCODING,
+                "log", "--no-walk=unsorted", "--stdin",
+                "-M", "--numstat", "--date=iso", GitLogParser.PRETTY_FORMAT);
+        // git errors go to our stderr: mixed with the log they would be parsed as numstat rows
+        pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+        Process process = pb.start();
+
+        try (BufferedWriter stdin = new BufferedWriter(
+                new OutputStreamWriter(process.getOutputStream(), StandardCharsets.US_ASCII))) {
+            for (String hash : shard) {
+                stdin.write(hash);
+                stdin.newLine();
+            }
+        }
+
+        List<CommitRecord> records = new ArrayList<>(shard.size());
+        GitLogParser parser = new GitLogParser(ticketMatcher, records::add);
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                parser.accept(line);
+            }
+        }
+        parser.finish();
+        waitForGit(process, "log");
+        return records;
+    }
+
+    static void waitForGit(Process process, String command) throws IOException {
+        try {
+            int exitCode = process.waitFor();
+            if (exitCode != 0) {
+                throw new IOException("git " + command + " exited with code " + exitCode);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for git " + command, e);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package it.torvergata.bugprediction;
+
+import it.torvergata.bugprediction.utils.CsvRowWriter;
+import it.torvergata.bugprediction.utils.FileWriterUtils;
+import it.torvergata.bugprediction.utils.RunReport;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Computes size and complexity metrics of the Java files at every release, reading the
+ * files straight from the git object store instead of checking the releases out.
+ * Results are cached by blob ID, so a file that did not change between two releases
+ * is read and analyzed only once. The rows can be joined with the per-release
+ * dataset on (Version, File).
+ */
+public class SnapshotMetricsExtractor {
+
+    private static final Logger LOGGER = Logger.getLogger(SnapshotMetricsExtractor.class.getName());
+
+    static final String HEADER = "Project,Version,File,LOC,SLOC,CommentLines,Decisions,MaxNesting";
+
+    /**
+     * Usage: SnapshotMetricsExtractor [PROJECT_KEY]
+     * Reads the releases from data/&lt;PROJECT_KEY&gt;VersionInfo.csv and the repository
+     * from projects/&lt;project&gt;; writes data/&lt;project&gt;_Snapshot.csv.
+     */
+    public static void main(String[] args) throws Exception {
+        String projectKey = args.length > 0 ? args[0] : "BOOKKEEPER";
+        String project = projectKey.toLowerCase();
+        String projectPath = new File("projects", project).getPath();
+
+        try (RunReport report = RunReport.start(project + "_SnapshotMetrics")) {
+            List<DatasetBuilder.Release> releases;
+            try (RunReport.Stage stage = report.stage("releases")) {
+                releases = DatasetBuilder.loadReleases("data/" + projectKey + "VersionInfo.csv");
+                stage.add(RunReport.CSV_ROWS_READ, releases.size());
+            }
+
+            try (RunReport.Stage stage = report.stage("snapshot")) {
+                extractSnapshots(project, projectPath, releases, stage);
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Error extracting snapshot metrics", e);
+                report.fail(e);
+            }
+        }
+    }
+
+    /**
+     * Writes one row per (release, Java file) with the metrics of the file at the last
+     * commit before the release date, in data/&lt;project&gt;_Snapshot.csv.
+     */
+    static void extractSnapshots(String project, String projectPath, List<DatasetBuilder.Release> releases,
+                                 RunReport.Stage stage) throws IOException {
+        String outFileName = FileWriterUtils.prepareOutputDataFilePath(project + "_Snapshot.csv");
+        extractSnapshots(project, projectPath, releases, Path.of(outFileName), stage);
+    }
+
+    static void extractSnapshots(String project, String projectPath, List<DatasetBuilder.Release> releases,
+                                 Path outFile, RunReport.Stage stage) throws IOException {
+        Map<String, SourceMetrics> byBlob = new HashMap<>();
+        long rows = 0;
+
+        try (SnapshotSource source = SnapshotSource.open(projectPath);
+             CsvRowWriter writer = new CsvRowWriter(outFile)) {
+            writer.line(HEADER);
+            for (DatasetBuilder.Release release : releases) {
+                String commit = source.commitAt(release.epochSecond);
+                if (commit == null) {
+                    LOGGER.log(Level.INFO, "No commit before release {0}", release.name);
+                    continue;
+                }
+
+                for (SnapshotSource.FileBlob file : source.listJavaFiles(commit)) {
+                    SourceMetrics m = byBlob.get(file.blobId);
+                    if (m == null) {
+                        m = source.analyze(file.blobId);
+                        byBlob.put(file.blobId, m);
+                        stage.increment(RunReport.RECORDS);
+                    } else {
+                        stage.increment(RunReport.CACHE_HITS);
+                    }
+                    writeRow(writer, project, release.name, file.path, m);
+                    rows++;
+                }
+            }
+        }
+
+        stage.add(RunReport.CSV_ROWS_WRITTEN, rows);
+        stage.add(RunReport.BYTES_WRITTEN, outFile.toFile().length());
+        LOGGER.log(Level.INFO, "Snapshot metrics of {0} files ({1} distinct blobs) saved in {2}",
+                new Object[]{rows, byBlob.size(), outFile});
+    }
+
+    // Paths and version names are quoted when they hold a comma or a quote
+    private static void writeRow(CsvRowWriter writer, String project, String version, String file,
+                                 SourceMetrics m) throws IOException {
+        writer.field(project)
+                .field(version)
+                .field(file)
+                .field(m.loc)
+                .field(m.sloc)
+                .field(m.commentLines)
+                .field(m.decisions)
+                .field(m.maxNesting)
+                .endRow();
+    }
+}
@@ -0,0 +1,45 @@
+package it.torvergata.bugprediction;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Reads the Java files of a git repository as they were at a given commit, without
+ * checking them out. Like {@link HistorySource}, the backend is chosen with the
+ * {@code git.backend} system property ({@code cli} or {@code jgit}).
+ */
+public interface SnapshotSource extends Closeable {
+
+    /** A Java file of a tree and the blob holding its content */
+    class FileBlob {
+        final String path;
+        final String blobId;
+
+        FileBlob(String path, String blobId) {
+            this.path = path;
+            this.blobId = blobId;
+        }
+    }
+
+    /** Returns the last commit of HEAD made at or before the given time, or null if there is none. */
+    String commitAt(long epochSecond) throws IOException;
+
+    /** Lists the Java files of the commit, sorted by path. */
+    List<FileBlob> listJavaFiles(String commit) throws IOException;
+
+    /** Reads the blob and computes its metrics. */
+    SourceMetrics analyze(String blobId) throws IOException;
+
+    static SnapshotSource open(String projectPath) throws IOException {
+        String backend = System.getProperty("git.backend", "cli");
+        switch (backend) {
+            case "cli":
+                return new GitCliSnapshotSource(projectPath);
+            case "jgit":
+                return new JGitSnapshotSource(projectPath);
+            default:
+                throw new IllegalArgumentException("Unknown git backend: " + backend);
+        }
+    }
+}
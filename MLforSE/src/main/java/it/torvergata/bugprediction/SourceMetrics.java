@@ -0,0 +1,163 @@
+package it.torvergata.bugprediction;
+
+/**
+ * Size and complexity of one Java source file, computed with a single pass over its
+ * bytes that only tells code, comments and string literals apart (no parsing).
+ */
+public class SourceMetrics {
+
+    private static final int CODE = 0;
+    private static final int LINE_COMMENT = 1;
+    private static final int BLOCK_COMMENT = 2;
+    private static final int STRING = 3;
+    private static final int CHAR = 4;
+    private static final int TEXT_BLOCK = 5;
+
+    final int loc;          // physical lines
+    final int sloc;         // lines with code
+    final int commentLines; // lines with comments and no code
+    final int decisions;    // if, for, while, case, catch, &&, ||, ?:
+    final int maxNesting;   // deepest brace nesting; methods of a top-level class are at 2
+
+    private SourceMetrics(int loc, int sloc, int commentLines, int decisions, int maxNesting) {
+        this.loc = loc;
+        this.sloc = sloc;
+        this.commentLines = commentLines;
+        this.decisions = decisions;
+        this.maxNesting = maxNesting;
+    }
+
+    /** Analyzes the first length bytes of the buffer, holding UTF-8 (or any ASCII-based) source. */
+    public static SourceMetrics analyze(byte[] src, int length) {
+        int loc = 0;
+        int sloc = 0;
+        int comments = 0;
+        int decisions = 0;
+        int depth = 0;
+        int maxDepth = 0;
+        boolean lineHasCode = false;
+        boolean lineHasComment = false;
+        int state = CODE;
+        int previous = 0; // last code byte that is not blank, to tell ?: from the ? wildcard
+
+        for (int i = 0; i < length; i++) {
+            byte b = src[i];
+            if (b == '\n') {
+                loc++;
+                if (lineHasCode) sloc++;
+                else if (lineHasComment) comments++;
+                lineHasCode = false;
+                lineHasComment = false;
+                if (state == LINE_COMMENT) state = CODE;
+                continue;
+            }
+            boolean blank = b == ' ' || b == '\t' || b == '\r' || b == '\f';
+            int next = i + 1 < length ? src[i + 1] : 0;
+
+            switch (state) {
+                case CODE:
+                    if (blank) break;
+                    if (b == '/' && next == '/') {
+                        state = LINE_COMMENT;
+                        lineHasComment = true;
+                        i++;
+                        break;
+                    }
+                    if (b == '/' && next == '*') {
+                        state = BLOCK_COMMENT;
+                        lineHasComment = true;
+                        i++;
+                        break;
+                    }
+                    lineHasCode = true;
+                    if (b == '"') {
+                        if (next == '"' && i + 2 < length && src[i + 2] == '"') {
+                            state = TEXT_BLOCK;
+                            i += 2;
+                        } else {
+                            state = STRING;
+                        }
+                    } else if (b == '\'') {
+                        state = CHAR;
+                    } else if (b == '{') {
+                        maxDepth = Math.max(maxDepth, ++depth);
+                    } else if (b == '}') {
+                        depth = Math.max(0, depth - 1);
+                    } else if ((b == '&' && next == '&') || (b == '|' && next == '|')) {
+                        decisions++;
+                        i++;
+                    } else if (b == '?' && previous != '<' && previous != ',') {
+                        decisions++;
+                    } else if (isIdentifierStart(b) && (i == 0 || !isIdentifierPart(src[i - 1]))) {
+                        int end = i + 1;
+                        while (end < length && isIdentifierPart(src[end])) end++;
+                        if (isDecisionKeyword(src, i, end - i)) decisions++;
+                        i = end - 1;
+                    }
+                    previous = b;
+                    break;
+                case LINE_COMMENT:
+                    break;
+                case BLOCK_COMMENT:
+                    if (!blank) lineHasComment = true;
+                    if (b == '*' && next == '/') {
+                        state = CODE;
+                        i++;
+                    }
+                    break;
+                case STRING:
+                case CHAR:
+                    if (b == '\\') i++;
+                    else if (b == (state == STRING ? '"' : '\'')) state = CODE;
+                    break;
+                default: // TEXT_BLOCK
+                    lineHasCode = true;
+                    if (b == '\\') {
+                        i++;
+                    } else if (b == '"' && next == '"' && i + 2 < length && src[i + 2] == '"') {
+                        state = CODE;
+                        i += 2;
+                    }
+                    break;
+            }
+        }
+
+        // Last line without a trailing newline
+        if (length > 0 && src[length - 1] != '\n') {
+            loc++;
+            if (lineHasCode) sloc++;
+            else if (lineHasComment) comments++;
+        }
+        return new SourceMetrics(loc, sloc, comments, decisions, maxDepth);
+    }
+
+    private static boolean isIdentifierStart(byte b) {
+        return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || b == '_' || b == '$' || b < 0;
+    }
+
+    private static boolean isIdentifierPart(byte b) {
+        return isIdentifierStart(b) || (b >= '0' && b <= '9');
+    }
+
+    private static boolean isDecisionKeyword(byte[] src, int start, int length) {
+        switch (length) {
+            case 2:
+                return src[start] == 'i' && src[start + 1] == 'f';
+            case 3:
+                return matches(src, start, "for");
+            case 4:
+                return matches(src, start, "case");
+            case 5:
+                return matches(src, start, "while") || matches(src, start, "catch");
+            default:
+                return false;
+        }
+    }
+
+    private static boolean matches(byte[] src, int start, String keyword) {
+        for (int i = 0; i < keyword.length(); i++) {
+            if (src[start + i] != keyword.charAt(i)) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,470 @@
+package it.torvergata.bugprediction;
+
+import it.torvergata.bugprediction.utils.CsvRowWriter;
+import it.torvergata.bugprediction.utils.StringDictionary;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Per-file metrics aggregated under a heap budget. The revisions go to in-memory
+ * {@link MetricStore}s (one per release window with perRelease, otherwise one) as usual;
+ * when their estimated size exceeds the budget, the partial aggregates are sorted by
+ * path and spilled to a run file, with the names of the authors of every file so that
+ * the distinct authors can still be counted, and the stores start again empty.
+ * The dataset is then written by a k-way merge of the runs, one file at a time; with
+ * more than {@value #MAX_FAN_IN} runs, groups of runs are first merged into longer ones
+ * so that no more than {@value #MAX_FAN_IN} files are open at once.
+ *
+ * <p>The rows are the same as with the in-memory path. The per-release dataset is
+ * identical, the cumulative one has its rows in path order instead of first-commit order.</p>
+ */
+public class SpillingMetricStore implements Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(SpillingMetricStore.class.getName());
+
+    // Rough heap cost of the entries, for the budget
+    private static final long FILE_BYTES = 128;   // path string and dictionary slots
+    private static final long METRICS_BYTES = 28; // the per-file arrays of one window
+    private static final long AUTHOR_BYTES = 96;  // name string and dictionary slots
+    private static final long PAIR_BYTES = 16;    // one (file, author) key of a half-full set
+
+    static final int MAX_FAN_IN = 64;
+
+    private final List<DatasetBuilder.Release> releases;
+    private final boolean perRelease;
+    private final int windowCount;
+    private final long budgetBytes;
+    private final Path spillDir;
+    private final List<Path> runs = new ArrayList<>();
+    private final List<MetricStore> windows = new ArrayList<>();
+    private boolean dirty;
+    private int spilled;
+    private int nextRunId;
+
+    public SpillingMetricStore(List<DatasetBuilder.Release> releases, boolean perRelease, long budgetBytes)
+            throws IOException {
+        this.releases = releases;
+        this.perRelease = perRelease;
+        this.windowCount = perRelease ? releases.size() + 1 : 1;
+        this.budgetBytes = budgetBytes;
+        this.spillDir = Files.createTempDirectory("metrics-spill");
+        resetWindows();
+    }
+
+    /** The store that records a revision made at the given date; may spill the previous ones first. */
+    public MetricStore windowFor(long commitEpoch) {
+        if (dirty && estimatedBytes() > budgetBytes) {
+            try {
+                spill();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not spill the metrics to " + spillDir, e);
+            }
+        }
+        dirty = true;
+        return windows.get(perRelease ? DatasetBuilder.releaseIndexFor(releases, commitEpoch) + 1 : 0);
+    }
+
+    /** Number of runs spilled so far, not counting those written by the merge passes. */
+    public int runCount() {
+        return spilled;
+    }
+
+    /**
+     * Names the files after their lineage identity: the pending revisions are spilled
+     * and every run is rewritten with the identities, sorted again. A run holds no more
+     * than the budget allowed in memory, so it is sorted in memory.
+     */
+    public void resolve(FileLineage lineage) throws IOException {
+        if (dirty) spill();
+        for (Path run : runs) {
+            List<RunRecord> records = new ArrayList<>();
+            try (RunReader reader = new RunReader(run)) {
+                while (reader.next()) records.add(new RunRecord(lineage.identity(reader.path), reader));
+            }
+            records.sort(Comparator.comparing((RunRecord r) -> r.path).thenComparingInt(r -> r.window));
+            Path resolved = run.resolveSibling(run.getFileName() + ".resolved");
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(resolved), 1 << 16))) {
+                for (RunRecord r : records) {
+                    writeRecord(out, r.path, r.window, r.locAdded, r.locDeleted, r.nRev, r.nFix, r.lastCommit,
+                            r.authors);
+                }
+                out.writeBoolean(false);
+            }
+            Files.move(resolved, run, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Merges the runs and writes the dataset, cumulative or per release as chosen at
+     * construction. Returns the number of rows written.
+     */
+    public long writeDataset(String project, String outFileName, long maxAllowedDate,
+                             DatasetBuilder.BugLabels labels) throws IOException {
+        if (dirty) spill();
+        reduceRuns();
+
+        List<CsvRowWriter> blocks = new ArrayList<>(); // one temporary file per release with perRelease
+        long rows = 0;
+        try (RunMerge merge = new RunMerge(runs)) {
+            for (int k = 0; k < windowCount && perRelease; k++) {
+                blocks.add(new CsvRowWriter(blockPath(k), 1 << 16));
+            }
+
+            Merged merged = new Merged(windowCount);
+            try (CsvRowWriter writer = new CsvRowWriter(Path.of(outFileName))) {
+                writer.line(DatasetBuilder.DATASET_HEADER);
+                String path;
+                while ((path = merge.next(merged)) != null) {
+                    rows += perRelease
+                            ? writePerRelease(blocks, project, path, merged, maxAllowedDate, labels)
+                            : writeCumulative(writer, project, path, merged, labels);
+                }
+
+                for (int k = 0; k < blocks.size(); k++) {
+                    blocks.get(k).close();
+                    writer.append(blockPath(k));
+                }
+            }
+        } finally {
+            for (CsvRowWriter block : blocks) block.close();
+        }
+        return rows;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try (var files = Files.list(spillDir)) {
+            for (Path file : (Iterable<Path>) files::iterator) Files.deleteIfExists(file);
+        }
+        Files.deleteIfExists(spillDir);
+    }
+
+    private long estimatedBytes() {
+        MetricStore first = windows.get(0);
+        long bytes = first.files.size() * (FILE_BYTES + METRICS_BYTES * windowCount)
+                + first.authors.size() * AUTHOR_BYTES;
+        for (MetricStore window : windows) bytes += window.fileAuthors.size() * PAIR_BYTES;
+        return bytes;
+    }
+
+    // Writes the stores to a run sorted by (path, window) and empties them
+    private void spill() throws IOException {
+        MetricStore first = windows.get(0);
+        StringDictionary files = first.files;
+        StringDictionary authors = first.authors;
+        Path run = newRunPath();
+
+        int[][] authorStart = new int[windowCount][];
+        int[][] authorIds = new int[windowCount][];
+        for (int w = 0; w < windowCount; w++) {
+            groupAuthorsByFile(windows.get(w), files.size(), w, authorStart, authorIds);
+        }
+
+        long records = 0;
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(run), 1 << 16))) {
+            for (int id : DatasetBuilder.sortedByPath(files)) {
+                for (int w = 0; w < windowCount; w++) {
+                    MetricStore store = windows.get(w);
+                    if (!store.contains(id)) continue;
+                    String[] names = new String[authorStart[w][id + 1] - authorStart[w][id]];
+                    for (int i = 0; i < names.length; i++) {
+                        names[i] = authors.get(authorIds[w][authorStart[w][id] + i]);
+                    }
+                    writeRecord(out, files.get(id), w, store.locAdded[id], store.locDeleted[id], store.nRev[id],
+                            store.nFix[id], store.lastCommit[id], names);
+                    records++;
+                }
+            }
+            out.writeBoolean(false);
+        }
+        runs.add(run);
+        spilled++;
+        LOGGER.log(Level.FINE, "Spilled {0} file records over the memory budget to {1}",
+                new Object[]{records, run});
+        resetWindows();
+    }
+
+    // Merges groups of MAX_FAN_IN runs into one until the runs can all be merged at once
+    private void reduceRuns() throws IOException {
+        while (runs.size() > MAX_FAN_IN) {
+            List<Path> reduced = new ArrayList<>();
+            for (int from = 0; from < runs.size(); from += MAX_FAN_IN) {
+                List<Path> group = runs.subList(from, Math.min(from + MAX_FAN_IN, runs.size()));
+                if (group.size() == 1) {
+                    reduced.add(group.get(0));
+                    continue;
+                }
+                Path run = newRunPath();
+                mergeRuns(group, run);
+                for (Path merged : group) Files.delete(merged);
+                reduced.add(run);
+            }
+            LOGGER.log(Level.FINE, "Merged {0} runs into {1}", new Object[]{runs.size(), reduced.size()});
+            runs.clear();
+            runs.addAll(reduced);
+        }
+    }
+
+    // Writes the records of the runs as one run, with the records of a file and window combined
+    private void mergeRuns(List<Path> group, Path out) throws IOException {
+        Merged merged = new Merged(windowCount);
+        try (RunMerge merge = new RunMerge(group);
+             DataOutputStream run = new DataOutputStream(
+                     new BufferedOutputStream(Files.newOutputStream(out), 1 << 16))) {
+            String path;
+            while ((path = merge.next(merged)) != null) {
+                for (int w = 0; w < windowCount; w++) {
+                    if (merged.nRev[w] == 0) continue;
+                    writeRecord(run, path, w, merged.locAdded[w], merged.locDeleted[w], merged.nRev[w],
+                            merged.nFix[w], merged.lastCommit[w], merged.authors.get(w).toArray(new String[0]));
+                }
+            }
+            run.writeBoolean(false);
+        }
+    }
+
+    private Path newRunPath() {
+        return spillDir.resolve("run-" + nextRunId++ + ".bin");
+    }
+
+    private static void writeRecord(DataOutputStream out, String path, int window, int locAdded, int locDeleted,
+                                    int nRev, int nFix, long lastCommit, String[] authors) throws IOException {
+        out.writeBoolean(true);
+        out.writeUTF(path);
+        out.writeInt(window);
+        out.writeInt(locAdded);
+        out.writeInt(locDeleted);
+        out.writeInt(nRev);
+        out.writeInt(nFix);
+        out.writeLong(lastCommit);
+        out.writeInt(authors.length);
+        for (String author : authors) out.writeUTF(author);
+    }
+
+    // Author IDs of every file of the store, as a CSR table: the authors of file f are
+    // authorIds[w][authorStart[w][f] .. authorStart[w][f + 1])
+    private static void groupAuthorsByFile(MetricStore store, int fileCount, int w,
+                                           int[][] authorStart, int[][] authorIds) {
+        int[] start = new int[fileCount + 1];
+        store.fileAuthors.forEach(pair -> start[(int) (pair >>> 32) + 1]++);
+        for (int f = 0; f < fileCount; f++) start[f + 1] += start[f];
+        int[] ids = new int[start[fileCount]];
+        int[] next = new int[fileCount];
+        store.fileAuthors.forEach(pair -> {
+            int file = (int) (pair >>> 32);
+            ids[start[file] + next[file]++] = (int) pair;
+        });
+        authorStart[w] = start;
+        authorIds[w] = ids;
+    }
+
+    private void resetWindows() {
+        StringDictionary files = new StringDictionary();
+        StringDictionary authors = new StringDictionary();
+        windows.clear();
+        for (int w = 0; w < windowCount; w++) windows.add(new MetricStore(files, authors));
+        dirty = false;
+    }
+
+    private long writeCumulative(CsvRowWriter writer, String project, String path, Merged m,
+                                 DatasetBuilder.BugLabels labels) throws IOException {
+        if (m.nRev[0] == 0) return 0;
+        int window = DatasetBuilder.releaseIndexFor(releases, m.lastCommit[0]) + 1;
+        DatasetBuilder.writeRow(writer, project, windowName(window), path, m.locAdded[0], m.locDeleted[0],
+                m.nRev[0], m.nFix[0], m.authors.get(0).size(), labels.isBuggy(path, window, m.nFix[0]));
+        return 1;
+    }
+
+    // Accumulates the windows of the file release after release, as the in-memory path does
+    private long writePerRelease(List<CsvRowWriter> blocks, String project, String path, Merged m,
+                                 long maxAllowedDate, DatasetBuilder.BugLabels labels) throws IOException {
+        int added = 0;
+        int deleted = 0;
+        int nRev = 0;
+        int nFix = 0;
+        Set<String> authors = new HashSet<>();
+        long rows = 0;
+        for (int k = 0; k < windowCount; k++) {
+            DatasetBuilder.Release release = k == 0 ? null : releases.get(k - 1);
+            if (release != null && release.epochSecond > maxAllowedDate) break;
+
+            added += m.locAdded[k];
+            deleted += m.locDeleted[k];
+            nRev += m.nRev[k];
+            nFix += m.nFix[k];
+            authors.addAll(m.authors.get(k));
+            if (nRev == 0) continue;
+            DatasetBuilder.writeRow(blocks.get(k), project, windowName(k), path, added, deleted, nRev, nFix,
+                    authors.size(), labels.isBuggy(path, k, nFix));
+            rows++;
+        }
+        return rows;
+    }
+
+    private String windowName(int window) {
+        return window == 0 ? DatasetBuilder.PRE_RELEASE : releases.get(window - 1).name;
+    }
+
+    private Path blockPath(int window) {
+        return spillDir.resolve("release-" + window + ".csv");
+    }
+
+    /** The records of one file across all the runs, by window */
+    private static final class Merged {
+        final int[] locAdded;
+        final int[] locDeleted;
+        final int[] nRev;
+        final int[] nFix;
+        final long[] lastCommit;
+        final List<Set<String>> authors = new ArrayList<>();
+
+        Merged(int windowCount) {
+            locAdded = new int[windowCount];
+            locDeleted = new int[windowCount];
+            nRev = new int[windowCount];
+            nFix = new int[windowCount];
+            lastCommit = new long[windowCount];
+            for (int w = 0; w < windowCount; w++) authors.add(new HashSet<>());
+        }
+
+        void reset() {
+            for (int w = 0; w < nRev.length; w++) {
+                locAdded[w] = 0;
+                locDeleted[w] = 0;
+                nRev[w] = 0;
+                nFix[w] = 0;
+                lastCommit[w] = Long.MIN_VALUE;
+                authors.get(w).clear();
+            }
+        }
+
+        void add(RunReader r) {
+            int w = r.window;
+            locAdded[w] += r.locAdded;
+            locDeleted[w] += r.locDeleted;
+            nRev[w] += r.nRev;
+            nFix[w] += r.nFix;
+            lastCommit[w] = Math.max(lastCommit[w], r.lastCommit);
+            for (String author : r.authors) authors.get(w).add(author);
+        }
+    }
+
+    /** K-way merge of runs sorted by (path, window), one file at a time */
+    private static final class RunMerge implements Closeable {
+        private final List<RunReader> readers = new ArrayList<>();
+        private final PriorityQueue<RunReader> queue = new PriorityQueue<>(
+                Comparator.comparing((RunReader r) -> r.path).thenComparingInt(r -> r.window));
+
+        RunMerge(List<Path> runs) throws IOException {
+            try {
+                for (Path run : runs) {
+                    RunReader reader = new RunReader(run);
+                    readers.add(reader);
+                    if (reader.next()) queue.add(reader);
+                }
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        /** Adds the records of the next file to merged, after resetting it; returns its path, null at the end. */
+        String next(Merged merged) throws IOException {
+            if (queue.isEmpty()) return null;
+            String path = queue.peek().path;
+            merged.reset();
+            while (!queue.isEmpty() && queue.peek().path.equals(path)) {
+                RunReader reader = queue.poll();
+                merged.add(reader);
+                if (reader.next()) queue.add(reader);
+            }
+            return path;
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (RunReader reader : readers) reader.close();
+        }
+    }
+
+    /** A record of a run, kept in memory to sort the run again */
+    private static final class RunRecord {
+        final String path;
+        final int window;
+        final int locAdded;
+        final int locDeleted;
+        final int nRev;
+        final int nFix;
+        final long lastCommit;
+        final String[] authors;
+
+        RunRecord(String path, RunReader r) {
+            this.path = path;
+            this.window = r.window;
+            this.locAdded = r.locAdded;
+            this.locDeleted = r.locDeleted;
+            this.nRev = r.nRev;
+            this.nFix = r.nFix;
+            this.lastCommit = r.lastCommit;
+            this.authors = r.authors;
+        }
+    }
+
+    /** Sequential reader of a run file, positioned on its current record */
+    private static final class RunReader implements Closeable {
+        private final DataInputStream in;
+        String path;
+        int window;
+        int locAdded;
+        int locDeleted;
+        int nRev;
+        int nFix;
+        long lastCommit;
+        String[] authors;
+
+        RunReader(Path run) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run), 1 << 16));
+        }
+
+        boolean next() throws IOException {
+            if (!in.readBoolean()) return false;
+            path = in.readUTF();
+            window = in.readInt();
+            locAdded = in.readInt();
+            locDeleted = in.readInt();
+            nRev = in.readInt();
+            nFix = in.readInt();
+            lastCommit = in.readLong();
+            int count = in.readInt();
+            if (count < 0) throw new EOFException("Corrupted run file");
+            authors = new String[count];
+            for (int i = 0; i < count; i++) authors[i] = in.readUTF();
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
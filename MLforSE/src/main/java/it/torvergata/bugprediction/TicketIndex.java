@@ -0,0 +1,336 @@
+package it.torvergata.bugprediction;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Read-only, memory-mapped view of the ticket → commit → file index written by
+ * {@link TicketIndexWriter}. Lookups read the mapped file in place: a ticket is found
+ * by binary search over the sorted ticket numbers, and its commits and their files
+ * are contiguous ID ranges, so nothing is loaded on the heap besides the results.
+ *
+ * <p>The file is a sequence of segments: the one of the full extraction, then a delta
+ * segment for the commits of every incremental run, each newer than the ones before it.
+ * Commit and file IDs run across the segments in file order, and the stream positions
+ * of a segment come after the ones of all the newer segments.</p>
+ *
+ * <p>Segment layout, all big-endian: a header with the magic number, the version, the
+ * section sizes and the number of commits walked, then the sorted ticket numbers, the
+ * start of the commit range of every ticket, the commit IDs, the commit times, the commit
+ * stream positions, the commit hashes (20 bytes each), the start of the file range of
+ * every commit, the file IDs, the start of every path in the string bytes, the UTF-8
+ * paths and the ticket key prefix.</p>
+ */
+public class TicketIndex implements Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(TicketIndex.class.getName());
+
+    static final int MAGIC = 0x544B4958; // "TKIX"
+    static final int VERSION = 2;
+    static final int HEADER_BYTES = 40;
+    static final int HASH_BYTES = 20;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final int[] NONE = new int[0];
+
+    private final FileChannel channel;
+    private final Segment[] segments; // in file order, oldest commits first
+    private final int commitCount;
+    private final int fileCount;
+    private final int walkedCount;
+    private final String prefix;
+
+    private TicketIndex(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            if (channel.size() > Integer.MAX_VALUE) throw new IOException("Index too large to map: " + path);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            List<Segment> list = new ArrayList<>();
+            int commits = 0;
+            int files = 0;
+            for (int at = 0; at < buffer.capacity(); at = list.get(list.size() - 1).end) {
+                Segment segment = new Segment(buffer, at, commits, files, path);
+                commits += segment.commitCount;
+                files += segment.fileCount;
+                list.add(segment);
+            }
+            if (list.isEmpty()) throw new IOException("Not a ticket index (or an older version): " + path);
+            segments = list.toArray(new Segment[0]);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        int walked = 0;
+        for (int k = segments.length - 1; k >= 0; k--) {
+            segments[k].positionBase = walked;
+            walked += segments[k].walkedCount;
+        }
+        Segment last = segments[segments.length - 1];
+        commitCount = last.commitBase + last.commitCount;
+        fileCount = last.fileBase + last.fileCount;
+        walkedCount = walked;
+        prefix = last.prefix;
+    }
+
+    public static TicketIndex open(Path path) throws IOException {
+        return new TicketIndex(path);
+    }
+
+    /** Number of distinct tickets indexed. */
+    public int ticketCount() {
+        if (segments.length == 1) return segments[0].ticketCount;
+        return ticketRange(Integer.MIN_VALUE, Integer.MAX_VALUE).length;
+    }
+
+    public int commitCount() {
+        return commitCount;
+    }
+
+    public int fileCount() {
+        return fileCount;
+    }
+
+    /** Number of segments: one for the full extraction, one more for every incremental run. */
+    public int segmentCount() {
+        return segments.length;
+    }
+
+    /** Number of commits with changes in the walks the index was written from, fixes or not. */
+    public int walkedCount() {
+        return walkedCount;
+    }
+
+    /** Full key of a ticket number, e.g. "BOOKKEEPER-123". */
+    public String ticketKey(int number) {
+        return prefix + number;
+    }
+
+    /** IDs of the commits that reference the ticket, empty if none does. */
+    public int[] commitsOf(int ticket) {
+        int[] commits = NONE;
+        for (Segment segment : segments) {
+            int[] local = segment.commitsOf(ticket);
+            if (local.length == 0) continue;
+            int n = commits.length;
+            commits = Arrays.copyOf(commits, n + local.length);
+            for (int i = 0; i < local.length; i++) commits[n + i] = segment.commitBase + local[i];
+        }
+        return commits;
+    }
+
+    /** Numbers of the indexed tickets in [from, to), in increasing order. */
+    public int[] ticketRange(int from, int to) {
+        if (segments.length == 1) return segments[0].ticketRange(from, to);
+        int[] all = NONE;
+        for (Segment segment : segments) {
+            int[] local = segment.ticketRange(from, to);
+            int n = all.length;
+            all = Arrays.copyOf(all, n + local.length);
+            System.arraycopy(local, 0, all, n, local.length);
+        }
+        Arrays.sort(all);
+        int distinct = 0;
+        for (int i = 0; i < all.length; i++) {
+            if (distinct == 0 || all[distinct - 1] != all[i]) all[distinct++] = all[i];
+        }
+        return Arrays.copyOf(all, distinct);
+    }
+
+    public String commitHash(int commit) {
+        Segment segment = segmentOfCommit(commit);
+        int at = segment.commitHashes + HASH_BYTES * (commit - segment.commitBase);
+        char[] hex = new char[2 * HASH_BYTES];
+        for (int i = 0; i < HASH_BYTES; i++) {
+            int b = segment.buffer.get(at + i) & 0xFF;
+            hex[2 * i] = HEX[b >>> 4];
+            hex[2 * i + 1] = HEX[b & 0xF];
+        }
+        return new String(hex);
+    }
+
+    /** Commit date as UTC epoch seconds. */
+    public long commitTime(int commit) {
+        Segment segment = segmentOfCommit(commit);
+        return segment.buffer.getLong(segment.commitTimes + 8 * (commit - segment.commitBase));
+    }
+
+    /**
+     * Position of the commit among the commits with changes of the walk, 0 for the first
+     * streamed, i.e. the newest; the position a {@link FileLineage} knows it by.
+     */
+    public int commitPosition(int commit) {
+        Segment segment = segmentOfCommit(commit);
+        return segment.positionBase
+                + segment.buffer.getInt(segment.commitPositions + 4 * (commit - segment.commitBase));
+    }
+
+    /** IDs of the Java files touched by the commit. */
+    public int[] filesOf(int commit) {
+        Segment segment = segmentOfCommit(commit);
+        int local = commit - segment.commitBase;
+        int[] files = segment.readInts(segment.commitFiles, segment.buffer.getInt(segment.commitStart + 4 * local),
+                segment.buffer.getInt(segment.commitStart + 4 * local + 4));
+        for (int i = 0; i < files.length; i++) files[i] += segment.fileBase;
+        return files;
+    }
+
+    public String filePath(int file) {
+        Segment segment = segments[0];
+        for (int k = segments.length - 1; k > 0; k--) {
+            if (file >= segments[k].fileBase) {
+                segment = segments[k];
+                break;
+            }
+        }
+        int local = file - segment.fileBase;
+        int from = segment.buffer.getInt(segment.pathStart + 4 * local);
+        int to = segment.buffer.getInt(segment.pathStart + 4 * local + 4);
+        return segment.utf8(segment.pathBytes + from, to - from);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private Segment segmentOfCommit(int commit) {
+        for (int k = segments.length - 1; k > 0; k--) {
+            if (commit >= segments[k].commitBase) return segments[k];
+        }
+        return segments[0];
+    }
+
+    /** One segment of the file: the section offsets are absolute offsets in the mapping. */
+    private static final class Segment {
+        final MappedByteBuffer buffer;
+        final int ticketCount;
+        final int commitCount;
+        final int fileCount;
+        final int walkedCount;
+        final int commitBase; // global ID of the first commit
+        final int fileBase;   // global ID of the first file
+        int positionBase;     // walked commits of the newer segments
+        final String prefix;
+        final int end;
+
+        final int tickets;
+        final int ticketStart;
+        final int ticketCommits;
+        final int commitTimes;
+        final int commitPositions;
+        final int commitHashes;
+        final int commitStart;
+        final int commitFiles;
+        final int pathStart;
+        final int pathBytes;
+
+        Segment(MappedByteBuffer buffer, int at, int commitBase, int fileBase, Path path) throws IOException {
+            this.buffer = buffer;
+            this.commitBase = commitBase;
+            this.fileBase = fileBase;
+            if (buffer.capacity() - at < HEADER_BYTES || buffer.getInt(at) != MAGIC
+                    || buffer.getInt(at + 4) != VERSION) {
+                throw new IOException("Not a ticket index (or an older version): " + path);
+            }
+            ticketCount = buffer.getInt(at + 8);
+            commitCount = buffer.getInt(at + 12);
+            fileCount = buffer.getInt(at + 16);
+            int ticketCommitCount = buffer.getInt(at + 20);
+            int commitFileCount = buffer.getInt(at + 24);
+            int stringBytes = buffer.getInt(at + 28);
+            int prefixBytes = buffer.getInt(at + 32);
+            walkedCount = buffer.getInt(at + 36);
+
+            tickets = at + HEADER_BYTES;
+            ticketStart = tickets + 4 * ticketCount;
+            ticketCommits = ticketStart + 4 * (ticketCount + 1);
+            commitTimes = ticketCommits + 4 * ticketCommitCount;
+            commitPositions = commitTimes + 8 * commitCount;
+            commitHashes = commitPositions + 4 * commitCount;
+            commitStart = commitHashes + HASH_BYTES * commitCount;
+            commitFiles = commitStart + 4 * (commitCount + 1);
+            pathStart = commitFiles + 4 * commitFileCount;
+            pathBytes = pathStart + 4 * (fileCount + 1);
+            end = pathBytes + stringBytes + prefixBytes;
+            if (end > buffer.capacity()) throw new IOException("Truncated ticket index segment at " + at + ": " + path);
+            prefix = utf8(pathBytes + stringBytes, prefixBytes);
+        }
+
+        int ticketAt(int i) {
+            return buffer.getInt(tickets + 4 * i);
+        }
+
+        int[] commitsOf(int ticket) {
+            int i = lowerBound(ticket);
+            if (i == ticketCount || ticketAt(i) != ticket) return NONE;
+            return readInts(ticketCommits, buffer.getInt(ticketStart + 4 * i), buffer.getInt(ticketStart + 4 * i + 4));
+        }
+
+        int[] ticketRange(int from, int to) {
+            int start = lowerBound(from);
+            int stop = lowerBound(to);
+            return start >= stop ? NONE : readInts(tickets, start, stop);
+        }
+
+        // First ticket position whose number is >= ticket
+        private int lowerBound(int ticket) {
+            int lo = 0;
+            int hi = ticketCount;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (ticketAt(mid) < ticket) lo = mid + 1;
+                else hi = mid;
+            }
+            return lo;
+        }
+
+        int[] readInts(int section, int from, int to) {
+            int[] values = new int[to - from];
+            for (int i = 0; i < values.length; i++) values[i] = buffer.getInt(section + 4 * (from + i));
+            return values;
+        }
+
+        String utf8(int offset, int length) {
+            byte[] bytes = new byte[length];
+            buffer.get(offset, bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Usage: TicketIndex &lt;index file&gt; &lt;ticket number&gt;[-&lt;last ticket number&gt;]
+     * Prints the commits that fixed the tickets and the files they touched.
+     */
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            LOGGER.severe("Usage: TicketIndex <index file> <ticket>[-<last ticket>]");
+            return;
+        }
+        try (TicketIndex index = open(Path.of(args[0]))) {
+            String[] range = args[1].split("-");
+            int from = Integer.parseInt(range[0]);
+            int to = range.length > 1 ? Integer.parseInt(range[1]) : from;
+            for (int ticket : index.ticketRange(from, to + 1)) {
+                StringBuilder sb = new StringBuilder(index.ticketKey(ticket));
+                for (int commit : index.commitsOf(ticket)) {
+                    sb.append("\n  ").append(index.commitHash(commit))
+                            .append(' ').append(Instant.ofEpochSecond(index.commitTime(commit)));
+                    for (int file : index.filesOf(commit)) sb.append("\n    ").append(index.filePath(file));
+                }
+                LOGGER.info(sb.toString());
+            }
+        } catch (IOException | NumberFormatException e) {
+            LOGGER.log(Level.SEVERE, "Error reading the ticket index", e);
+        }
+    }
+}
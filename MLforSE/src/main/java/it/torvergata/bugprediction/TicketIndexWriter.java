@@ -0,0 +1,195 @@
+package it.torvergata.bugprediction;
+
+import it.torvergata.bugprediction.utils.GitDateParser;
+import it.torvergata.bugprediction.utils.StringDictionary;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Collects the ticket-linked commits of a history walk and, when committed, writes the
+ * {@link TicketIndex} file: tickets sorted by number, each with the range of its
+ * commits, and each commit with its hash, date, stream position and the range of its files.
+ * Only the fix commits are kept in memory, as packed primitive arrays. Closing the
+ * writer without committing discards them, so a walk that failed half way never
+ * replaces the index of the previous run. An incremental run appends its commits to the
+ * index as a delta segment instead.
+ */
+public class TicketIndexWriter implements CommitSink, Closeable {
+
+    private final Path outFile;
+    private final String prefix;
+    private final StringDictionary files = new StringDictionary();
+
+    private long[] ticketCommits = new long[256]; // ticket << 32 | commit
+    private int ticketCommitCount;
+    private byte[] hashes = new byte[256 * TicketIndex.HASH_BYTES];
+    private long[] times = new long[256];
+    private int[] positions = new int[256];
+    private int[] fileStart = new int[257];
+    private int[] commitFiles = new int[1024];
+    private int commitCount;
+    private int walkedCount; // commits with changes accepted so far, fixes or not
+    private boolean committed;
+
+    /**
+     * @param prefix ticket key prefix, e.g. "BOOKKEEPER-"
+     */
+    public TicketIndexWriter(String outFileName, String prefix) {
+        this.outFile = Path.of(outFileName);
+        this.prefix = prefix;
+    }
+
+    /** Keeps the fix commits; to be handed every streamed commit, to number them as a {@link FileLineage}. */
+    @Override
+    public void accept(CommitRecord commit) throws IOException {
+        if (commit.changes.isEmpty()) return;
+        int position = walkedCount++;
+        if (!commit.isTicketLinked()) return;
+        String[] paths = new String[commit.changes.size()];
+        for (int i = 0; i < paths.length; i++) paths[i] = commit.changes.get(i).path;
+        addCommit(commit.hash, GitDateParser.parseEpochSecond(commit.date), position, commit.tickets, paths);
+    }
+
+    private void addCommit(String hash, long epochSecond, int position, int[] tickets, String[] paths)
+            throws IOException {
+        if (hash.length() != 2 * TicketIndex.HASH_BYTES) throw new IOException("Unsupported commit hash: " + hash);
+        int id = commitCount++;
+        if (id == times.length) {
+            times = Arrays.copyOf(times, id * 2);
+            positions = Arrays.copyOf(positions, id * 2);
+            hashes = Arrays.copyOf(hashes, id * 2 * TicketIndex.HASH_BYTES);
+            fileStart = Arrays.copyOf(fileStart, id * 2 + 1);
+        }
+        for (int i = 0; i < TicketIndex.HASH_BYTES; i++) {
+            hashes[id * TicketIndex.HASH_BYTES + i] = (byte) Integer.parseInt(hash, 2 * i, 2 * i + 2, 16);
+        }
+        times[id] = epochSecond;
+        positions[id] = position;
+
+        int start = fileStart[id];
+        if (start + paths.length > commitFiles.length) {
+            commitFiles = Arrays.copyOf(commitFiles, Math.max(commitFiles.length * 2, start + paths.length));
+        }
+        for (int i = 0; i < paths.length; i++) commitFiles[start + i] = files.idOf(paths[i]);
+        fileStart[id + 1] = start + paths.length;
+
+        for (int ticket : tickets) {
+            if (ticketCommitCount == ticketCommits.length) {
+                ticketCommits = Arrays.copyOf(ticketCommits, ticketCommitCount * 2);
+            }
+            ticketCommits[ticketCommitCount++] = (long) ticket << 32 | id;
+        }
+    }
+
+    /**
+     * Writes the index, through a temporary file so that readers never see half of it.
+     * To be called once the whole walk has been accepted.
+     */
+    public void commit() throws IOException {
+        Path tmp = outFile.resolveSibling(outFile.getFileName() + ".tmp");
+        try {
+            writeSegment(tmp, false);
+            Files.move(tmp, outFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Appends the commits to the existing index as a delta segment, newer than the ones
+     * already there, e.g. the commits of an incremental run. Only the new commits are
+     * written; a segment left half written by a failed run is not described by the
+     * extraction checkpoint, which cuts it off (see {@link MetricsCheckpoint#restore}).
+     */
+    public void append() throws IOException {
+        writeSegment(outFile, true);
+    }
+
+    private void writeSegment(Path path, boolean append) throws IOException {
+        if (committed) throw new IllegalStateException("Index already written");
+        Arrays.sort(ticketCommits, 0, ticketCommitCount);
+        int[] tickets = new int[ticketCommitCount];
+        int[] ticketStart = new int[ticketCommitCount + 1];
+        int ticketCount = 0;
+        for (int i = 0; i < ticketCommitCount; i++) {
+            int ticket = (int) (ticketCommits[i] >>> 32);
+            if (ticketCount == 0 || tickets[ticketCount - 1] != ticket) {
+                tickets[ticketCount] = ticket;
+                ticketStart[ticketCount++] = i;
+            }
+        }
+        ticketStart[ticketCount] = ticketCommitCount;
+
+        byte[][] paths = new byte[files.size()][];
+        int stringBytes = 0;
+        for (int f = 0; f < paths.length; f++) {
+            paths[f] = files.get(f).getBytes(StandardCharsets.UTF_8);
+            stringBytes += paths[f].length;
+        }
+        byte[] prefixBytes = prefix.getBytes(StandardCharsets.UTF_8);
+
+        OutputStream file = append
+                ? Files.newOutputStream(path, StandardOpenOption.CREATE, StandardOpenOption.APPEND)
+                : Files.newOutputStream(path);
+        writeIndex(file, tickets, ticketStart, ticketCount, paths, stringBytes, prefixBytes);
+        committed = true;
+    }
+
+    /** Releases the collected commits; without a {@link #commit()} nothing is written. */
+    @Override
+    public void close() {
+        ticketCommits = null;
+        hashes = null;
+        times = null;
+        positions = null;
+        fileStart = null;
+        commitFiles = null;
+    }
+
+    private void writeIndex(OutputStream file, int[] tickets, int[] ticketStart, int ticketCount, byte[][] paths,
+                            int stringBytes, byte[] prefixBytes) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16))) {
+            out.writeInt(TicketIndex.MAGIC);
+            out.writeInt(TicketIndex.VERSION);
+            out.writeInt(ticketCount);
+            out.writeInt(commitCount);
+            out.writeInt(paths.length);
+            out.writeInt(ticketCommitCount);
+            out.writeInt(fileStart[commitCount]);
+            out.writeInt(stringBytes);
+            out.writeInt(prefixBytes.length);
+            out.writeInt(walkedCount);
+
+            for (int i = 0; i < ticketCount; i++) out.writeInt(tickets[i]);
+            for (int i = 0; i <= ticketCount; i++) out.writeInt(ticketStart[i]);
+            for (int i = 0; i < ticketCommitCount; i++) out.writeInt((int) ticketCommits[i]);
+            for (int c = 0; c < commitCount; c++) out.writeLong(times[c]);
+            for (int c = 0; c < commitCount; c++) out.writeInt(positions[c]);
+            out.write(hashes, 0, commitCount * TicketIndex.HASH_BYTES);
+            for (int c = 0; c <= commitCount; c++) out.writeInt(fileStart[c]);
+            for (int i = 0; i < fileStart[commitCount]; i++) out.writeInt(commitFiles[i]);
+            int offset = 0;
+            for (byte[] path : paths) {
+                out.writeInt(offset);
+                offset += path.length;
+            }
+            out.writeInt(offset);
+            for (byte[] path : paths) out.write(path);
+            out.write(prefixBytes);
+        }
+    }
+
+    public int commitCount() {
+        return commitCount;
+    }
+}
@@ -0,0 +1,102 @@
+package it.torvergata.bugprediction;
+
+import it.torvergata.bugprediction.utils.IntHashSet;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Finds the JIRA tickets referenced by a commit message.
+ * The message is scanned once for "PROJECT-NNNN" tokens and every ticket number
+ * found is looked up in a primitive hash set, so the cost is linear in the message
+ * length and independent of the number of known tickets.
+ */
+public class TicketMatcher {
+
+    private static final int[] NO_TICKETS = new int[0];
+    private static final int MAX_DIGITS = 9; // keeps the parsed number inside int range
+
+    private final String prefix;
+    private final IntHashSet ticketNumbers;
+
+    /**
+     * @param projectKey JIRA project key (e.g. "BOOKKEEPER")
+     * @param ticketKeys valid ticket keys, either "BOOKKEEPER-123" (in any case) or just "123"
+     */
+    public TicketMatcher(String projectKey, Collection<String> ticketKeys) {
+        this.prefix = projectKey.toUpperCase() + "-";
+        this.ticketNumbers = new IntHashSet(ticketKeys.size());
+
+        for (String key : ticketKeys) {
+            boolean prefixed = key.regionMatches(true, 0, prefix, 0, prefix.length());
+            String number = prefixed ? key.substring(prefix.length()) : key;
+            int n = parseNumber(number, 0, number.length());
+            if (n > 0) ticketNumbers.add(n);
+        }
+    }
+
+    /**
+     * Returns the numbers of the valid tickets referenced by the message,
+     * without duplicates and in order of first appearance.
+     */
+    public int[] match(String message) {
+        int[] found = NO_TICKETS;
+        int count = 0;
+
+        int from = 0;
+        int at;
+        while ((at = message.indexOf(prefix, from)) >= 0) {
+            int start = at + prefix.length();
+            int end = start;
+            while (end < message.length() && isDigit(message.charAt(end))) end++;
+            from = Math.max(end, at + 1);
+
+            // "XBOOKKEEPER-1" is not a reference to BOOKKEEPER-1
+            if (at > 0 && Character.isLetterOrDigit(message.charAt(at - 1))) continue;
+
+            int n = parseNumber(message, start, end);
+            if (n <= 0 || !ticketNumbers.contains(n) || indexOf(found, count, n) >= 0) continue;
+
+            if (count == found.length) found = Arrays.copyOf(found, Math.max(2, count * 2));
+            found[count++] = n;
+        }
+        return count == found.length ? found : Arrays.copyOf(found, count);
+    }
+
+    /** Rebuilds the full ticket key from its number (e.g. 123 -> "BOOKKEEPER-123"). */
+    public String ticketKey(int number) {
+        return prefix + number;
+    }
+
+    /** The key prefix the tickets are matched with, e.g. "BOOKKEEPER-". */
+    public String prefix() {
+        return prefix;
+    }
+
+    public int size() {
+        return ticketNumbers.size();
+    }
+
+    // Returns -1 for empty, non-numeric or too long digit runs
+    private static int parseNumber(CharSequence s, int start, int end) {
+        if (end <= start || end - start > MAX_DIGITS) return -1;
+        int n = 0;
+        for (int i = start; i < end; i++) {
+            char ch = s.charAt(i);
+            if (!isDigit(ch)) return -1;
+            n = n * 10 + (ch - '0');
+        }
+        return n;
+    }
+
+    private static boolean isDigit(char ch) {
+        return ch >= '0' && ch <= '9';
+    }
+
+    private static int indexOf(int[] values, int count, int value) {
+        for (int i = 0; i < count; i++) {
+            if (values[i] == value) return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,230 @@
+package it.torvergata.bugprediction;
+
+import it.torvergata.bugprediction.utils.CsvRowWriter;
+import it.torvergata.bugprediction.utils.FileWriterUtils;
+import it.torvergata.bugprediction.utils.RunReport;
+import it.torvergata.bugprediction.utils.StringDictionary;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Builds the walk-forward training and testing sets of a project in one pass. The
+ * history is aggregated once into release windows, and the windows are accumulated
+ * once into the blocks of the versions: step k trains on the blocks of versions
+ * 0..k-1 and tests on the block of version k, so no step aggregates anything again.
+ *
+ * <p>With affected-version labels, the training set of step k only knows the tickets
+ * resolved before release k, as it would have when the model was trained; the testing
+ * set is labeled with all the tickets.</p>
+ */
+public class WalkForwardSplits {
+
+    private static final Logger LOGGER = Logger.getLogger(WalkForwardSplits.class.getName());
+
+    /** The metrics of the files of a version, cumulated up to it, in path order. */
+    static class VersionBlock {
+        final String name;
+        final int window;
+        final int[] files;
+        final int[] locAdded;
+        final int[] locDeleted;
+        final int[] nRev;
+        final int[] nFix;
+        final int[] nAuth;
+
+        VersionBlock(String name, int window, MetricStore cumulative, int[] byPath) {
+            this.name = name;
+            this.window = window;
+            files = Arrays.stream(byPath).filter(cumulative::contains).toArray();
+            locAdded = new int[files.length];
+            locDeleted = new int[files.length];
+            nRev = new int[files.length];
+            nFix = new int[files.length];
+            nAuth = new int[files.length];
+            for (int i = 0; i < files.length; i++) {
+                int id = files[i];
+                locAdded[i] = cumulative.locAdded[id];
+                locDeleted[i] = cumulative.locDeleted[id];
+                nRev[i] = cumulative.nRev[id];
+                nFix[i] = cumulative.nFix[id];
+                nAuth[i] = cumulative.nAuth[id];
+            }
+        }
+    }
+
+    private WalkForwardSplits() {
+    }
+
+    /**
+     * Usage: WalkForwardSplits [PROJECT_KEY] [--label-av] [--from-git] [--workers N]
+     * Reads the releases from data/&lt;PROJECT_KEY&gt;VersionInfo.csv and writes
+     * data/&lt;project&gt;_Training_&lt;k&gt;.csv and data/&lt;project&gt;_Testing_&lt;k&gt;.csv for
+     * every release k of the first half; the splits are written by N threads.
+     */
+    public static void main(String[] args) throws Exception {
+        String projectKey = args.length > 0 && !args[0].startsWith("--") ? args[0].toUpperCase() : "BOOKKEEPER";
+        String project = projectKey.toLowerCase();
+        String dataDir = "data/";
+        List<String> options = Arrays.asList(args);
+        int workers = GitMetricsExtractor.parseWorkers(args);
+
+        try (RunReport report = RunReport.start(project + "_WalkForwardSplits")) {
+            List<DatasetBuilder.Release> releases;
+            try (RunReport.Stage stage = report.stage("releases")) {
+                releases = DatasetBuilder.loadReleases(dataDir + projectKey + "VersionInfo.csv");
+                stage.add(RunReport.CSV_ROWS_READ, releases.size());
+            }
+
+            AffectedVersionLabeler labeler = null;
+            if (options.contains("--label-av")) {
+                try (RunReport.Stage stage = report.stage("labels")) {
+                    labeler = DatasetBuilder.loadLabeler(projectKey, dataDir, releases, stage);
+                } catch (IOException e) {
+                    report.fail(e);
+                    throw e;
+                }
+            }
+
+            // data/, or the current directory if it cannot be created
+            Path outDir = Path.of(FileWriterUtils.prepareOutputDataFilePath(""));
+            int steps = buildSplits(project, outDir, releases, report,
+                    DatasetBuilder.metricsSource(project, dataDir, options.contains("--from-git"), false,
+                            workers, labeler),
+                    labeler, workers);
+            LOGGER.log(Level.INFO, "{0} walk-forward splits created for project: {1}", new Object[]{steps, project});
+        }
+    }
+
+    /**
+     * Aggregates the metrics read from the source and writes the training and testing
+     * set of every step to outDir, with the given number of threads. Without a labeler a
+     * file is buggy if a fix touched it, which never looks past the version of the row.
+     * Returns the number of steps.
+     */
+    static int buildSplits(String project, Path outDir, List<DatasetBuilder.Release> releases, RunReport report,
+                           DatasetBuilder.MetricsSource source, AffectedVersionLabeler labeler, int workers)
+            throws Exception {
+        long maxAllowedDate = DatasetBuilder.computeMaxAllowedDate(releases);
+        FileLineage lineage = Boolean.parseBoolean(System.getProperty("dataset.followRenames", "true"))
+                ? new FileLineage()
+                : null;
+        MetricStore metrics = new MetricStore();
+        DatasetBuilder.ReleaseBuckets buckets = new DatasetBuilder.ReleaseBuckets(releases, metrics.files, metrics.authors);
+
+        try (RunReport.Stage stage = report.stage("aggregate")) {
+            source.aggregate(maxAllowedDate, buckets::windowFor, lineage, stage);
+            if (lineage != null) DatasetBuilder.recordRenames(lineage, stage);
+        } catch (Exception e) {
+            report.fail(e);
+            throw e;
+        }
+        if (lineage != null && lineage.renameCount() > 0) {
+            int[] identities = lineage.identities(metrics.files);
+            buckets.windows.replaceAll(window -> window.resolve(identities));
+            if (labeler != null) labeler.resolve(lineage);
+        }
+
+        List<VersionBlock> blocks = accumulate(buckets, maxAllowedDate);
+        int steps = blocks.size() - 1;
+
+        // The labels are built here, once per step, so that the writers only read them
+        List<DatasetBuilder.BugLabels> trainingLabels = new ArrayList<>();
+        DatasetBuilder.BugLabels testingLabels = DatasetBuilder.FIX_TOUCHED;
+        try (RunReport.Stage stage = report.stage("cutoffs")) {
+            for (int k = 1; k <= steps; k++) {
+                trainingLabels.add(labeler != null ? labeler.knownAt(k - 1) : DatasetBuilder.FIX_TOUCHED);
+            }
+            if (labeler != null) testingLabels = labeler.knownAt(Integer.MAX_VALUE);
+            stage.add(RunReport.RECORDS, steps);
+        }
+
+        try (RunReport.Stage stage = report.stage("write")) {
+            writeSplits(project, outDir, blocks, metrics.files, trainingLabels, testingLabels, workers, stage);
+        } catch (IOException e) {
+            report.fail(e);
+            throw e;
+        }
+        return steps;
+    }
+
+    // The blocks of the versions up to the last release of the first half, window 0 included
+    static List<VersionBlock> accumulate(DatasetBuilder.ReleaseBuckets buckets, long maxAllowedDate) {
+        MetricStore first = buckets.windows.get(0);
+        MetricStore cumulative = new MetricStore(first.files, first.authors);
+        int[] byPath = DatasetBuilder.sortedByPath(first.files);
+        List<VersionBlock> blocks = new ArrayList<>();
+        for (int k = 0; k < buckets.windows.size(); k++) {
+            DatasetBuilder.Release release = k == 0 ? null : buckets.releases.get(k - 1);
+            if (release != null && release.epochSecond > maxAllowedDate) break;
+
+            cumulative.add(buckets.windows.get(k));
+            blocks.add(new VersionBlock(release == null ? DatasetBuilder.PRE_RELEASE : release.name, k,
+                    cumulative, byPath));
+        }
+        return blocks;
+    }
+
+    private static void writeSplits(String project, Path outDir, List<VersionBlock> blocks, StringDictionary files,
+                                    List<DatasetBuilder.BugLabels> trainingLabels,
+                                    DatasetBuilder.BugLabels testingLabels, int workers,
+                                    RunReport.Stage stage) throws IOException {
+        List<String> outFileNames = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        try {
+            List<Future<Long>> results = new ArrayList<>();
+            for (int k = 1; k < blocks.size(); k++) {
+                String training = outDir.resolve(DatasetBuilder.datasetFileName(project + "_Training_" + k)).toString();
+                String testing = outDir.resolve(DatasetBuilder.datasetFileName(project + "_Testing_" + k)).toString();
+                outFileNames.add(training);
+                outFileNames.add(testing);
+                List<VersionBlock> before = blocks.subList(0, k);
+                List<VersionBlock> at = blocks.subList(k, k + 1);
+                DatasetBuilder.BugLabels labels = trainingLabels.get(k - 1);
+                results.add(executor.submit(() -> write(training, project, before, files, labels)
+                        + write(testing, project, at, files, testingLabels)));
+            }
+            for (Future<Long> result : results) {
+                stage.add(RunReport.CSV_ROWS_WRITTEN, result.get());
+            }
+        } catch (ExecutionException e) {
+            throw new IOException("Error writing a walk-forward split", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing the walk-forward splits", e);
+        } finally {
+            executor.shutdownNow();
+        }
+        for (String outFileName : outFileNames) stage.add(RunReport.BYTES_WRITTEN, new File(outFileName).length());
+        LOGGER.log(Level.INFO, "{0} walk-forward splits saved", blocks.size() - 1);
+    }
+
+    /** Writes the rows of the blocks, in order, and returns the number of rows written. */
+    static long write(String outFileName, String project, List<VersionBlock> blocks, StringDictionary files,
+                      DatasetBuilder.BugLabels labels) throws IOException {
+        long rows = 0;
+        try (CsvRowWriter writer = new CsvRowWriter(Path.of(outFileName))) {
+            writer.line(DatasetBuilder.DATASET_HEADER);
+            for (VersionBlock block : blocks) {
+                for (int i = 0; i < block.files.length; i++) {
+                    String file = files.get(block.files[i]);
+                    DatasetBuilder.writeRow(writer, project, block.name, file, block.locAdded[i],
+                            block.locDeleted[i], block.nRev[i], block.nFix[i], block.nAuth[i],
+                            labels.isBuggy(file, block.window, block.nFix[i]));
+                }
+                rows += block.files.length;
+            }
+        }
+        return rows;
+    }
+}
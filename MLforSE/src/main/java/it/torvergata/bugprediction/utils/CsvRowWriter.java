@@ -0,0 +1,223 @@
+package it.torvergata.bugprediction.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes CSV rows as UTF-8 bytes into a large reusable buffer, flushed to a file channel
+ * when full. Numbers are formatted by hand, always with a '.' decimal separator whatever
+ * the default locale, and text fields are quoted only when they need it (RFC 4180).
+ * A file name ending in {@code .gz} is written gzip-compressed.
+ */
+public class CsvRowWriter implements Closeable {
+
+    private static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+    private static final long[] POWERS_OF_TEN = {1, 10, 100, 1_000, 10_000, 100_000, 1_000_000};
+
+    private final FileChannel channel;
+    private final GZIPOutputStream gzip; // null for plain output
+    private final ByteBuffer buffer;
+    private final byte[] bytes;
+    private final byte[] digits = new byte[20];
+    private boolean rowStarted;
+
+    public CsvRowWriter(Path path) throws IOException {
+        this(path, DEFAULT_BUFFER_SIZE);
+    }
+
+    public CsvRowWriter(Path path, int bufferSize) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        this.gzip = path.toString().endsWith(".gz")
+                ? new GZIPOutputStream(Channels.newOutputStream(channel), 1 << 16)
+                : null;
+        this.bytes = new byte[Math.max(bufferSize, 64)];
+        this.buffer = ByteBuffer.wrap(bytes);
+    }
+
+    /** Writes a whole line as is, e.g. a header that needs no quoting. */
+    public CsvRowWriter line(String text) throws IOException {
+        writeText(text);
+        put((byte) '\n');
+        return this;
+    }
+
+    public CsvRowWriter field(CharSequence value) throws IOException {
+        separator();
+        if (needsQuotes(value)) {
+            put((byte) '"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"') put((byte) '"');
+                i += writeChar(value, i, c) - 1;
+            }
+            put((byte) '"');
+        } else {
+            writeText(value);
+        }
+        return this;
+    }
+
+    public CsvRowWriter field(long value) throws IOException {
+        separator();
+        writeLong(value);
+        return this;
+    }
+
+    /**
+     * Writes numerator / denominator with the given number of decimals (up to 6),
+     * rounded half up as {@code String.format("%.2f")} does; 0 when the denominator is 0.
+     * Working on the exact ratio avoids the rounding of an intermediate double.
+     */
+    public CsvRowWriter ratio(long numerator, long denominator, int decimals) throws IOException {
+        separator();
+        long scale = POWERS_OF_TEN[decimals];
+        long scaled = 0;
+        if (denominator != 0) {
+            if (denominator < 0) {
+                numerator = -numerator;
+                denominator = -denominator;
+            }
+            long magnitude = (Math.abs(numerator) * scale * 2 + denominator) / (2 * denominator);
+            scaled = numerator < 0 ? -magnitude : magnitude;
+        }
+        writeScaled(scaled, decimals);
+        return this;
+    }
+
+    /** Writes a double with the given number of decimals (up to 6), rounded half up. */
+    public CsvRowWriter field(double value, int decimals) throws IOException {
+        separator();
+        long magnitude = Math.round(Math.abs(value) * POWERS_OF_TEN[decimals]);
+        writeScaled(value < 0 ? -magnitude : magnitude, decimals);
+        return this;
+    }
+
+    public void endRow() throws IOException {
+        put((byte) '\n');
+        rowStarted = false;
+    }
+
+    /** Copies the whole content of a file, e.g. a block of rows written separately. */
+    public void append(Path file) throws IOException {
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            do {
+                if (!buffer.hasRemaining()) flush();
+            } while (in.read(buffer) >= 0);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!channel.isOpen()) return;
+        try {
+            flush();
+            if (gzip != null) gzip.finish();
+        } finally {
+            if (gzip != null) gzip.close();
+            channel.close();
+        }
+    }
+
+    private void separator() throws IOException {
+        if (rowStarted) put((byte) ',');
+        rowStarted = true;
+    }
+
+    private static boolean needsQuotes(CharSequence value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == ',' || c == '"' || c == '\n' || c == '\r') return true;
+        }
+        return false;
+    }
+
+    private void writeText(CharSequence text) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            i += writeChar(text, i, text.charAt(i)) - 1;
+        }
+    }
+
+    // Encodes one character, or the surrogate pair starting at index i, as UTF-8; returns the chars used
+    private int writeChar(CharSequence text, int i, char c) throws IOException {
+        if (c < 0x80) {
+            put((byte) c);
+            return 1;
+        }
+        int cp = c;
+        if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+            cp = Character.toCodePoint(c, text.charAt(i + 1));
+        } else if (Character.isSurrogate(c)) {
+            put((byte) '?'); // unpaired surrogate, like String.getBytes(UTF_8)
+            return 1;
+        }
+        if (cp < 0x800) {
+            put((byte) (0xC0 | cp >> 6));
+        } else if (cp < 0x10000) {
+            put((byte) (0xE0 | cp >> 12));
+            put((byte) (0x80 | cp >> 6 & 0x3F));
+        } else {
+            put((byte) (0xF0 | cp >> 18));
+            put((byte) (0x80 | cp >> 12 & 0x3F));
+            put((byte) (0x80 | cp >> 6 & 0x3F));
+        }
+        put((byte) (0x80 | cp & 0x3F));
+        return Character.charCount(cp);
+    }
+
+    // Writes scaled / 10^decimals with exactly that many decimals
+    private void writeScaled(long scaled, int decimals) throws IOException {
+        if (scaled < 0) {
+            put((byte) '-');
+            scaled = -scaled;
+        }
+        long scale = POWERS_OF_TEN[decimals];
+        writeLong(scaled / scale);
+        if (decimals > 0) {
+            put((byte) '.');
+            long fraction = scaled % scale;
+            for (long p = scale / 10; p > 0; p /= 10) {
+                put((byte) ('0' + fraction / p % 10));
+            }
+        }
+    }
+
+    private void writeLong(long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            writeText(Long.toString(value));
+            return;
+        }
+        if (value < 0) {
+            put((byte) '-');
+            value = -value;
+        }
+        int pos = digits.length;
+        do {
+            digits[--pos] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        if (buffer.remaining() < digits.length - pos) flush();
+        buffer.put(digits, pos, digits.length - pos);
+    }
+
+    private void put(byte b) throws IOException {
+        if (!buffer.hasRemaining()) flush();
+        buffer.put(b);
+    }
+
+    private void flush() throws IOException {
+        if (gzip != null) {
+            gzip.write(bytes, 0, buffer.position());
+        } else {
+            buffer.flip();
+            while (buffer.hasRemaining()) channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -23,7 +23,8 @@ public class FileWriterUtils {
 
         if (!outDir.exists()) {
             boolean created = outDir.mkdirs();
-            if (!created) {
+            // Another thread may have created it in the meantime
+            if (!created && !outDir.isDirectory()) {
                 LOGGER.warning("Could not create directory 'data'. Using current folder instead.");
                 outFileName = fileName; // fallback to the current folder
             } else {
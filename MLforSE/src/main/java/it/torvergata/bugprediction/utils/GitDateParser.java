@@ -0,0 +1,128 @@
+package it.torvergata.bugprediction.utils;
+
+/**
+ * Parses the dates printed by git straight into UTC epoch seconds, without creating
+ * any intermediate object. Accepted layouts:
+ * <ul>
+ *     <li>{@code --date=iso}: "2020-03-05 14:22:12 +0100"</li>
+ *     <li>{@code --date=iso-strict}: "2020-03-05T14:22:12+01:00" (or "Z")</li>
+ *     <li>{@code --date=unix}: "1583414532"</li>
+ * </ul>
+ * A missing offset means UTC. Malformed dates are not replaced by a guess: they
+ * return {@link #INVALID} and are counted, so the caller can skip and report them.
+ */
+public class GitDateParser {
+
+    public static final long INVALID = Long.MIN_VALUE;
+
+    private static final int SECONDS_PER_DAY = 86_400;
+
+    private long errorCount;
+
+    /** Parses the date, counting it as an error if it is malformed. */
+    public long parse(CharSequence s) {
+        long epoch = parseEpochSecond(s);
+        if (epoch == INVALID) errorCount++;
+        return epoch;
+    }
+
+    public long getErrorCount() {
+        return errorCount;
+    }
+
+    /** Returns the UTC epoch seconds of the date, or {@link #INVALID} if it is malformed. */
+    public static long parseEpochSecond(CharSequence s) {
+        int len = s.length();
+        while (len > 0 && s.charAt(len - 1) == ' ') len--;
+        if (len == 0) return INVALID;
+        if (len < 19) return parseUnix(s, len);
+
+        int year = digits(s, 0, 4);
+        int month = digits(s, 5, 2);
+        int day = digits(s, 8, 2);
+        int hour = digits(s, 11, 2);
+        int minute = digits(s, 14, 2);
+        int second = digits(s, 17, 2);
+        char sep = s.charAt(10);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)
+                || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59
+                || s.charAt(4) != '-' || s.charAt(7) != '-' || (sep != ' ' && sep != 'T')
+                || s.charAt(13) != ':' || s.charAt(16) != ':') {
+            return INVALID;
+        }
+
+        int offset = parseOffset(s, 19, len);
+        if (offset == Integer.MIN_VALUE) return INVALID;
+
+        return daysFromCivil(year, month, day) * SECONDS_PER_DAY
+                + hour * 3600L + minute * 60L + second - offset;
+    }
+
+    // Offset in seconds of "", " +0100", "+01:00" or "Z"; Integer.MIN_VALUE if malformed
+    private static int parseOffset(CharSequence s, int from, int len) {
+        int i = from;
+        if (i < len && s.charAt(i) == ' ') i++;
+        if (i == len) return 0;
+        if (s.charAt(i) == 'Z' && i + 1 == len) return 0;
+
+        char sign = s.charAt(i);
+        if (sign != '+' && sign != '-') return Integer.MIN_VALUE;
+        int hours = digits(s, i + 1, 2);
+        int minutesAt = i + 3 < len && s.charAt(i + 3) == ':' ? i + 4 : i + 3;
+        int minutes = digits(s, minutesAt, 2);
+        if (hours < 0 || hours > 18 || minutes < 0 || minutes > 59 || minutesAt + 2 != len) {
+            return Integer.MIN_VALUE;
+        }
+        int offset = hours * 3600 + minutes * 60;
+        return sign == '-' ? -offset : offset;
+    }
+
+    private static long parseUnix(CharSequence s, int len) {
+        int i = s.charAt(0) == '-' ? 1 : 0;
+        if (i == len) return INVALID;
+        long value = 0;
+        for (; i < len; i++) {
+            char ch = s.charAt(i);
+            if (ch < '0' || ch > '9') return INVALID;
+            value = value * 10 + (ch - '0');
+        }
+        return s.charAt(0) == '-' ? -value : value;
+    }
+
+    // Value of count decimal digits starting at from, -1 if any of them is not a digit
+    private static int digits(CharSequence s, int from, int count) {
+        if (from + count > s.length()) return -1;
+        int value = 0;
+        for (int i = from; i < from + count; i++) {
+            char ch = s.charAt(i);
+            if (ch < '0' || ch > '9') return -1;
+            value = value * 10 + (ch - '0');
+        }
+        return value;
+    }
+
+    private static int daysInMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                boolean leap = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+                return leap ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    // Days since 1970-01-01 of a proleptic Gregorian date (H. Hinnant's days_from_civil)
+    static long daysFromCivil(int year, int month, int day) {
+        int y = month <= 2 ? year - 1 : year;
+        int era = (y >= 0 ? y : y - 399) / 400;
+        int yoe = y - era * 400;
+        int doy = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146_097L + doe - 719_468;
+    }
+}
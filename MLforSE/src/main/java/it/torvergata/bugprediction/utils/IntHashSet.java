@@ -0,0 +1,104 @@
+package it.torvergata.bugprediction.utils;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash set of primitive ints.
+ * Avoids the boxing of {@code Set<Integer>} on hot lookup paths.
+ */
+public class IntHashSet {
+
+    private static final int FREE = 0;
+
+    private int[] keys;
+    private int size;
+    private boolean hasFree; // the sentinel value itself is stored out of band
+
+    public IntHashSet() {
+        this(16);
+    }
+
+    public IntHashSet(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+        keys = new int[capacity];
+    }
+
+    /**
+     * Adds a value to the set.
+     *
+     * @param value value to add
+     * @return true if the value was not already present
+     */
+    public boolean add(int value) {
+        if (value == FREE) {
+            if (hasFree) return false;
+            hasFree = true;
+            size++;
+            return true;
+        }
+        int mask = keys.length - 1;
+        int i = mix(value) & mask;
+        while (keys[i] != FREE) {
+            if (keys[i] == value) return false;
+            i = (i + 1) & mask;
+        }
+        keys[i] = value;
+        size++;
+        if (size * 2 > keys.length) rehash(keys.length << 1);
+        return true;
+    }
+
+    public boolean contains(int value) {
+        if (value == FREE) return hasFree;
+        int mask = keys.length - 1;
+        int i = mix(value) & mask;
+        int k;
+        while ((k = keys[i]) != FREE) {
+            if (k == value) return true;
+            i = (i + 1) & mask;
+        }
+        return false;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, FREE);
+        hasFree = false;
+        size = 0;
+    }
+
+    /** Returns the values of the set, in no particular order. */
+    public int[] toArray() {
+        int[] out = new int[size];
+        int n = 0;
+        if (hasFree) out[n++] = FREE;
+        for (int k : keys) {
+            if (k != FREE) out[n++] = k;
+        }
+        return out;
+    }
+
+    private void rehash(int newCapacity) {
+        int[] old = keys;
+        keys = new int[newCapacity];
+        int mask = newCapacity - 1;
+        for (int k : old) {
+            if (k == FREE) continue;
+            int i = mix(k) & mask;
+            while (keys[i] != FREE) i = (i + 1) & mask;
+            keys[i] = k;
+        }
+    }
+
+    private static int mix(int x) {
+        int h = x * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,250 @@
+package it.torvergata.bugprediction.utils;
+
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Fetches JIRA REST resources through an on-disk response cache.
+ * Every response body is stored under the SHA-256 of its URL together with its
+ * ETag/Last-Modified validators; later requests revalidate the cached copy with a
+ * conditional GET, or skip the network entirely in offline mode or while the copy
+ * is younger than the configured max age.
+ * Search results are paged: the first page gives the total, and the remaining pages
+ * are fetched concurrently by a bounded pool.
+ *
+ * <p>The cache is keyed by URL, not by content: it saves the downloads of unchanged
+ * responses, not the requests. Without an ETag or Last-Modified header the Date of the
+ * cached response is sent as If-Modified-Since. JIRA search results usually carry none
+ * of the validators and are always sent in full, so with the default max age of 0 a
+ * repeat run downloads every page again: it is not instant. Set
+ * {@code jira.cacheMaxAgeSeconds} to reuse the cached responses of a recent run without
+ * asking the server, or {@code jira.offline} to never ask it.</p>
+ *
+ * <p>Configured through system properties: {@code jira.baseUrl} (e.g. a local stub
+ * server), {@code jira.cacheDir}, {@code jira.concurrency}, {@code jira.cacheMaxAgeSeconds}
+ * and {@code jira.offline}.</p>
+ */
+public class JiraClient implements AutoCloseable {
+
+    private static final Logger LOGGER = Logger.getLogger(JiraClient.class.getName());
+
+    public static final String DEFAULT_BASE_URL = "https://issues.apache.org/jira";
+    private static final String ETAG = "etag";
+    private static final String LAST_MODIFIED = "lastModified";
+    private static final String DATE = "date";
+
+    /** Receives the body of a search page, stored in the cache. */
+    @FunctionalInterface
+    public interface PageConsumer {
+        void accept(int startAt, Path body) throws IOException;
+    }
+
+    private final String baseUrl;
+    private final Path cacheDir;
+    private final Duration maxAge;
+    private final boolean offline;
+    private final ExecutorService executor;
+    private final HttpClient http;
+
+    // Traffic counters, read by the run reports
+    private final AtomicLong downloads = new AtomicLong();
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong bytesDownloaded = new AtomicLong();
+
+    public JiraClient(String baseUrl, Path cacheDir, int concurrency, Duration maxAge, boolean offline) {
+        this.baseUrl = baseUrl;
+        this.cacheDir = cacheDir;
+        this.maxAge = maxAge;
+        this.offline = offline;
+        this.executor = Executors.newFixedThreadPool(Math.max(1, concurrency));
+        this.http = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(30))
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build();
+    }
+
+    public static JiraClient fromSystemProperties() {
+        return new JiraClient(
+                System.getProperty("jira.baseUrl", DEFAULT_BASE_URL),
+                Path.of(System.getProperty("jira.cacheDir", "cache/jira")),
+                Integer.getInteger("jira.concurrency", 4),
+                Duration.ofSeconds(Long.getLong("jira.cacheMaxAgeSeconds", 0L)),
+                Boolean.getBoolean("jira.offline"));
+    }
+
+    public String getBaseUrl() {
+        return baseUrl;
+    }
+
+    /** Number of bodies downloaded from the server. */
+    public long getDownloads() {
+        return downloads.get();
+    }
+
+    /** Number of bodies served from the cache, revalidated or not. */
+    public long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    public long getBytesDownloaded() {
+        return bytesDownloaded.get();
+    }
+
+    /** Fetches the URL and parses the body as a JSON object. */
+    public JSONObject getJson(String url) throws IOException {
+        return JsonUtils.readJsonObject(fetch(url));
+    }
+
+    /**
+     * Fetches all the pages of a search URL (without startAt/maxResults) and hands
+     * them to the consumer in startAt order, while the later pages are still downloading.
+     */
+    public void fetchSearchPages(String searchUrl, int pageSize, PageConsumer consumer) throws IOException {
+        Path first = fetch(pageUrl(searchUrl, 0, pageSize));
+        int total;
+        try (Reader reader = Files.newBufferedReader(first, StandardCharsets.UTF_8)) {
+            total = JsonUtils.readTopLevelInt(reader, "total");
+        }
+
+        List<Future<Path>> pages = new ArrayList<>();
+        for (int startAt = pageSize; startAt < total; startAt += pageSize) {
+            String url = pageUrl(searchUrl, startAt, pageSize);
+            pages.add(executor.submit(() -> fetch(url)));
+        }
+        LOGGER.log(Level.INFO, "Fetching {0} results in {1} pages", new Object[]{total, pages.size() + 1});
+
+        consumer.accept(0, first);
+        try {
+            for (int i = 0; i < pages.size(); i++) {
+                consumer.accept((i + 1) * pageSize, pages.get(i).get());
+            }
+        } catch (ExecutionException e) {
+            pages.forEach(p -> p.cancel(true));
+            throw new IOException("Error fetching a search page", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while fetching search pages", e);
+        }
+    }
+
+    /**
+     * Returns the cached body of the URL, downloading or revalidating it if needed.
+     */
+    public Path fetch(String url) throws IOException {
+        String key = sha256(url);
+        Path body = cacheDir.resolve(key + ".json");
+        Path meta = cacheDir.resolve(key + ".meta");
+        boolean cached = Files.exists(body);
+
+        if (cached && (offline || isFresh(body))) {
+            cacheHits.incrementAndGet();
+            return body;
+        }
+        if (offline) throw new IOException("Not in the offline cache: " + url);
+
+        Properties validators = cached ? readValidators(meta) : new Properties();
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(url))
+                .timeout(Duration.ofMinutes(2))
+                .header("Accept", "application/json")
+                .GET();
+        if (validators.getProperty(ETAG) != null) request.header("If-None-Match", validators.getProperty(ETAG));
+        String modifiedSince = validators.getProperty(LAST_MODIFIED, validators.getProperty(DATE));
+        if (modifiedSince != null) request.header("If-Modified-Since", modifiedSince);
+
+        Files.createDirectories(cacheDir);
+        Path tmp = Files.createTempFile(cacheDir, key, ".part");
+        try {
+            HttpResponse<Path> response = http.send(request.build(), HttpResponse.BodyHandlers.ofFile(tmp));
+            int code = response.statusCode();
+            if (code == 304 && cached) {
+                Files.setLastModifiedTime(body, FileTime.from(Instant.now()));
+                cacheHits.incrementAndGet();
+                return body;
+            }
+            if (code != 200) throw new IOException("HTTP Error: " + code);
+
+            Properties newValidators = new Properties();
+            response.headers().firstValue("ETag").ifPresent(v -> newValidators.setProperty(ETAG, v));
+            response.headers().firstValue("Last-Modified").ifPresent(v -> newValidators.setProperty(LAST_MODIFIED, v));
+            response.headers().firstValue("Date").ifPresent(v -> newValidators.setProperty(DATE, v));
+            downloads.incrementAndGet();
+            bytesDownloaded.addAndGet(Files.size(tmp));
+            // The body first: validators of a newer body would get an old one revalidated
+            Files.move(tmp, body, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            try (Writer out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                newValidators.store(out, url);
+            }
+            Files.move(tmp, meta, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return body;
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while fetching " + url, e);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private boolean isFresh(Path body) throws IOException {
+        if (maxAge.isZero()) return false;
+        Instant modified = Files.getLastModifiedTime(body).toInstant();
+        return modified.plus(maxAge).isAfter(Instant.now());
+    }
+
+    private static Properties readValidators(Path meta) throws IOException {
+        Properties props = new Properties();
+        if (Files.exists(meta)) {
+            try (Reader reader = Files.newBufferedReader(meta, StandardCharsets.UTF_8)) {
+                props.load(reader);
+            }
+        }
+        return props;
+    }
+
+    private static String pageUrl(String searchUrl, int startAt, int pageSize) {
+        return searchUrl + "&startAt=" + startAt + "&maxResults=" + pageSize;
+    }
+
+    // The cache key of a URL: responses are looked up by the request, never by their content
+    private static String sha256(String s) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(s.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) sb.append(String.format("%02x", b));
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
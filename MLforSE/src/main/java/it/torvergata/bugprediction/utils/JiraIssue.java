@@ -0,0 +1,21 @@
+package it.torvergata.bugprediction.utils;
+
+import java.util.List;
+
+/**
+ * The fields of a JIRA issue used by the pipeline. Missing dates are null.
+ */
+public class JiraIssue {
+
+    public final String key;
+    public final String resolutionDate;
+    public final String created;
+    public final List<String> affectedVersions; // names of the "versions" field
+
+    public JiraIssue(String key, String resolutionDate, String created, List<String> affectedVersions) {
+        this.key = key;
+        this.resolutionDate = resolutionDate;
+        this.created = created;
+        this.affectedVersions = affectedVersions;
+    }
+}
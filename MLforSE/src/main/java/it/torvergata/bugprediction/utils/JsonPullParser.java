@@ -0,0 +1,221 @@
+package it.torvergata.bugprediction.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * Minimal pull parser for JSON text: the document is read incrementally from a Reader
+ * and returned token by token, so only the current token is ever held in memory.
+ */
+public class JsonPullParser implements Closeable {
+
+    public enum Token {
+        START_OBJECT, END_OBJECT, START_ARRAY, END_ARRAY,
+        FIELD_NAME, STRING, NUMBER, TRUE, FALSE, NULL, END_DOCUMENT
+    }
+
+    private final Reader reader;
+    private final char[] buf = new char[8192];
+    private int pos;
+    private int limit;
+
+    private final StringBuilder text = new StringBuilder();
+    private boolean[] inObject = new boolean[32]; // container stack: object or array
+    private int depth;
+    private boolean expectName;                   // next string in the current object is a field name
+
+    public JsonPullParser(Reader reader) {
+        this.reader = reader;
+    }
+
+    /** Returns the next token of the document. */
+    public Token next() throws IOException {
+        int c = skipSeparators();
+        if (c < 0) {
+            if (depth > 0) throw error("Unexpected end of input");
+            return Token.END_DOCUMENT;
+        }
+
+        switch (c) {
+            case '{':
+                push(true);
+                expectName = true;
+                return Token.START_OBJECT;
+            case '[':
+                push(false);
+                return Token.START_ARRAY;
+            case '}':
+            case ']':
+                if (depth == 0 || inObject[depth - 1] != (c == '}')) throw error("Unbalanced '" + (char) c + "'");
+                depth--;
+                expectName = false;
+                return c == '}' ? Token.END_OBJECT : Token.END_ARRAY;
+            case '"':
+                readString();
+                if (expectName) {
+                    expectName = false;
+                    expect(':');
+                    return Token.FIELD_NAME;
+                }
+                return Token.STRING;
+            case 't':
+                readLiteral("rue");
+                return Token.TRUE;
+            case 'f':
+                readLiteral("alse");
+                return Token.FALSE;
+            case 'n':
+                readLiteral("ull");
+                return Token.NULL;
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    readNumber(c);
+                    return Token.NUMBER;
+                }
+                throw error("Unexpected character '" + (char) c + "'");
+        }
+    }
+
+    /** Text of the last FIELD_NAME, STRING or NUMBER token. */
+    public String text() {
+        return text.toString();
+    }
+
+    /** Compares the text of the last token without creating a String. */
+    public boolean textEquals(String s) {
+        if (text.length() != s.length()) return false;
+        for (int i = 0; i < s.length(); i++) {
+            if (text.charAt(i) != s.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Skips the value whose first token has just been returned: for START_OBJECT or
+     * START_ARRAY everything up to the matching end token, nothing for scalars.
+     */
+    public void skipValue(Token first) throws IOException {
+        if (first != Token.START_OBJECT && first != Token.START_ARRAY) return;
+        int target = depth - 1;
+        while (depth > target) {
+            if (next() == Token.END_DOCUMENT) throw error("Unexpected end of input");
+        }
+    }
+
+    /** Reads and skips the next value. */
+    public void skipValue() throws IOException {
+        skipValue(next());
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private void push(boolean object) {
+        if (depth == inObject.length) inObject = Arrays.copyOf(inObject, depth * 2);
+        inObject[depth++] = object;
+    }
+
+    // Skips whitespace, ',' and ':' and returns the next significant char (-1 at the end)
+    private int skipSeparators() throws IOException {
+        while (true) {
+            int c = read();
+            if (c == ',') {
+                if (depth > 0 && inObject[depth - 1]) expectName = true;
+            } else if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                return c;
+            }
+        }
+    }
+
+    private void expect(char expected) throws IOException {
+        int c;
+        do {
+            c = read();
+        } while (c == ' ' || c == '\n' || c == '\r' || c == '\t');
+        if (c != expected) throw error("Expected '" + expected + "'");
+    }
+
+    private void readString() throws IOException {
+        text.setLength(0);
+        while (true) {
+            int c = read();
+            if (c < 0) throw error("Unterminated string");
+            if (c == '"') return;
+            if (c != '\\') {
+                text.append((char) c);
+                continue;
+            }
+            int e = read();
+            switch (e) {
+                case 'b': text.append('\b'); break;
+                case 'f': text.append('\f'); break;
+                case 'n': text.append('\n'); break;
+                case 'r': text.append('\r'); break;
+                case 't': text.append('\t'); break;
+                case 'u': text.append(readHexChar()); break;
+                case '"':
+                case '\\':
+                case '/':
+                    text.append((char) e);
+                    break;
+                default:
+                    throw error("Invalid escape");
+            }
+        }
+    }
+
+    private char readHexChar() throws IOException {
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            int d = Character.digit(read(), 16);
+            if (d < 0) throw error("Invalid unicode escape");
+            value = (value << 4) | d;
+        }
+        return (char) value;
+    }
+
+    private void readNumber(int first) throws IOException {
+        text.setLength(0);
+        text.append((char) first);
+        while (true) {
+            int c = peek();
+            if ((c >= '0' && c <= '9') || c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-') {
+                text.append((char) read());
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void readLiteral(String rest) throws IOException {
+        for (int i = 0; i < rest.length(); i++) {
+            if (read() != rest.charAt(i)) throw error("Invalid literal");
+        }
+    }
+
+    private int read() throws IOException {
+        if (pos == limit && !fill()) return -1;
+        return buf[pos++];
+    }
+
+    private int peek() throws IOException {
+        if (pos == limit && !fill()) return -1;
+        return buf[pos];
+    }
+
+    private boolean fill() throws IOException {
+        int n = reader.read(buf, 0, buf.length);
+        if (n <= 0) return false;
+        pos = 0;
+        limit = n;
+        return true;
+    }
+
+    private IOException error(String message) {
+        return new IOException("Malformed JSON: " + message);
+    }
+}
@@ -1,35 +1,139 @@
 package it.torvergata.bugprediction.utils;
 
+import it.torvergata.bugprediction.utils.JsonPullParser.Token;
 import org.json.JSONObject;
+import org.json.JSONTokener;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.io.Reader;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 
 public class JsonUtils {
 
+    /** Receives the issues of a search response as they are parsed. */
+    @FunctionalInterface
+    public interface IssueConsumer {
+        void accept(JiraIssue issue) throws IOException;
+    }
+
     private JsonUtils() {}
 
-    public static JSONObject getJsonObject(URL url) throws IOException {
-        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-        conn.setRequestMethod("GET");
-        conn.connect();
+    /** Parses a JSON object from a file, e.g. a response body stored by {@link JiraClient}. */
+    public static JSONObject readJsonObject(Path file) throws IOException {
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return new JSONObject(new JSONTokener(reader));
+        }
+    }
 
-        if (conn.getResponseCode() != 200) { throw new IOException("HTTP Error: " + conn.getResponseCode()); }
+    /**
+     * Reads an int field of the top-level object, stopping as soon as it is found
+     * (JIRA puts "total" before the "issues" array).
+     */
+    public static int readTopLevelInt(Reader reader, String field) throws IOException {
+        JsonPullParser parser = new JsonPullParser(reader);
+        if (parser.next() != Token.START_OBJECT) throw new IOException("Expected a JSON object");
 
-        try (BufferedReader reader = new BufferedReader(
-                new InputStreamReader(conn.getInputStream(), StandardCharsets.UTF_8))) {
-            StringBuilder sb = new StringBuilder();
-            String line;
-            while ((line = reader.readLine()) != null) sb.append(line);
+        while (parser.next() == Token.FIELD_NAME) {
+            if (parser.textEquals(field)) {
+                if (parser.next() != Token.NUMBER) throw new IOException("Field " + field + " is not a number");
+                return Integer.parseInt(parser.text());
+            }
+            parser.skipValue();
+        }
+        throw new IOException("Field " + field + " not found");
+    }
+
+    /**
+     * Streams the "issues" array of a JIRA search response, handing every issue
+     * (key, resolutiondate, created and affected version names) to the consumer
+     * without building the JSON tree of the page.
+     */
+    public static void streamIssues(Reader reader, IssueConsumer consumer) throws IOException {
+        JsonPullParser parser = new JsonPullParser(reader);
+        if (parser.next() != Token.START_OBJECT) throw new IOException("Expected a JSON object");
 
-            return new JSONObject(sb.toString());
-        } finally {
-            conn.disconnect();
+        while (parser.next() == Token.FIELD_NAME) {
+            if (!parser.textEquals("issues")) {
+                parser.skipValue();
+                continue;
+            }
+            Token t = parser.next();
+            if (t != Token.START_ARRAY) {
+                parser.skipValue(t);
+                continue;
+            }
+            // Elements that are not objects (e.g. null) are skipped
+            while ((t = parser.next()) != Token.END_ARRAY) {
+                if (t == Token.START_OBJECT) consumer.accept(readIssue(parser));
+                else parser.skipValue(t);
+            }
         }
     }
 
+    private static JiraIssue readIssue(JsonPullParser parser) throws IOException {
+        String key = null;
+        String resolutionDate = null;
+        String created = null;
+        List<String> versions = new ArrayList<>();
+
+        while (parser.next() == Token.FIELD_NAME) {
+            if (parser.textEquals("key")) {
+                key = readStringOrNull(parser);
+            } else if (parser.textEquals("fields")) {
+                Token t = parser.next();
+                if (t != Token.START_OBJECT) {
+                    parser.skipValue(t);
+                    continue;
+                }
+                while (parser.next() == Token.FIELD_NAME) {
+                    if (parser.textEquals("resolutiondate")) {
+                        resolutionDate = readStringOrNull(parser);
+                    } else if (parser.textEquals("created")) {
+                        created = readStringOrNull(parser);
+                    } else if (parser.textEquals("versions")) {
+                        readVersionNames(parser, versions);
+                    } else {
+                        parser.skipValue();
+                    }
+                }
+            } else {
+                parser.skipValue();
+            }
+        }
+        return new JiraIssue(key, resolutionDate, created, versions);
+    }
+
+    private static void readVersionNames(JsonPullParser parser, List<String> names) throws IOException {
+        Token t = parser.next();
+        if (t != Token.START_ARRAY) {
+            parser.skipValue(t);
+            return;
+        }
+        while ((t = parser.next()) != Token.END_ARRAY) {
+            if (t != Token.START_OBJECT) {
+                parser.skipValue(t);
+                continue;
+            }
+            while (parser.next() == Token.FIELD_NAME) {
+                if (parser.textEquals("name")) {
+                    String name = readStringOrNull(parser);
+                    if (name != null) names.add(name);
+                } else {
+                    parser.skipValue();
+                }
+            }
+        }
+    }
+
+    private static String readStringOrNull(JsonPullParser parser) throws IOException {
+        Token t = parser.next();
+        if (t == Token.STRING) return parser.text();
+        parser.skipValue(t);
+        return null;
+    }
+
 }
@@ -0,0 +1,103 @@
+package it.torvergata.bugprediction.utils;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * Open-addressing hash set of primitive longs.
+ * Handy to store pairs of int IDs packed into a single long.
+ */
+public class LongHashSet {
+
+    private static final long FREE = 0L;
+
+    private long[] keys;
+    private int size;
+    private boolean hasFree; // the sentinel value itself is stored out of band
+
+    public LongHashSet() {
+        this(16);
+    }
+
+    public LongHashSet(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+        keys = new long[capacity];
+    }
+
+    /** Packs two ints into one long key. */
+    public static long pair(int high, int low) {
+        return ((long) high << 32) | (low & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Adds a value to the set.
+     *
+     * @param value value to add
+     * @return true if the value was not already present
+     */
+    public boolean add(long value) {
+        if (value == FREE) {
+            if (hasFree) return false;
+            hasFree = true;
+            size++;
+            return true;
+        }
+        int mask = keys.length - 1;
+        int i = mix(value) & mask;
+        while (keys[i] != FREE) {
+            if (keys[i] == value) return false;
+            i = (i + 1) & mask;
+        }
+        keys[i] = value;
+        size++;
+        if (size * 2 > keys.length) rehash(keys.length << 1);
+        return true;
+    }
+
+    public boolean contains(long value) {
+        if (value == FREE) return hasFree;
+        int mask = keys.length - 1;
+        int i = mix(value) & mask;
+        long k;
+        while ((k = keys[i]) != FREE) {
+            if (k == value) return true;
+            i = (i + 1) & mask;
+        }
+        return false;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, FREE);
+        hasFree = false;
+        size = 0;
+    }
+
+    /** Calls the action on every value, in no particular order. */
+    public void forEach(LongConsumer action) {
+        if (hasFree) action.accept(FREE);
+        for (long k : keys) {
+            if (k != FREE) action.accept(k);
+        }
+    }
+
+    private void rehash(int newCapacity) {
+        long[] old = keys;
+        keys = new long[newCapacity];
+        int mask = newCapacity - 1;
+        for (long k : old) {
+            if (k == FREE) continue;
+            int i = mix(k) & mask;
+            while (keys[i] != FREE) i = (i + 1) & mask;
+            keys[i] = k;
+        }
+    }
+
+    private static int mix(long x) {
+        long h = x * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
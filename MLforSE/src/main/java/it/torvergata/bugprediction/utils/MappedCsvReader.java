@@ -0,0 +1,304 @@
+package it.torvergata.bugprediction.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads a UTF-8 CSV file row by row through memory-mapped windows of the file.
+ * A row is tokenized in place: its fields are byte ranges of the mapping, which can
+ * be compared, parsed as ints or decoded into reusable char buffers, so that reading
+ * a row allocates nothing. Strings are created only on request (e.g. by a
+ * {@link StringDictionary} that meets an unknown value).
+ *
+ * <p>Fields may be enclosed in double quotes, with doubled quotes inside; blank lines
+ * are skipped. The values returned for a row are valid until the next call to
+ * {@link #next()}.</p>
+ */
+public class MappedCsvReader implements Closeable {
+
+    private static final int DEFAULT_WINDOW_SIZE = 1 << 28; // 256 MiB
+    private static final char REPLACEMENT = '\uFFFD';
+
+    private final FileChannel channel;
+    private final long rangeEnd; // offset the rows end at, the file size unless a range was given
+    private final int windowSize;
+
+    private MappedByteBuffer buffer;
+    private long windowStart; // file offset of the first byte of the window
+    private int limit;        // bytes mapped in the window
+    private int pos;          // start of the next row in the window
+
+    // Current row: byte range [start, end) of each field in the window
+    private int fieldCount;
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+    private boolean[] escaped = new boolean[16]; // quoted field with doubled quotes inside
+    private FieldText[] texts = new FieldText[16];
+
+    public MappedCsvReader(Path path) throws IOException {
+        this(path, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * @param windowSize bytes mapped at a time; a single row must fit in one window
+     */
+    public MappedCsvReader(Path path, int windowSize) throws IOException {
+        this(path, 0, Long.MAX_VALUE, windowSize);
+    }
+
+    /** Reads the rows in the byte range [from, to) of the file, which must start at a row. */
+    public MappedCsvReader(Path path, long from, long to) throws IOException {
+        this(path, from, to, DEFAULT_WINDOW_SIZE);
+    }
+
+    private MappedCsvReader(Path path, long from, long to, int windowSize) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.rangeEnd = Math.min(to, channel.size());
+        this.windowStart = from;
+        this.windowSize = windowSize;
+    }
+
+    /** Advances to the next row, returning false at the end of the file (or of the range). */
+    public boolean next() throws IOException {
+        while (true) {
+            if (pos >= limit && !map(windowStart + pos)) return false;
+
+            int rowEnd = scanRow(windowStart + limit >= rangeEnd);
+            if (rowEnd < 0) {
+                // The row continues past the window: map a new one starting from the row
+                if (pos == 0) throw new IOException("CSV row longer than the mapping window at offset " + windowStart);
+                map(windowStart + pos);
+                continue;
+            }
+            pos = rowEnd;
+            if (fieldCount > 1 || ends[0] > starts[0]) return true;
+        }
+    }
+
+    public int fieldCount() {
+        return fieldCount;
+    }
+
+    /** Returns true if the field is exactly the given ASCII text. */
+    public boolean fieldEquals(int field, String ascii) {
+        checkField(field);
+        if (escaped[field]) return text(field).toString().equals(ascii);
+        int start = starts[field];
+        int length = ends[field] - start;
+        if (length != ascii.length()) return false;
+        for (int i = 0; i < length; i++) {
+            if (buffer.get(start + i) != ascii.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    /** Parses the field as a decimal int, without decoding it. */
+    public int parseInt(int field) {
+        checkField(field);
+        int p = starts[field];
+        int end = ends[field];
+        boolean negative = p < end && buffer.get(p) == '-';
+        if (negative || (p < end && buffer.get(p) == '+')) p++;
+        if (p == end) throw new NumberFormatException("For input string: \"" + getString(field) + "\"");
+
+        long value = 0;
+        for (; p < end; p++) {
+            int digit = buffer.get(p) - '0';
+            if (digit < 0 || digit > 9 || value > Integer.MAX_VALUE + 1L) {
+                throw new NumberFormatException("For input string: \"" + getString(field) + "\"");
+            }
+            value = value * 10 + digit;
+        }
+        if (negative) value = -value;
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw new NumberFormatException("For input string: \"" + getString(field) + "\"");
+        }
+        return (int) value;
+    }
+
+    /**
+     * Returns the decoded field in a char buffer owned by the reader, reused for the
+     * same field index of the next rows.
+     */
+    public CharSequence text(int field) {
+        checkField(field);
+        if (texts[field] == null) texts[field] = new FieldText();
+        FieldText text = texts[field];
+        decode(starts[field], ends[field], escaped[field], text);
+        return text;
+    }
+
+    public String getString(int field) {
+        return text(field).toString();
+    }
+
+    @Override
+    public void close() throws IOException {
+        buffer = null;
+        channel.close();
+    }
+
+    private boolean map(long offset) throws IOException {
+        int size = (int) Math.min(windowSize, rangeEnd - offset);
+        windowStart = offset;
+        pos = 0;
+        limit = Math.max(size, 0);
+        if (size <= 0) return false;
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+        return true;
+    }
+
+    /**
+     * Tokenizes the row starting at pos. Returns the start of the following row, or -1
+     * if the row is cut by the end of the window and the file goes on.
+     */
+    private int scanRow(boolean lastWindow) {
+        int p = pos;
+        fieldCount = 0;
+        while (true) {
+            if (p < limit && buffer.get(p) == '"') {
+                int start = ++p;
+                boolean doubled = false;
+                while (true) {
+                    if (p >= limit) {
+                        if (!lastWindow) return -1;
+                        break; // unterminated quote at the end of the file
+                    }
+                    if (buffer.get(p) == '"') {
+                        if (p + 1 < limit && buffer.get(p + 1) == '"') {
+                            doubled = true;
+                            p += 2;
+                            continue;
+                        }
+                        if (p + 1 >= limit && !lastWindow) return -1;
+                        break;
+                    }
+                    p++;
+                }
+                addField(start, Math.min(p, limit), doubled);
+                // Skip the closing quote and anything up to the delimiter
+                while (p < limit && !isDelimiter(buffer.get(p))) p++;
+            } else {
+                int start = p;
+                while (p < limit && !isDelimiter(buffer.get(p))) p++;
+                addField(start, p, false);
+            }
+
+            if (p >= limit) return lastWindow ? p : -1;
+            byte b = buffer.get(p++);
+            if (b == ',') continue;
+            if (b == '\r') {
+                if (p < limit && buffer.get(p) == '\n') p++;
+                else if (p >= limit && !lastWindow) return -1;
+            }
+            return p;
+        }
+    }
+
+    private static boolean isDelimiter(byte b) {
+        return b == ',' || b == '\n' || b == '\r';
+    }
+
+    private void addField(int start, int end, boolean doubled) {
+        if (fieldCount == starts.length) {
+            int n = fieldCount * 2;
+            starts = Arrays.copyOf(starts, n);
+            ends = Arrays.copyOf(ends, n);
+            escaped = Arrays.copyOf(escaped, n);
+            texts = Arrays.copyOf(texts, n);
+        }
+        starts[fieldCount] = start;
+        ends[fieldCount] = end;
+        escaped[fieldCount] = doubled;
+        fieldCount++;
+    }
+
+    private void checkField(int field) {
+        if (field < 0 || field >= fieldCount) {
+            throw new IndexOutOfBoundsException("Field " + field + " of a row with " + fieldCount + " fields");
+        }
+    }
+
+    // UTF-8 to UTF-16, turning doubled quotes into single ones
+    private void decode(int from, int to, boolean unescape, FieldText out) {
+        char[] dst = out.ensureCapacity(to - from);
+        int n = 0;
+        int p = from;
+        while (p < to) {
+            int b = buffer.get(p++);
+            if (b >= 0) {
+                dst[n++] = (char) b;
+                if (unescape && b == '"') p++;
+                continue;
+            }
+
+            int codePoint;
+            int extra;
+            if ((b & 0xE0) == 0xC0) {
+                codePoint = b & 0x1F;
+                extra = 1;
+            } else if ((b & 0xF0) == 0xE0) {
+                codePoint = b & 0x0F;
+                extra = 2;
+            } else if ((b & 0xF8) == 0xF0) {
+                codePoint = b & 0x07;
+                extra = 3;
+            } else {
+                dst[n++] = REPLACEMENT;
+                continue;
+            }
+            for (; extra > 0 && p < to; extra--) {
+                int c = buffer.get(p);
+                if ((c & 0xC0) != 0x80) break;
+                codePoint = (codePoint << 6) | (c & 0x3F);
+                p++;
+            }
+            if (extra > 0) {
+                dst[n++] = REPLACEMENT;
+            } else if (codePoint >= Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+                dst[n++] = Character.highSurrogate(codePoint);
+                dst[n++] = Character.lowSurrogate(codePoint);
+            } else {
+                dst[n++] = (char) codePoint;
+            }
+        }
+        out.length = n;
+    }
+
+    /** Reusable decoded field; a UTF-8 field never needs more chars than bytes. */
+    private static final class FieldText implements CharSequence {
+        private char[] chars = new char[64];
+        private int length;
+
+        private char[] ensureCapacity(int capacity) {
+            if (chars.length < capacity) chars = new char[Math.max(capacity, chars.length * 2)];
+            return chars;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index >= length) throw new IndexOutOfBoundsException(index);
+            return chars[index];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return toString().substring(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return new String(chars, 0, length);
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package it.torvergata.bugprediction.utils;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Records what a pipeline run does, stage by stage: wall time, record and byte
+ * counters (with their per-second rates), errors and peak heap. The run is visible
+ * live through JMX ({@link RunReportMXBean}) and, when closed, its summary is
+ * written as JSON in the data directory ({@code <run>_run.json}).
+ *
+ * <p>The peak heap is measured by the JVM for the whole process: it is reset when a
+ * report starts while no other one is open, so reports running at the same time (the
+ * projects of {@code BatchRunner}) share the peak of all of them.</p>
+ */
+public class RunReport implements RunReportMXBean, AutoCloseable {
+
+    private static final Logger LOGGER = Logger.getLogger(RunReport.class.getName());
+
+    // Common counter names
+    public static final String COMMITS = "commits";
+    public static final String NUMSTAT_LINES = "numstatLines";
+    public static final String CSV_ROWS_READ = "csvRowsRead";
+    public static final String CSV_ROWS_WRITTEN = "csvRowsWritten";
+    public static final String HTTP_PAGES = "httpPages";
+    public static final String CACHE_HITS = "cacheHits";
+    public static final String RECORDS = "records";
+    public static final String BYTES_READ = "bytesRead";
+    public static final String BYTES_WRITTEN = "bytesWritten";
+    public static final String PARSE_ERRORS = "parseErrors";
+    public static final String SPILL_RUNS = "spillRuns";
+    public static final String RENAMES = "renames";
+
+    // Reports open in the process; the heap peak is only reset by the first one
+    private static final AtomicInteger OPEN_REPORTS = new AtomicInteger();
+
+    /** A timed step of the run; closing it stops its clock. */
+    public class Stage implements AutoCloseable {
+        private final String name;
+        private final long startNanos = System.nanoTime();
+        private volatile long endNanos = -1;
+        private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+        private final List<String> errors = Collections.synchronizedList(new ArrayList<>());
+
+        private Stage(String name) {
+            this.name = name;
+        }
+
+        public void add(String counter, long delta) {
+            counters.computeIfAbsent(counter, c -> new LongAdder()).add(delta);
+        }
+
+        public void increment(String counter) {
+            add(counter, 1);
+        }
+
+        public long get(String counter) {
+            LongAdder adder = counters.get(counter);
+            return adder == null ? 0 : adder.sum();
+        }
+
+        /** Records an error that the stage handled, so that the run is reported as failed. */
+        public void error(Throwable e) {
+            errors.add(e.getClass().getSimpleName() + ": " + e.getMessage());
+            failed = true;
+        }
+
+        @Override
+        public void close() {
+            endNanos = System.nanoTime();
+            current.compareAndSet(this, null); // a later stage may already be the current one
+        }
+
+        private long wallNanos() {
+            return (endNanos < 0 ? System.nanoTime() : endNanos) - startNanos;
+        }
+
+        private JSONObject toJson() {
+            double seconds = wallNanos() / 1e9;
+            JSONObject counts = new JSONObject();
+            JSONObject rates = new JSONObject();
+            for (Map.Entry<String, LongAdder> entry : new TreeMap<>(counters).entrySet()) {
+                long value = entry.getValue().sum();
+                counts.put(entry.getKey(), value);
+                if (seconds > 0) rates.put(entry.getKey(), Math.round(value / seconds * 100) / 100.0);
+            }
+            return new JSONObject()
+                    .put("name", name)
+                    .put("wallMillis", wallNanos() / 1_000_000)
+                    .put("counters", counts)
+                    .put("perSecond", rates)
+                    .put("errors", new JSONArray(new ArrayList<>(errors)));
+        }
+    }
+
+    private final String name;
+    private final Instant startedAt = Instant.now();
+    private final long startNanos = System.nanoTime();
+    private final List<Stage> stages = Collections.synchronizedList(new ArrayList<>());
+    private final ObjectName objectName;
+    private final AtomicReference<Stage> current = new AtomicReference<>();
+    private volatile boolean failed;
+    private volatile boolean closed;
+
+    private RunReport(String name) {
+        this.name = name;
+        if (OPEN_REPORTS.getAndIncrement() == 0) {
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP) pool.resetPeakUsage();
+            }
+        }
+        this.objectName = register();
+    }
+
+    /** Starts a run and publishes it through JMX. */
+    public static RunReport start(String name) {
+        return new RunReport(name);
+    }
+
+    /** Starts a new stage; use it in a try-with-resources block. */
+    public Stage stage(String stageName) {
+        Stage stage = new Stage(stageName);
+        stages.add(stage);
+        current.set(stage);
+        return stage;
+    }
+
+    /** Records an error that ends the run. */
+    public void fail(Throwable e) {
+        Stage stage = stages.isEmpty() ? stage("run") : stages.get(stages.size() - 1);
+        stage.error(e);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String getStatus() {
+        if (failed) return "FAILED";
+        return closed ? "COMPLETED" : "RUNNING";
+    }
+
+    @Override
+    public String getCurrentStage() {
+        Stage stage = current.get();
+        return stage == null ? "" : stage.name;
+    }
+
+    @Override
+    public long getElapsedMillis() {
+        return (System.nanoTime() - startNanos) / 1_000_000;
+    }
+
+    @Override
+    public Map<String, Long> getCounters() {
+        Map<String, Long> all = new TreeMap<>();
+        synchronized (stages) {
+            for (Stage stage : stages) {
+                stage.counters.forEach((counter, value) -> all.merge(stage.name + "." + counter, value.sum(), Long::sum));
+            }
+        }
+        return all;
+    }
+
+    @Override
+    public long getPeakHeapBytes() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) peak += pool.getPeakUsage().getUsed();
+        }
+        return peak;
+    }
+
+    @Override
+    public String getSummaryJson() {
+        return toJson().toString(2);
+    }
+
+    /** Writes the JSON summary in the data directory and removes the run from JMX. */
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        OPEN_REPORTS.decrementAndGet();
+        String outFileName = FileWriterUtils.prepareOutputDataFilePath(name + "_run.json");
+        try (Writer writer = new FileWriter(outFileName)) {
+            writer.write(getSummaryJson());
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Cannot write the run summary", e);
+        }
+        unregister();
+        LOGGER.log(Level.INFO, "Run summary saved in {0}", outFileName);
+    }
+
+    private JSONObject toJson() {
+        JSONArray stageArray = new JSONArray();
+        synchronized (stages) {
+            for (Stage stage : stages) stageArray.put(stage.toJson());
+        }
+        return new JSONObject()
+                .put("name", name)
+                .put("status", getStatus())
+                .put("startedAt", startedAt.toString())
+                .put("wallMillis", getElapsedMillis())
+                .put("peakHeapBytes", getPeakHeapBytes())
+                .put("stages", stageArray);
+    }
+
+    private ObjectName register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName on = new ObjectName("it.torvergata.bugprediction:type=RunReport,name=" + ObjectName.quote(name));
+            if (server.isRegistered(on)) server.unregisterMBean(on);
+            server.registerMBean(this, on);
+            return on;
+        } catch (JMException e) {
+            LOGGER.log(Level.WARNING, "Cannot publish the run through JMX", e);
+            return null;
+        }
+    }
+
+    private void unregister() {
+        if (objectName == null) return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            LOGGER.log(Level.FINE, "Run already removed from JMX", e);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package it.torvergata.bugprediction.utils;
+
+import java.util.Map;
+
+/**
+ * Live view of a pipeline run, published on the platform MBean server
+ * under {@code it.torvergata.bugprediction:type=RunReport,name=<run>}.
+ */
+public interface RunReportMXBean {
+
+    String getName();
+
+    /** RUNNING, COMPLETED or FAILED. */
+    String getStatus();
+
+    /** Name of the stage in progress, empty if none. */
+    String getCurrentStage();
+
+    long getElapsedMillis();
+
+    /** Counters of all the stages, keyed by "stage.counter". */
+    Map<String, Long> getCounters();
+
+    /** Peak heap of the process since the oldest of the open reports started. */
+    long getPeakHeapBytes();
+
+    /** The run summary as it would be written now. */
+    String getSummaryJson();
+}
@@ -0,0 +1,114 @@
+package it.torvergata.bugprediction.utils;
+
+import java.util.Arrays;
+
+/**
+ * Interns strings into dense int IDs (0, 1, 2, ...) in order of first appearance.
+ * Lookups of already known strings do not allocate.
+ */
+public class StringDictionary {
+
+    private String[] values;
+    private int[] hashes;
+    private int[] table; // id + 1 of the value stored in the slot, 0 if the slot is free
+    private int size;
+
+    public StringDictionary() {
+        this(64);
+    }
+
+    public StringDictionary(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+        table = new int[capacity];
+        values = new String[Math.max(4, expectedSize)];
+        hashes = new int[values.length];
+    }
+
+    /** Returns the ID of the string, assigning a new one if the string is unknown. */
+    public int idOf(String value) {
+        return idOf(value, mix(value.hashCode()));
+    }
+
+    /**
+     * Same as {@link #idOf(String)} for a char sequence, which is copied into a
+     * String only if it is unknown.
+     */
+    public int idOf(CharSequence value) {
+        return idOf(value, mix(hash(value)));
+    }
+
+    /** Returns the ID of the string, or -1 if it has never been interned. */
+    public int find(String value) {
+        return find(value, mix(value.hashCode()));
+    }
+
+    public int find(CharSequence value) {
+        return find(value, mix(hash(value)));
+    }
+
+    public String get(int id) {
+        return values[id];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private int idOf(CharSequence value, int h) {
+        int mask = table.length - 1;
+        int i = h & mask;
+        int slot;
+        while ((slot = table[i]) != 0) {
+            int id = slot - 1;
+            if (hashes[id] == h && values[id].contentEquals(value)) return id;
+            i = (i + 1) & mask;
+        }
+
+        int id = size++;
+        if (id == values.length) {
+            values = Arrays.copyOf(values, id * 2);
+            hashes = Arrays.copyOf(hashes, id * 2);
+        }
+        values[id] = value.toString();
+        hashes[id] = h;
+        table[i] = id + 1;
+        if (size * 2 > table.length) rehash();
+        return id;
+    }
+
+    private int find(CharSequence value, int h) {
+        int mask = table.length - 1;
+        int i = h & mask;
+        int slot;
+        while ((slot = table[i]) != 0) {
+            int id = slot - 1;
+            if (hashes[id] == h && values[id].contentEquals(value)) return id;
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void rehash() {
+        table = new int[table.length << 1];
+        int mask = table.length - 1;
+        for (int id = 0; id < size; id++) {
+            int i = hashes[id] & mask;
+            while (table[i] != 0) i = (i + 1) & mask;
+            table[i] = id + 1;
+        }
+    }
+
+    // Same value as String.hashCode(), so that both lookups find the same entries
+    private static int hash(CharSequence value) {
+        int h = 0;
+        for (int i = 0, n = value.length(); i < n; i++) {
+            h = 31 * h + value.charAt(i);
+        }
+        return h;
+    }
+
+    private static int mix(int x) {
+        int h = x * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,131 @@
+package it.torvergata.bugprediction;
+
+import it.torvergata.bugprediction.utils.CsvRowWriter;
+import it.torvergata.bugprediction.utils.JiraIssue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tickets whose IV, OV and FV are known by construction. With the releases 4.0 .. 4.5
+ * opening windows 1 .. 6, one per month of 2012:
+ * <pre>
+ *   ticket  AV            OV  FV  IV
+ *   1       4.0           4   5   1
+ *   2       4.1;rc, 4.2   2   3   2
+ *   3       -             5   6   estimated
+ *   4       -             1   3   estimated
+ *   5       4.5           2   4   estimated: the AV is after the OV
+ * </pre>
+ * P is (4 + 1) / 2 = 2.5 over all the tickets, and 1 over the tickets fixed by window 3.
+ */
+class AffectedVersionLabelerTest {
+
+    private static final String[] NAMES = {"4.0", "4.1;rc", "4.2", "4.3", "4.4", "4.5"};
+
+    @TempDir
+    Path tmp;
+
+    private final List<DatasetBuilder.Release> releases = new ArrayList<>();
+    private AffectedVersionLabeler labeler;
+
+    @BeforeEach
+    void buildLabeler() throws Exception {
+        for (int i = 0; i < NAMES.length; i++) {
+            releases.add(new DatasetBuilder.Release(NAMES[i], LocalDateTime.of(2012, i + 1, 1, 0, 0)));
+        }
+        List<JiraIssue> issues = List.of(
+                issue(1, "04-15", "05-15", "4.0"),
+                issue(2, "02-15", "03-15", "4.1;rc", "4.2"),
+                issue(3, "05-15", "06-15"),
+                issue(4, "01-15", "03-20"),
+                issue(5, "02-15", "04-15", "4.5"));
+
+        // Through the tickets file, whose version names may hold the separator
+        Path tickets = tmp.resolve("BOOKKEEPER_Tickets.csv");
+        try (CsvRowWriter writer = new CsvRowWriter(tickets)) {
+            writer.line(AffectedVersionLabeler.TICKETS_HEADER);
+            for (JiraIssue issue : issues) RetrieveTicketsID.writeTicket(writer, issue);
+        }
+        labeler = new AffectedVersionLabeler(releases, AffectedVersionLabeler.loadIssues(tickets.toString()));
+
+        fix("src/A.java", 1, 3);
+        fix("src/B.java", 2);
+        fix("src/B.java", 4);
+        fix("src/C.java", 5);
+        fix("src/D.java", 99); // not a known ticket
+    }
+
+    @Test
+    void versionNamesSurviveTheTicketsFile() {
+        List<List<String>> lists = List.of(List.of("4.1;rc", "4.2"), List.of("a\\b;", "\\"), List.of("4.0"), List.of());
+        for (List<String> names : lists) {
+            assertEquals(names, AffectedVersionLabeler.splitVersions(AffectedVersionLabeler.joinVersions(names)));
+        }
+        assertEquals("4.1\\;rc;4.2", AffectedVersionLabeler.joinVersions(List.of("4.1;rc", "4.2")));
+    }
+
+    @Test
+    void injectedVersionsAreEstimatedWithProportion() throws Exception {
+        Path out = tmp.resolve("versions.csv");
+        labeler.writeTicketVersions(out.toString());
+        assertEquals(List.of(
+                "TicketID,InjectedVersion,OpeningVersion,FixedVersion,Estimated",
+                "BOOKKEEPER-1,4.0,4.3,4.4,false",
+                "BOOKKEEPER-2,4.1;rc,4.1;rc,4.2,false",
+                "BOOKKEEPER-3,4.3,4.4,4.5,true",                  // 6 - (6 - 5) * 2.5 = 3.5, rounded to 4
+                "BOOKKEEPER-4," + DatasetBuilder.PRE_RELEASE + ",4.0,4.2,true",    // 3 - 2 * 2.5 < 0
+                "BOOKKEEPER-5," + DatasetBuilder.PRE_RELEASE + ",4.1;rc,4.3,true"), // 4 - 2 * 2.5 < 0
+                Files.readAllLines(out));
+    }
+
+    @Test
+    void intervalsOfAFileAreMerged() {
+        // A: [1, 5) and [4, 6); B: [2, 3) and [0, 3); C: [0, 4)
+        assertEquals("-+++++-", buggyWindows(labeler, "src/A.java"));
+        assertEquals("+++----", buggyWindows(labeler, "src/B.java"));
+        assertEquals("++++---", buggyWindows(labeler, "src/C.java"));
+        assertEquals("-------", buggyWindows(labeler, "src/D.java"));
+        assertEquals("-------", buggyWindows(labeler, "src/Unknown.java"));
+    }
+
+    @Test
+    void knownAtOnlyCountsTheTicketsFixedByTheWindow() {
+        // By window 3 only tickets 2 and 4 are fixed, and P = 1 makes the IV of 4 equal to 3 - 2 = 1
+        DatasetBuilder.BugLabels known = labeler.knownAt(3);
+        assertEquals("-------", buggyWindows(known, "src/A.java"));
+        assertEquals("-++----", buggyWindows(known, "src/B.java"));
+        assertEquals("-------", buggyWindows(known, "src/C.java"));
+
+        // Ticket 5 is fixed by window 4, with P still 1: IV = 4 - 2 = 2
+        assertEquals("--++---", buggyWindows(labeler.knownAt(4), "src/C.java"));
+        assertEquals(buggyWindows(labeler, "src/A.java"),
+                buggyWindows(labeler.knownAt(Integer.MAX_VALUE), "src/A.java"));
+    }
+
+    // '+' for the windows 0 .. 6 in which the file is buggy
+    private static String buggyWindows(DatasetBuilder.BugLabels labels, String file) {
+        StringBuilder sb = new StringBuilder();
+        for (int window = 0; window <= NAMES.length; window++) sb.append(labels.isBuggy(file, window, 0) ? '+' : '-');
+        return sb.toString();
+    }
+
+    private void fix(String path, int... tickets) {
+        CommitRecord commit = new CommitRecord("c" + path.hashCode(), "2012-07-01 10:00:00 +0000", "Alice", tickets);
+        commit.changes.add(new CommitRecord.FileChange(path, 1, 1));
+        labeler.accept(commit);
+    }
+
+    private static JiraIssue issue(int number, String created, String resolved, String... affected) {
+        return new JiraIssue("BOOKKEEPER-" + number, "2012-" + resolved + "T10:00:00.000+0000",
+                "2012-" + created + "T10:00:00.000+0000", List.of(affected));
+    }
+}
@@ -0,0 +1,119 @@
+package it.torvergata.bugprediction;
+
+import it.torvergata.bugprediction.utils.CsvRowWriter;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * A dataset CSV converted to the columnar format and back is the same file, and the
+ * columns hold the values of the CSV.
+ */
+class DatasetColumnsTest {
+
+    private static final String[] VERSIONS = {"4.0", "4.1, \"rc\"", "4.2"};
+
+    @TempDir
+    Path tmp;
+
+    @Test
+    void csvRoundTripsThroughTheColumns() throws IOException {
+        Path csv = tmp.resolve("dataset.csv");
+        writeDataset(csv, 2000);
+        Path bin = tmp.resolve("dataset.bin");
+        assertEquals(2000, DatasetColumnsWriter.write(csv, bin, "p", "abc123", DatasetBuilder.DATASET_TYPES));
+
+        Path back = tmp.resolve("back.csv");
+        try (DatasetColumns dataset = DatasetColumns.open(bin)) {
+            assertEquals(2000, dataset.rowCount());
+            assertEquals(11, dataset.columnCount());
+            assertEquals("p", dataset.project());
+            assertEquals("abc123", dataset.sourceCommit());
+            assertEquals(DatasetColumns.Type.DOUBLE, dataset.columnType(dataset.column("Churn")));
+            assertEquals(3, dataset.dictionarySize(dataset.column("Version")));
+            assertEquals(2, dataset.dictionarySize(dataset.column("Buggy")));
+
+            int version = dataset.column("Version");
+            int file = dataset.column("File");
+            assertEquals(VERSIONS[1], dataset.dictionaryValue(version, dataset.ints(version).get(1)));
+            assertEquals("src/odd,name/F1.java", dataset.dictionaryValue(file, dataset.ints(file).get(1)));
+            assertEquals(1, dataset.ints(dataset.column("LOC_Added")).get(1));
+            assertEquals(5.0, dataset.doubles(dataset.column("Churn")).get(1));
+            assertThrows(IllegalArgumentException.class, () -> dataset.doubles(version));
+            assertThrows(IllegalArgumentException.class, () -> dataset.column("Missing"));
+
+            dataset.writeCsv(back);
+        }
+        assertEquals(Files.readString(csv, StandardCharsets.UTF_8), Files.readString(back, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void gzipCsvGivesTheSameColumns() throws IOException {
+        Path csv = tmp.resolve("dataset.csv");
+        Path gzip = tmp.resolve("dataset.csv.gz");
+        writeDataset(csv, 300);
+        writeDataset(gzip, 300);
+        Path fromCsv = tmp.resolve("csv.bin");
+        Path fromGzip = tmp.resolve("gzip.bin");
+        DatasetColumnsWriter.write(csv, fromCsv, "p", "", DatasetBuilder.DATASET_TYPES);
+        DatasetColumnsWriter.write(gzip, fromGzip, "p", "", DatasetBuilder.DATASET_TYPES);
+        assertEquals(-1, Files.mismatch(fromCsv, fromGzip));
+    }
+
+    @Test
+    void arffListsTheNominalValues() throws IOException {
+        Path csv = tmp.resolve("dataset.csv");
+        writeDataset(csv, 3);
+        Path bin = tmp.resolve("dataset.bin");
+        Path arff = tmp.resolve("dataset.arff");
+        DatasetColumnsWriter.write(csv, bin, "my project", "", DatasetBuilder.DATASET_TYPES);
+        try (DatasetColumns dataset = DatasetColumns.open(bin)) {
+            dataset.writeArff(arff);
+        }
+        List<String> lines = Files.readAllLines(arff, StandardCharsets.UTF_8);
+        assertEquals("@relation 'my project'", lines.get(0));
+        assertEquals("@attribute Version {4.0,'4.1, \"rc\"',4.2}", lines.get(3));
+        assertEquals("@attribute File string", lines.get(4));
+        assertEquals("@attribute Churn numeric", lines.get(8));
+        assertEquals("@attribute Buggy {No,Yes}", lines.get(12));
+        assertEquals("p,'4.1, \"rc\"','src/odd,name/F1.java',1,4,5,5.0,1,1,1,Yes", lines.get(16));
+    }
+
+    @Test
+    void malformedRowsAreRejected() throws IOException {
+        Path csv = tmp.resolve("short.csv");
+        Files.writeString(csv, DatasetBuilder.DATASET_HEADER + "\np,4.0,src/A.java,1,2\n");
+        assertThrows(IOException.class,
+                () -> DatasetColumnsWriter.write(csv, tmp.resolve("short.bin"), "p", "", DatasetBuilder.DATASET_TYPES));
+    }
+
+    // Rows in the dataset format; the second one has a version and a path that need quoting
+    private static void writeDataset(Path csv, int rows) throws IOException {
+        Random random = new Random(5);
+        try (CsvRowWriter writer = new CsvRowWriter(csv)) {
+            writer.line(DatasetBuilder.DATASET_HEADER);
+            for (int row = 0; row < rows; row++) {
+                int added = row == 1 ? 1 : random.nextInt(500);
+                int deleted = row == 1 ? 4 : random.nextInt(200);
+                int revisions = row == 1 ? 1 : 1 + random.nextInt(30);
+                int authors = row == 1 ? 1 : 1 + random.nextInt(5);
+                writer.field("p").field(VERSIONS[row % VERSIONS.length])
+                        .field((row % 2 == 1 ? "src/odd,name/F" : "src/F") + row % 97 + ".java")
+                        .field(added).field(deleted).field(added + deleted)
+                        .ratio(added + deleted, revisions, 2)
+                        .field(revisions).field(row == 1 ? 1 : random.nextInt(revisions + 1)).field(authors)
+                        .field(row == 0 ? "No" : row == 1 ? "Yes" : random.nextBoolean() ? "Yes" : "No");
+                writer.endRow();
+            }
+        }
+    }
+}
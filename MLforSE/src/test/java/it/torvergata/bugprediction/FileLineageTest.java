@@ -0,0 +1,115 @@
+package it.torvergata.bugprediction;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Identities of the revisions of a history streamed newest commit first, as git log
+ * prints it; each list of paths below is one commit, in stream order.
+ */
+class FileLineageTest {
+
+    @Test
+    void renameChainIsOneFile() {
+        List<String> identities = identities(
+                "src/{B.java => C.java}",
+                "src/B.java",
+                "src/{A.java => B.java}",
+                "src/A.java");
+        assertEquals(List.of("src/C.java", "src/C.java", "src/C.java", "src/C.java"), identities);
+    }
+
+    @Test
+    void reusedPathIsANewFile() {
+        // A is renamed to X, then a new file is created as A and changed
+        List<String> identities = identities(
+                "src/A.java",
+                "src/A.java",
+                "src/{A.java => X.java}",
+                "src/A.java",
+                "src/{Y.java => A.java}");
+        assertEquals(List.of("src/A.java", "src/A.java", "src/X.java", "src/X.java", "src/X.java"), identities);
+    }
+
+    @Test
+    void pathReusedInTheRenameCommitIsANewFile() {
+        FileLineage lineage = new FileLineage();
+        String newX = lineage.record("src/{A.java => X.java}", 0);
+        assertNull(lineage.record("src/A.java", 0));
+        String oldA = lineage.record("src/A.java", 1);
+        assertEquals("src/X.java", lineage.identity(newX));
+        assertEquals("src/X.java", lineage.identity(oldA));
+        assertEquals("src/A.java", lineage.identity("src/A.java"));
+        assertEquals(1, lineage.renameCount());
+    }
+
+    @Test
+    void keysAfterThePassAgreeWithTheRecordedOnes() {
+        String[] paths = {"a/{ => b}/F.java", "a/F.java", "a/{G.java => F.java}", "a/F.java", "a/{F.java => G.java}",
+                "a/F.java"};
+        FileLineage lineage = new FileLineage();
+        String[] recorded = new String[paths.length];
+        for (int p = 0; p < paths.length; p++) recorded[p] = key(lineage, paths[p], lineage.record(paths[p], p));
+        String[] after = new String[paths.length];
+        for (int p = 0; p < paths.length; p++) after[p] = lineage.key(paths[p], p);
+        assertArrayEquals(recorded, after);
+        assertEquals("a/b/F.java", lineage.identity(after[5]));
+        assertEquals("a/b/F.java", lineage.identity(after[0]));
+    }
+
+    @Test
+    void authorDatesOutOfOrderDoNotMoveRevisions() {
+        // A is renamed to X on March 1st; the new A was cherry-picked with its January author date,
+        // and a rebased change of the old A keeps a date after the rename. Lines added tell them apart.
+        List<CommitRecord> history = List.of(
+                commit("2012-01-20", "src/A.java", 1),
+                commit("2012-03-01", "src/{A.java => X.java}", 2),
+                commit("2012-04-10", "src/A.java", 4),
+                commit("2012-02-01", "src/A.java", 8));
+        FileLineage lineage = new FileLineage();
+        MetricStore store = new MetricStore();
+        DatasetBuilder.MetricsAggregator aggregator =
+                new DatasetBuilder.MetricsAggregator(Long.MAX_VALUE, date -> store, lineage);
+        for (CommitRecord commit : history) aggregator.accept(commit);
+
+        MetricStore resolved = store.resolve(lineage.identities(store.files));
+        assertEquals(Map.of("src/A.java", 1, "src/X.java", 2 + 4 + 8), linesAdded(resolved));
+    }
+
+    // The identity of every commit's path, recorded at its position in the list
+    private static List<String> identities(String... commits) {
+        FileLineage lineage = new FileLineage();
+        List<String> keys = new ArrayList<>();
+        for (int p = 0; p < commits.length; p++) keys.add(key(lineage, commits[p], lineage.record(commits[p], p)));
+        List<String> identities = new ArrayList<>();
+        for (String key : keys) identities.add(lineage.identity(key));
+        return identities;
+    }
+
+    private static String key(FileLineage lineage, String numstatPath, String recorded) {
+        return recorded != null ? recorded : numstatPath;
+    }
+
+    private static Map<String, Integer> linesAdded(MetricStore store) {
+        Map<String, Integer> added = new TreeMap<>();
+        for (int f = 0; f < store.fileIdLimit(); f++) {
+            if (store.contains(f)) added.put(store.file(f), store.locAdded[f]);
+        }
+        return added;
+    }
+
+    private static CommitRecord commit(String day, String path, int added) {
+        CommitRecord commit = new CommitRecord(String.format("%040x", path.hashCode() ^ day.hashCode()),
+                day + " 10:00:00 +0000", "Alice", new int[0]);
+        commit.changes.add(new CommitRecord.FileChange(path, added, 0));
+        return commit;
+    }
+}
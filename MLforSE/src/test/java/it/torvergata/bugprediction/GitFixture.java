@@ -0,0 +1,110 @@
+package it.torvergata.bugprediction;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.revwalk.RevCommit;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneOffset;
+
+/**
+ * A git repository built with JGit for the tests: files are written, moved and deleted
+ * in the working tree and then committed all together, at a given time.
+ */
+final class GitFixture implements AutoCloseable {
+
+    final Path dir;
+    final Git git;
+
+    private GitFixture(Path dir, Git git) {
+        this.dir = dir;
+        this.git = git;
+    }
+
+    static GitFixture init(Path dir) throws GitAPIException {
+        return new GitFixture(dir, Git.init().setDirectory(dir.toFile()).setInitialBranch("master").call());
+    }
+
+    GitFixture write(String path, String content) throws IOException {
+        Path file = dir.resolve(path);
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, content, StandardCharsets.UTF_8);
+        return this;
+    }
+
+    GitFixture move(String from, String to) throws IOException {
+        Path target = dir.resolve(to);
+        Files.createDirectories(target.getParent());
+        Files.move(dir.resolve(from), target);
+        return this;
+    }
+
+    GitFixture delete(String path) throws IOException {
+        Files.delete(dir.resolve(path));
+        return this;
+    }
+
+    /** Commits every change of the working tree, authored and committed at the given time. */
+    RevCommit commit(String message, String author, String isoTime) throws GitAPIException {
+        git.add().addFilepattern(".").call();
+        git.add().addFilepattern(".").setUpdate(true).call(); // stages the deletions
+        PersonIdent ident = new PersonIdent(author, author.toLowerCase().replace(' ', '.') + "@example.org",
+                Instant.parse(isoTime), ZoneOffset.ofHours(1));
+        return git.commit().setMessage(message).setAuthor(ident).setCommitter(ident).call();
+    }
+
+    /** Clones the repository without a working tree. */
+    Path bareClone(Path target) throws GitAPIException {
+        Git.cloneRepository().setURI(dir.toUri().toString()).setDirectory(target.toFile()).setBare(true).call().close();
+        return target;
+    }
+
+    @Override
+    public void close() {
+        git.close();
+    }
+
+    /**
+     * A small history with edits, an in-directory rename, a move to another directory,
+     * a binary file, a path reused after a rename, authors with a ';' or non-ASCII
+     * letters, and a merge. Returns the hash of the third commit, to test revision ranges.
+     */
+    static String sampleHistory(GitFixture repo) throws IOException, GitAPIException {
+        repo.write("src/a/A.java", lines(0, 20)).write("src/b/B.java", lines(0, 10)).write("README.md", "readme\n");
+        repo.commit("Initial import", "Alice", "2012-01-10T10:00:00Z");
+        repo.write("src/a/A.java", lines(0, 5) + "changed\n" + lines(6, 24));
+        repo.commit("BOOKKEEPER-1 fix A", "Bob", "2012-02-01T10:00:00Z");
+        repo.move("src/a/A.java", "src/a/A2.java");
+        String third = repo.commit("Rename A", "Alice", "2012-03-01T10:00:00Z").getName();
+        repo.move("src/b/B.java", "src/c/B.java").write("src/c/B.java", lines(0, 11));
+        repo.commit("BOOKKEEPER-2 and BOOKKEEPER-1: move B", "Carol", "2012-04-01T10:00:00Z");
+        repo.write("src/bin/Data.java", "binary\0data\0");
+        repo.commit("Add binary data", "Bob; the builder", "2012-05-01T10:00:00Z");
+        repo.delete("src/c/B.java").write("src/a/A.java", lines(100, 103));
+        repo.commit("BOOKKEEPER-3 drop B, new A", "Alice", "2012-06-01T10:00:00Z");
+        repo.write("README.md", "readme\nmore\n");
+        repo.commit("Docs only", "Zoë Åström", "2012-07-01T10:00:00Z");
+
+        repo.git.branchCreate().setName("side").call();
+        repo.git.checkout().setName("side").call();
+        repo.write("src/a/A2.java", lines(0, 5) + "side\n" + lines(6, 24));
+        repo.commit("BOOKKEEPER-2 side change", "Bob", "2012-08-01T10:00:00Z");
+        repo.git.checkout().setName("master").call();
+        repo.write("src/a/A.java", lines(100, 104));
+        repo.commit("Grow A", "Alice", "2012-08-15T10:00:00Z");
+        repo.git.merge().include(repo.git.getRepository().resolve("side")).setCommit(false).call();
+        repo.commit("Merge branch side", "Alice", "2012-09-01T10:00:00Z");
+        return third;
+    }
+
+    static String lines(int from, int to) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = from; i < to; i++) sb.append("line ").append(i).append('\n');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,101 @@
+package it.torvergata.bugprediction;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The cli and jgit backends must hand the same commits to the sink, in the same order,
+ * for a working copy and for a bare clone.
+ */
+class HistorySourceTest {
+
+    private static final TicketMatcher TICKETS = new TicketMatcher("BOOKKEEPER", List.of("1", "2", "3"));
+
+    @TempDir
+    static Path tmp;
+
+    private static Path repoPath;
+    private static Path barePath;
+    private static String third;
+
+    @BeforeAll
+    static void buildRepository() throws Exception {
+        try (GitFixture repo = GitFixture.init(tmp.resolve("repo"))) {
+            third = GitFixture.sampleHistory(repo);
+            repoPath = repo.dir;
+            barePath = repo.bareClone(tmp.resolve("bare.git"));
+        }
+    }
+
+    @Test
+    void backendsAgreeOnWorkingCopy() throws IOException {
+        List<String> cli = records(new GitCliHistorySource(repoPath.toString(), 1), "HEAD");
+        assertEquals(cli, records(new JGitHistorySource(repoPath.toString()), "HEAD"));
+        assertEquals(10, cli.size());
+    }
+
+    @Test
+    void backendsAgreeOnBareClone() throws IOException {
+        List<String> cli = records(new GitCliHistorySource(barePath.toString(), 1), "HEAD");
+        assertEquals(cli, records(new JGitHistorySource(barePath.toString()), "HEAD"));
+        assertEquals(records(new GitCliHistorySource(repoPath.toString(), 1), "HEAD"), cli);
+    }
+
+    @Test
+    void backendsAgreeOnRevisionRange() throws IOException {
+        String range = third + "..HEAD";
+        List<String> cli = records(new GitCliHistorySource(repoPath.toString(), 1), range);
+        assertEquals(cli, records(new JGitHistorySource(repoPath.toString()), range));
+        assertEquals(7, cli.size());
+    }
+
+    @Test
+    void shardedExtractionMatchesSingleProcess() throws IOException {
+        List<String> sharded = new ArrayList<>();
+        ShardedHistoryExtractor.streamGitHistory(repoPath.toString(), "HEAD", TICKETS,
+                commit -> sharded.add(format(commit)), 2, 2); // 5 shards, at most 3 in flight
+        assertEquals(records(new GitCliHistorySource(repoPath.toString(), 1), "HEAD"), sharded);
+    }
+
+    @Test
+    void recordsCarryTicketsRenamesAndBinaryFiles() throws IOException {
+        String all = String.join("\n", records(new JGitHistorySource(repoPath.toString()), "HEAD"));
+        assertTrue(all.contains("Carol [2, 1] src/{b => c}/B.java:1:0"), all);
+        assertTrue(all.contains("src/a/{A.java => A2.java}:0:0"), all);
+        assertTrue(all.contains("src/bin/Data.java:-1:-1"), all);
+        assertTrue(all.contains("+0100"), all);
+        assertTrue(all.contains(" Zoë Åström []"), all);
+        assertTrue(all.contains(" Bob; the builder [] src/bin/Data.java"), all);
+    }
+
+    // One line per commit, with every field of the record
+    private static List<String> records(HistorySource source, String revisions) throws IOException {
+        List<String> records = new ArrayList<>();
+        try (source) {
+            source.streamHistory(revisions, TICKETS, commit -> records.add(format(commit)));
+        }
+        return records;
+    }
+
+    private static String format(CommitRecord commit) {
+        StringBuilder sb = new StringBuilder()
+                .append(commit.hash).append(' ')
+                .append(commit.date).append(' ')
+                .append(commit.author).append(' ')
+                .append(Arrays.toString(commit.tickets));
+        for (CommitRecord.FileChange change : commit.changes) {
+            sb.append(' ').append(change.path).append(':').append(change.added).append(':').append(change.deleted);
+        }
+        return sb.toString();
+    }
+}
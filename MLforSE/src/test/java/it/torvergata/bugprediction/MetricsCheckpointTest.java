@@ -0,0 +1,100 @@
+package it.torvergata.bugprediction;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The commits of incremental runs, appended to the metrics CSV as segments, read back in
+ * the order and with the positions of a full extraction; and the checkpoint cuts off what
+ * an interrupted run appended, but not files changed otherwise.
+ */
+class MetricsCheckpointTest {
+
+    private static final TicketMatcher TICKETS = new TicketMatcher("P", List.of("1", "2", "3"));
+
+    @TempDir
+    Path tmp;
+
+    private final List<CommitRecord> history = SpillingMetricStoreTest.syntheticHistory(new Random(7), 300, 40);
+
+    @Test
+    void segmentedCsvReadsLikeAFullExtraction() throws Exception {
+        Path full = tmp.resolve("full.csv");
+        write(full, history, false);
+
+        // The oldest commits first, then two incremental runs, each newer than the one before
+        Path segmented = tmp.resolve("segmented.csv");
+        write(segmented, history.subList(120, 300), false);
+        write(segmented, history.subList(40, 120), true);
+        write(segmented, history.subList(0, 40), true);
+
+        assertEquals(4, MetricsCsvReader.segmentStarts(segmented).length);
+        List<String> rows = rows(full);
+        assertEquals(rows, rows(segmented));
+        assertEquals(history.size() - 1 + " ", rows.get(rows.size() - 1).substring(0, 4));
+    }
+
+    @Test
+    void interruptedAppendIsCutOff() throws Exception {
+        Path csv = tmp.resolve("P_Metrics.csv");
+        Path index = tmp.resolve("P_TicketIndex.bin");
+        write(csv, history, false);
+        try (TicketIndexWriter writer = new TicketIndexWriter(index.toString(), TICKETS.prefix())) {
+            for (CommitRecord commit : history) writer.accept(commit);
+            writer.commit();
+        }
+        MetricsCheckpoint checkpoint = MetricsCheckpoint.of(history.get(0).hash, "t", csv.toString(), index.toString());
+        checkpoint.store(csv + ".checkpoint");
+        assertEquals(history.get(0).hash, MetricsCheckpoint.extractedCommit(csv.toString()));
+        byte[] rows = Files.readAllBytes(csv);
+        byte[] fixes = Files.readAllBytes(index);
+
+        // A run that stopped half way through its segments
+        write(csv, history.subList(0, 3), true);
+        Files.write(index, new byte[]{1, 2, 3}, StandardOpenOption.APPEND);
+        assertEquals("", MetricsCheckpoint.extractedCommit(csv.toString()));
+
+        MetricsCheckpoint loaded = MetricsCheckpoint.load(csv + ".checkpoint");
+        assertTrue(loaded.restore(csv.toString(), index.toString()));
+        assertArrayEquals(rows, Files.readAllBytes(csv));
+        assertArrayEquals(fixes, Files.readAllBytes(index));
+        assertEquals(history.get(0).hash, MetricsCheckpoint.extractedCommit(csv.toString()));
+
+        // A file rewritten to the same length is not the one checkpointed
+        rows[rows.length - 2] ^= 1;
+        Files.write(csv, rows);
+        assertFalse(loaded.restore(csv.toString(), index.toString()));
+        assertEquals(rows.length, Files.size(csv));
+        assertEquals("", MetricsCheckpoint.extractedCommit(csv.toString()));
+    }
+
+    private static void write(Path csv, List<CommitRecord> commits, boolean append) throws IOException {
+        try (MetricsCsvWriter writer = new MetricsCsvWriter(csv.toString(), TICKETS, append)) {
+            for (CommitRecord commit : commits) writer.accept(commit);
+        }
+    }
+
+    // Every row with the position of its commit
+    private static List<String> rows(Path csv) throws IOException {
+        List<String> rows = new ArrayList<>();
+        MetricsCsvReader.forEachRow(csv, (row, position) -> {
+            StringBuilder sb = new StringBuilder().append(position);
+            for (int i = 0; i < row.fieldCount(); i++) sb.append(' ').append(row.getString(i));
+            rows.add(sb.toString());
+        });
+        return rows;
+    }
+}
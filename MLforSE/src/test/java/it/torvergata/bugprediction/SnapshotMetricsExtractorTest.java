@@ -0,0 +1,95 @@
+package it.torvergata.bugprediction;
+
+import com.opencsv.CSVReader;
+import it.torvergata.bugprediction.utils.RunReport;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.FileReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * The snapshot rows are valid CSV whatever the paths and version names hold, and both
+ * backends write the same file.
+ */
+class SnapshotMetricsExtractorTest {
+
+    private static final String Q = "class Q {\n"
+            + "    // comment\n"
+            + "    int f(int x) {\n"
+            + "        if (x > 0 && x < 10) return 1;\n"
+            + "        return 0;\n"
+            + "    }\n"
+            + "}\n";
+
+    @TempDir
+    static Path tmp;
+
+    private static Path repoPath;
+
+    private static final List<DatasetBuilder.Release> RELEASES = List.of(
+            new DatasetBuilder.Release("0.1", LocalDateTime.parse("2011-01-01T00:00")),
+            new DatasetBuilder.Release("1.0", LocalDateTime.parse("2012-02-01T00:00")),
+            new DatasetBuilder.Release("2.0, \"beta\"", LocalDateTime.parse("2012-04-01T00:00")));
+
+    @BeforeAll
+    static void buildRepository() throws Exception {
+        try (GitFixture repo = GitFixture.init(tmp.resolve("repo"))) {
+            repo.write("src/odd,name/Q.java", Q).write("src/a/A.java", GitFixture.lines(0, 3));
+            repo.commit("Initial import", "Alice", "2012-01-10T10:00:00Z");
+            repo.write("src/a/A.java", GitFixture.lines(0, 5));
+            repo.commit("Grow A", "Bob", "2012-03-01T10:00:00Z");
+            repoPath = repo.dir;
+        }
+    }
+
+    @Test
+    void rowsAreQuotedAndCached() throws Exception {
+        Path out = tmp.resolve("cli.csv");
+        RunReport.Stage stage = RunReport.start("SnapshotMetricsExtractorTest").stage("snapshot");
+        extract("cli", out, stage);
+
+        List<String[]> rows;
+        try (CSVReader reader = new CSVReader(new FileReader(out.toFile()))) {
+            rows = reader.readAll();
+        }
+        assertArrayEquals(SnapshotMetricsExtractor.HEADER.split(","), rows.get(0));
+        assertEquals(5, rows.size()); // no commit before 0.1
+        assertArrayEquals(new String[]{"p", "1.0", "src/a/A.java", "3", "3", "0", "0", "0"}, rows.get(1));
+        assertArrayEquals(new String[]{"p", "1.0", "src/odd,name/Q.java", "7", "6", "1", "2", "2"}, rows.get(2));
+        assertArrayEquals(new String[]{"p", "2.0, \"beta\"", "src/a/A.java", "5", "5", "0", "0", "0"}, rows.get(3));
+        assertArrayEquals(new String[]{"p", "2.0, \"beta\"", "src/odd,name/Q.java", "7", "6", "1", "2", "2"},
+                rows.get(4));
+
+        // Q did not change between the two releases
+        assertEquals(3, stage.get(RunReport.RECORDS));
+        assertEquals(1, stage.get(RunReport.CACHE_HITS));
+    }
+
+    @Test
+    void backendsWriteTheSameRows() throws Exception {
+        Path cli = tmp.resolve("same-cli.csv");
+        Path jgit = tmp.resolve("same-jgit.csv");
+        RunReport report = RunReport.start("SnapshotMetricsExtractorTest");
+        extract("cli", cli, report.stage("cli"));
+        extract("jgit", jgit, report.stage("jgit"));
+        assertEquals(Files.readString(cli), Files.readString(jgit));
+    }
+
+    private static void extract(String backend, Path out, RunReport.Stage stage) throws Exception {
+        String previous = System.setProperty("git.backend", backend);
+        try {
+            SnapshotMetricsExtractor.extractSnapshots("p", repoPath.toString(), RELEASES, out, stage);
+        } finally {
+            if (previous == null) System.clearProperty("git.backend");
+            else System.setProperty("git.backend", previous);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package it.torvergata.bugprediction;
+
+import it.torvergata.bugprediction.utils.RunReport;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * A dataset aggregated under a heap budget small enough to spill many runs has the
+ * rows of the dataset aggregated in memory.
+ */
+class SpillingMetricStoreTest {
+
+    private static final String[] AUTHORS = {"Alice", "Bob", "Carol", "Dave", "Eve"};
+
+    @TempDir
+    Path tmp;
+
+    private final List<DatasetBuilder.Release> releases = new ArrayList<>();
+    private final List<CommitRecord> history = syntheticHistory(new Random(42), 600, 80);
+
+    SpillingMetricStoreTest() {
+        for (int month = 1; month <= 6; month++) {
+            releases.add(new DatasetBuilder.Release("4." + month + ".0",
+                    LocalDateTime.of(2012, month * 2, 1, 0, 0)));
+        }
+    }
+
+    @Test
+    void perReleaseDatasetIsIdenticalWhenSpilling() throws Exception {
+        Path inMemory = build("memory.csv", true, "0");
+        RunReport report = RunReport.start("SpillingMetricStoreTest");
+        Path spilled = build("spilled.csv", true, "1k", report);
+
+        assertEquals(Files.readString(inMemory), Files.readString(spilled));
+        // More runs than can be merged at once: they are merged in two passes
+        assertTrue(report.getCounters().get("write.spillRuns") > SpillingMetricStore.MAX_FAN_IN,
+                report.getCounters().toString());
+        assertTrue(report.getCounters().get("aggregate.renames") > 0, report.getCounters().toString());
+    }
+
+    @Test
+    void cumulativeDatasetHasTheSameRowsWhenSpilling() throws Exception {
+        List<String> inMemory = Files.readAllLines(build("memory.csv", false, "0"));
+        List<String> spilled = Files.readAllLines(build("spilled.csv", false, "1k"));
+
+        // The spilled rows come out in path order, the in-memory ones in first-commit order
+        assertEquals(inMemory.get(0), spilled.get(0));
+        Collections.sort(inMemory);
+        Collections.sort(spilled);
+        assertEquals(inMemory, spilled);
+        assertTrue(inMemory.size() > 50);
+    }
+
+    private Path build(String fileName, boolean perRelease, String budget) throws Exception {
+        return build(fileName, perRelease, budget, RunReport.start("SpillingMetricStoreTest"));
+    }
+
+    private Path build(String fileName, boolean perRelease, String budget, RunReport report) throws Exception {
+        Path out = tmp.resolve(fileName);
+        String previous = System.setProperty("dataset.memoryBudget", budget);
+        try {
+            DatasetBuilder.buildDataset("p", out.toString(), releases, perRelease, report,
+                    (maxAllowedDate, mapForDate, lineage, stage) -> {
+                        CommitSink sink = new DatasetBuilder.MetricsAggregator(maxAllowedDate, mapForDate, lineage);
+                        for (CommitRecord commit : history) sink.accept(commit);
+                    },
+                    DatasetBuilder.FIX_TOUCHED);
+        } finally {
+            if (previous == null) System.clearProperty("dataset.memoryBudget");
+            else System.setProperty("dataset.memoryBudget", previous);
+        }
+        return out;
+    }
+
+    /**
+     * Commits of 1 to 4 files by random authors over 2012, a fifth of them ticket-linked,
+     * with some files renamed within their directory; newest first, as git log lists them.
+     */
+    static List<CommitRecord> syntheticHistory(Random random, int commits, int files) {
+        String[] paths = new String[files];
+        int[] renames = new int[files];
+        for (int f = 0; f < files; f++) paths[f] = "src/p" + f % 7 + "/File" + f + ".java";
+
+        List<CommitRecord> history = new ArrayList<>();
+        for (int c = 0; c < commits; c++) {
+            LocalDateTime date = LocalDateTime.of(2011, 12, 1, 0, 0).plusHours(c * 13L);
+            int[] tickets = random.nextInt(5) == 0 ? new int[]{1 + random.nextInt(50)} : new int[0];
+            CommitRecord commit = new CommitRecord(String.format("%040x", c),
+                    date.toString().replace('T', ' ') + ":00 +0000", AUTHORS[random.nextInt(AUTHORS.length)],
+                    tickets);
+            for (int f : random.ints(0, files).distinct().limit(1 + random.nextInt(4)).toArray()) {
+                String path = paths[f];
+                if (random.nextInt(15) == 0) {
+                    int slash = path.lastIndexOf('/');
+                    String renamed = "File" + f + "_r" + ++renames[f] + ".java";
+                    paths[f] = path.substring(0, slash + 1) + renamed;
+                    path = path.substring(0, slash) + "/{" + path.substring(slash + 1) + " => " + renamed + "}";
+                }
+                commit.changes.add(new CommitRecord.FileChange(path, random.nextInt(40), random.nextInt(20)));
+            }
+            history.add(commit);
+        }
+        Collections.reverse(history);
+        return history;
+    }
+}
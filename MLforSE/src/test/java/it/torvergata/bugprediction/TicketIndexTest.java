@@ -0,0 +1,188 @@
+package it.torvergata.bugprediction;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Commits written by {@link TicketIndexWriter} read back the same from the mapped
+ * {@link TicketIndex}, with their stream positions, also when incremental runs appended
+ * them in segments.
+ */
+class TicketIndexTest {
+
+    @TempDir
+    Path tmp;
+
+    @Test
+    void lookupsReturnTheAcceptedCommits() throws Exception {
+        Path file = tmp.resolve("P_TicketIndex.bin");
+        try (TicketIndexWriter writer = new TicketIndexWriter(file.toString(), "P-")) {
+            writer.accept(commit(1, "2012-01-10 10:00:00 +0100", new int[]{7}, "src/A.java", "src/é/B.java"));
+            writer.accept(commit(2, "2012-01-11 10:00:00 +0000", new int[0], "src/C.java")); // not linked
+            writer.accept(commit(3, "2012-01-12 10:00:00 +0000", new int[]{3, 7}, "src/A.java"));
+            writer.accept(commit(4, "2012-01-13 10:00:00 +0000", new int[]{100})); // no Java file
+            writer.commit();
+            assertThrows(IllegalStateException.class, writer::commit);
+        }
+
+        try (TicketIndex index = TicketIndex.open(file)) {
+            assertEquals(2, index.ticketCount());
+            assertEquals(2, index.commitCount());
+            assertEquals(2, index.fileCount());
+            assertEquals(3, index.walkedCount());
+            assertArrayEquals(new int[]{3, 7}, index.ticketRange(0, Integer.MAX_VALUE));
+            assertArrayEquals(new int[]{7}, index.ticketRange(4, 100));
+            assertArrayEquals(new int[0], index.ticketRange(8, 100));
+            assertArrayEquals(new int[0], index.commitsOf(100));
+            assertEquals("P-100", index.ticketKey(100));
+
+            int[] fixes = index.commitsOf(7);
+            assertEquals(2, fixes.length);
+            assertEquals(hash(1), index.commitHash(fixes[0]));
+            assertEquals(1326186000L, index.commitTime(fixes[0])); // 09:00 UTC
+            assertEquals(List.of("src/A.java", "src/é/B.java"), paths(index, fixes[0]));
+            assertEquals(hash(3), index.commitHash(fixes[1]));
+            assertArrayEquals(new int[]{fixes[1]}, index.commitsOf(3));
+
+            // Positions count the commits with changes that are not fixes too
+            assertEquals(0, index.commitPosition(fixes[0]));
+            assertEquals(2, index.commitPosition(fixes[1]));
+        }
+    }
+
+    @Test
+    void appendedSegmentIsStreamedBeforeTheFullIndex() throws Exception {
+        Path file = tmp.resolve("segments.bin");
+        try (TicketIndexWriter writer = new TicketIndexWriter(file.toString(), "P-")) {
+            writer.accept(commit(1, "2012-01-10 10:00:00 +0000", new int[0], "src/A.java"));
+            writer.accept(commit(2, "2012-01-09 10:00:00 +0000", new int[]{1}, "src/A.java"));
+            writer.commit();
+        }
+        long fullLength = Files.size(file);
+        try (TicketIndexWriter writer = new TicketIndexWriter(file.toString(), "P-")) {
+            writer.accept(commit(5, "2012-01-13 10:00:00 +0000", new int[]{2}, "src/A.java"));
+            writer.accept(commit(4, "2012-01-12 10:00:00 +0000", new int[0], "src/B.java"));
+            writer.accept(commit(3, "2012-01-11 10:00:00 +0000", new int[]{1}, "src/C.java"));
+            writer.append();
+        }
+        try (TicketIndex index = TicketIndex.open(file)) {
+            assertEquals(2, index.segmentCount());
+            assertEquals(5, index.walkedCount());
+            assertEquals(3, index.commitCount());
+            assertEquals(2, index.ticketCount());
+            assertArrayEquals(new int[]{1, 2}, index.ticketRange(0, Integer.MAX_VALUE));
+
+            int[] fixes = index.commitsOf(1);
+            assertEquals(2, fixes.length);
+            assertEquals(hash(2), index.commitHash(fixes[0]));
+            assertEquals(4, index.commitPosition(fixes[0])); // after the 3 commits of the newer segment
+            assertEquals(List.of("src/A.java"), paths(index, fixes[0]));
+            assertEquals(hash(3), index.commitHash(fixes[1]));
+            assertEquals(2, index.commitPosition(fixes[1]));
+            assertEquals(List.of("src/C.java"), paths(index, fixes[1]));
+            assertEquals(0, index.commitPosition(index.commitsOf(2)[0]));
+        }
+
+        // A segment cut short by an interrupted append is not read as a shorter index
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(Files.size(file) - 1);
+        }
+        assertThrows(IOException.class, () -> TicketIndex.open(file));
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(fullLength);
+        }
+        try (TicketIndex index = TicketIndex.open(file)) {
+            assertEquals(1, index.segmentCount());
+            assertEquals(2, index.walkedCount());
+        }
+    }
+
+    @Test
+    void segmentedIndexHasTheContentOfAFullOne() throws Exception {
+        Random random = new Random(11);
+        List<CommitRecord> history = new ArrayList<>();
+        for (int c = 0; c < 700; c++) {
+            int[] tickets = random.ints(random.nextInt(3), 1, 400).toArray();
+            String[] paths = new String[1 + random.nextInt(4)];
+            for (int i = 0; i < paths.length; i++) paths[i] = "src/F" + random.nextInt(300) + ".java";
+            history.add(commit(c, "2012-03-01 10:00:00 +0000", tickets, paths));
+        }
+        Path full = tmp.resolve("full.bin");
+        try (TicketIndexWriter writer = new TicketIndexWriter(full.toString(), "P-")) {
+            for (CommitRecord commit : history) writer.accept(commit);
+            writer.commit();
+        }
+        // The oldest commits first, then two incremental runs, each newer than the one before
+        Path segmented = tmp.resolve("segmented.bin");
+        int[] cuts = {700, 260, 90, 0};
+        for (int k = 0; k + 1 < cuts.length; k++) {
+            try (TicketIndexWriter writer = new TicketIndexWriter(segmented.toString(), "P-")) {
+                for (CommitRecord commit : history.subList(cuts[k + 1], cuts[k])) writer.accept(commit);
+                if (k == 0) writer.commit();
+                else writer.append();
+            }
+        }
+        try (TicketIndex expected = TicketIndex.open(full); TicketIndex actual = TicketIndex.open(segmented)) {
+            assertEquals(3, actual.segmentCount());
+            assertEquals(expected.ticketCount(), actual.ticketCount());
+            assertEquals(expected.commitCount(), actual.commitCount());
+            assertEquals(700, actual.walkedCount());
+            assertEquals(dump(expected), dump(actual));
+        }
+    }
+
+    @Test
+    void uncommittedWriterLeavesThePreviousIndex() throws Exception {
+        Path file = tmp.resolve("kept.bin");
+        try (TicketIndexWriter writer = new TicketIndexWriter(file.toString(), "P-")) {
+            writer.accept(commit(1, "2012-01-10 10:00:00 +0000", new int[]{1}, "src/A.java"));
+        }
+        assertFalse(Files.exists(file));
+        Files.writeString(file, "not an index, but long enough to hold the header of one");
+        assertThrows(IOException.class, () -> TicketIndex.open(file));
+    }
+
+    // Every ticket with its commits, and every commit with its fields, in position order
+    private static List<String> dump(TicketIndex index) {
+        List<String> lines = new ArrayList<>();
+        for (int ticket : index.ticketRange(0, Integer.MAX_VALUE)) {
+            for (int commit : index.commitsOf(ticket)) {
+                lines.add(index.ticketKey(ticket) + " " + index.commitHash(commit) + " "
+                        + index.commitTime(commit) + " " + index.commitPosition(commit) + " " + paths(index, commit));
+            }
+        }
+        lines.sort(Comparator.comparing(line -> Integer.valueOf(line.split(" ")[3])));
+        return lines;
+    }
+
+    private static List<String> paths(TicketIndex index, int commit) {
+        List<String> paths = new ArrayList<>();
+        for (int file : index.filesOf(commit)) paths.add(index.filePath(file));
+        return paths;
+    }
+
+    private static CommitRecord commit(int n, String date, int[] tickets, String... paths) {
+        CommitRecord commit = new CommitRecord(hash(n), date, "Alice", tickets);
+        for (String path : paths) commit.changes.add(new CommitRecord.FileChange(path, 1, 0));
+        return commit;
+    }
+
+    private static String hash(int n) {
+        return String.format("%040x", n * 0x9e3779b1L);
+    }
+}
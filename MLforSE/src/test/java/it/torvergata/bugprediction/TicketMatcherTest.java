@@ -0,0 +1,60 @@
+package it.torvergata.bugprediction;
+
+import it.torvergata.bugprediction.utils.CsvRowWriter;
+import it.torvergata.bugprediction.utils.JiraIssue;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Ticket references found in commit subjects, whatever the form of the known keys.
+ */
+class TicketMatcherTest {
+
+    @TempDir
+    Path tmp;
+
+    @Test
+    void prefixedKeysAreNotPrefixedTwice() {
+        TicketMatcher matcher = new TicketMatcher("BOOKKEEPER", List.of("BOOKKEEPER-1", "2", "BOOKKEEPER-30"));
+        assertEquals(3, matcher.size());
+        assertArrayEquals(new int[]{1}, matcher.match("BOOKKEEPER-1: fix the ledger"));
+        assertArrayEquals(new int[]{30, 2}, matcher.match("BOOKKEEPER-30, BOOKKEEPER-2 and BOOKKEEPER-30 again"));
+        assertEquals("BOOKKEEPER-1", matcher.ticketKey(1));
+    }
+
+    @Test
+    void keysAndProjectAreCaseInsensitive() {
+        TicketMatcher matcher = new TicketMatcher("bookkeeper", List.of("bookkeeper-4", "Bookkeeper-5", "6"));
+        assertEquals("BOOKKEEPER-", matcher.prefix());
+        assertArrayEquals(new int[]{4, 5, 6}, matcher.match("BOOKKEEPER-4 BOOKKEEPER-5 (BOOKKEEPER-6)"));
+    }
+
+    @Test
+    void onlyWholeReferencesToKnownTicketsMatch() {
+        TicketMatcher matcher = new TicketMatcher("BOOKKEEPER", List.of("1", "12"));
+        assertArrayEquals(new int[0], matcher.match("XBOOKKEEPER-1 BOOKKEEPER-3 BOOKKEEPER- BOOKKEEPER-1234567890"));
+        assertArrayEquals(new int[]{12}, matcher.match("[BOOKKEEPER-12] BOOKKEEPER-BOOKKEEPER-7"));
+        assertArrayEquals(new int[]{1}, matcher.match("BOOKKEEPER-1BOOKKEEPER-12"));
+    }
+
+    @Test
+    void lowerCaseProjectReadsTheTicketsFileRetrieveTicketsIdWrites() throws Exception {
+        Path written = tmp.resolve(RetrieveTicketsID.ticketsFileName("BOOKKEEPER"));
+        try (CsvRowWriter writer = new CsvRowWriter(written)) {
+            writer.line(AffectedVersionLabeler.TICKETS_HEADER);
+            RetrieveTicketsID.writeTicket(writer, new JiraIssue("BOOKKEEPER-8", null, null, List.of()));
+        }
+
+        Set<String> tickets = GitMetricsExtractor.loadTickets(
+                tmp.resolve(RetrieveTicketsID.ticketsFileName("bookkeeper")).toString());
+        assertEquals(Set.of("BOOKKEEPER-8"), tickets);
+        assertArrayEquals(new int[]{8}, new TicketMatcher("bookkeeper", tickets).match("BOOKKEEPER-8 fix"));
+    }
+}
@@ -0,0 +1,131 @@
+package it.torvergata.bugprediction;
+
+import com.opencsv.CSVReader;
+import it.torvergata.bugprediction.utils.JiraIssue;
+import it.torvergata.bugprediction.utils.RunReport;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.FileReader;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Splits of a small history with releases 1.0 .. 8.0 on the first day of the months of
+ * 2012, so that the first half ends with 4.0 and there are 4 steps:
+ * <pre>
+ *   ticket  created  resolved  AV    fixes
+ *   1       01-15    02-15     1.0   A.java on 02-16 (window 2)
+ *   2       02-10    06-15     2.0   B.java on 06-16 (window 6, after the first half)
+ * </pre>
+ * A is buggy in 1.0 once ticket 1 is known, from step 3 on; B is buggy in 2.0 .. 5.0,
+ * but ticket 2 is resolved after every training cutoff.
+ */
+class WalkForwardSplitsTest {
+
+    @TempDir
+    Path tmp;
+
+    private final List<DatasetBuilder.Release> releases = new ArrayList<>();
+    private final List<CommitRecord> history = new ArrayList<>();
+    private AffectedVersionLabeler labeler;
+
+    @BeforeEach
+    void buildHistory() {
+        for (int month = 1; month <= 8; month++) {
+            releases.add(new DatasetBuilder.Release(month + ".0", LocalDateTime.of(2012, month, 1, 0, 0)));
+        }
+        labeler = new AffectedVersionLabeler(releases, List.of(
+                issue(1, "01-15", "02-15", "1.0"),
+                issue(2, "02-10", "06-15", "2.0")));
+
+        // Newest first, as git log lists them
+        commit("2012-06-16", 2, "src/B.java");
+        commit("2012-03-10", 0, "src/C.java", "src/A.java");
+        commit("2012-02-16", 1, "src/A.java");
+        commit("2012-01-20", 0, "src/B.java");
+        commit("2011-12-15", 0, "src/A.java", "src/B.java");
+    }
+
+    @Test
+    void trainingSetsOnlySeeThePastAndTestingSetsTheirRelease() throws Exception {
+        int steps = WalkForwardSplits.buildSplits("p", tmp, releases, RunReport.start("WalkForwardSplitsTest"),
+                (maxAllowedDate, mapForDate, lineage, stage) -> {
+                    CommitSink sink = new DatasetBuilder.MetricsAggregator(maxAllowedDate, mapForDate, lineage)
+                            .andThen(labeler);
+                    for (CommitRecord commit : history) sink.accept(commit);
+                },
+                labeler, 2);
+        assertEquals(4, steps);
+
+        List<String> versions = List.of(DatasetBuilder.PRE_RELEASE, "1.0", "2.0", "3.0", "4.0");
+        for (int k = 1; k <= steps; k++) {
+            Map<String, String> training = buggyRows(tmp.resolve("p_Training_" + k + ".csv"));
+            Map<String, String> testing = buggyRows(tmp.resolve("p_Testing_" + k + ".csv"));
+
+            // Training k: the releases before k, labeled with the tickets fixed by window k - 1
+            DatasetBuilder.BugLabels known = labeler.knownAt(k - 1);
+            for (Map.Entry<String, String> row : training.entrySet()) {
+                String version = row.getKey().split(" ")[0];
+                String file = row.getKey().split(" ")[1];
+                int window = versions.indexOf(version);
+                assertTrue(window >= 0 && window < k, row.getKey());
+                assertEquals(yesNo(known.isBuggy(file, window, 0)), row.getValue(), row.getKey());
+            }
+            // Ticket 2 is resolved after release 4: B is never buggy in a training set
+            for (String version : versions) {
+                assertEquals("No", training.getOrDefault(version + " src/B.java", "No"), "step " + k);
+            }
+            // Testing k: release k only, with all the tickets
+            for (Map.Entry<String, String> row : testing.entrySet()) {
+                String version = row.getKey().split(" ")[0];
+                String file = row.getKey().split(" ")[1];
+                assertEquals(versions.get(k), version);
+                assertEquals(yesNo(labeler.isBuggy(file, k, 0)), row.getValue(), row.getKey());
+            }
+        }
+
+        assertEquals(Map.of("Pre-Release src/A.java", "No", "Pre-Release src/B.java", "No",
+                "1.0 src/A.java", "No", "1.0 src/B.java", "No"), buggyRows(tmp.resolve("p_Training_2.csv")));
+        assertEquals("Yes", buggyRows(tmp.resolve("p_Training_3.csv")).get("1.0 src/A.java"));
+        assertEquals(Map.of("2.0 src/A.java", "No", "2.0 src/B.java", "Yes"),
+                buggyRows(tmp.resolve("p_Testing_2.csv")));
+        assertEquals("Yes", buggyRows(tmp.resolve("p_Testing_4.csv")).get("4.0 src/B.java"));
+        assertEquals("No", buggyRows(tmp.resolve("p_Testing_4.csv")).get("4.0 src/C.java"));
+    }
+
+    // "Version File" -> Buggy, for every row of a split
+    private static Map<String, String> buggyRows(Path split) throws Exception {
+        Map<String, String> rows = new LinkedHashMap<>();
+        try (CSVReader reader = new CSVReader(new FileReader(split.toFile()))) {
+            List<String[]> all = reader.readAll();
+            assertEquals(DatasetBuilder.DATASET_HEADER, String.join(",", all.get(0)));
+            for (String[] row : all.subList(1, all.size())) rows.put(row[1] + " " + row[2], row[10]);
+        }
+        return rows;
+    }
+
+    private static String yesNo(boolean buggy) {
+        return buggy ? "Yes" : "No";
+    }
+
+    private void commit(String day, int ticket, String... paths) {
+        CommitRecord commit = new CommitRecord(String.format("%040x", history.size()), day + " 10:00:00 +0000",
+                "Alice", ticket == 0 ? new int[0] : new int[]{ticket});
+        for (String path : paths) commit.changes.add(new CommitRecord.FileChange(path, 3, 1));
+        history.add(commit);
+    }
+
+    private static JiraIssue issue(int number, String created, String resolved, String affected) {
+        return new JiraIssue("P-" + number, "2012-" + resolved + "T10:00:00.000+0000",
+                "2012-" + created + "T10:00:00.000+0000", List.of(affected));
+    }
+}
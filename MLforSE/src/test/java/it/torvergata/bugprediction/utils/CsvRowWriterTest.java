@@ -0,0 +1,91 @@
+package it.torvergata.bugprediction.utils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Rows written through buffers small enough to flush inside a field read back as
+ * {@link String#getBytes} and {@code String.format(Locale.ROOT, ...)} would write them.
+ */
+class CsvRowWriterTest {
+
+    @TempDir
+    Path tmp;
+
+    @Test
+    void fieldsAreQuotedOnlyWhenNeeded() throws IOException {
+        Path csv = tmp.resolve("quoted.csv");
+        try (CsvRowWriter writer = new CsvRowWriter(csv, 1)) {
+            writer.field("plain").field("a,b").field("say \"hi\"").field("two\nlines").field("cr\r").field("").endRow();
+            writer.line("Header,As,Is").field(-7).field(Long.MIN_VALUE).field(0).endRow();
+        }
+        assertEquals("plain,\"a,b\",\"say \"\"hi\"\"\",\"two\nlines\",\"cr\r\",\n"
+                + "Header,As,Is\n"
+                + "-7,-9223372036854775808,0\n", Files.readString(csv, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void textIsEncodedAsStringGetBytes() throws IOException {
+        // BMP letters, a surrogate pair inside and at the end of a quoted field, and unpaired surrogates
+        List<String> values = List.of("Zoë Åström", "€", "😀,x😀", "a\uD83Db", "\uDE00,\uD83D");
+        Path csv = tmp.resolve("utf8.csv");
+        try (CsvRowWriter writer = new CsvRowWriter(csv, 64)) {
+            for (String value : values) writer.field(value).endRow();
+        }
+        StringBuilder expected = new StringBuilder();
+        for (String value : values) {
+            expected.append(value.contains(",") ? "\"" + value + "\"" : value).append('\n');
+        }
+        assertArrayEquals(expected.toString().getBytes(StandardCharsets.UTF_8), Files.readAllBytes(csv));
+    }
+
+    @Test
+    void ratioIsRoundedAsStringFormat() throws IOException {
+        Path csv = tmp.resolve("ratio.csv");
+        List<String> expected = new ArrayList<>();
+        try (CsvRowWriter writer = new CsvRowWriter(csv, 4096)) {
+            for (int d = 0; d < 60; d++) {
+                for (int n = 0; n < 3000; n++) {
+                    writer.ratio(n, d, 2).endRow();
+                    expected.add(d == 0 ? "0.00" : String.format(Locale.ROOT, "%.2f", (double) n / d));
+                }
+            }
+            writer.ratio(-1, 8, 2).ratio(1, -8, 2).ratio(-3, 40, 2).field(-0.125, 2).field(2.5, 0).endRow();
+            expected.add(String.join(",", String.format(Locale.ROOT, "%.2f", -0.125),
+                    String.format(Locale.ROOT, "%.2f", -0.125), String.format(Locale.ROOT, "%.2f", -0.075),
+                    String.format(Locale.ROOT, "%.2f", -0.125), String.format(Locale.ROOT, "%.0f", 2.5)));
+        }
+        assertEquals(expected, Files.readAllLines(csv, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void gzipOutputRoundTrips() throws IOException {
+        Path plain = tmp.resolve("rows.csv");
+        Path gzip = tmp.resolve("rows.csv.gz");
+        for (Path csv : List.of(plain, gzip)) {
+            try (CsvRowWriter writer = new CsvRowWriter(csv, 100)) {
+                writer.line("Project,File,Churn");
+                for (int i = 0; i < 5000; i++) writer.field("p").field("src/F" + i + ".java").ratio(i, 7, 2).endRow();
+            }
+        }
+        byte[] unzipped;
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(gzip))) {
+            unzipped = in.readAllBytes();
+        }
+        assertEquals(Files.readString(plain, StandardCharsets.UTF_8), new String(unzipped, StandardCharsets.UTF_8));
+        assertEquals(5001, Files.readAllLines(plain).size());
+    }
+}
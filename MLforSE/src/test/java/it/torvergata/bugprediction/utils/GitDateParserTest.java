@@ -0,0 +1,71 @@
+package it.torvergata.bugprediction.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * The parsed epoch seconds against java.time, for the layouts git prints.
+ */
+class GitDateParserTest {
+
+    private static final DateTimeFormatter GIT_ISO = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss Z");
+
+    @Test
+    void layoutsAgreeWithJavaTime() {
+        Random random = new Random(7);
+        for (int i = 0; i < 20_000; i++) {
+            // 1600 .. 2400, leap days and offsets from -12:00 to +14:00 included
+            long epoch = -11_676_096_000L + (long) (random.nextDouble() * 25_245_000_000L);
+            ZoneOffset offset = ZoneOffset.ofTotalSeconds((random.nextInt(105) - 48) * 15 * 60);
+            OffsetDateTime date = OffsetDateTime.ofInstant(Instant.ofEpochSecond(epoch), offset);
+
+            String iso = date.format(GIT_ISO);
+            String strict = date.format(DateTimeFormatter.ISO_OFFSET_DATE_TIME);
+            assertEquals(epoch, GitDateParser.parseEpochSecond(iso), iso);
+            assertEquals(epoch, GitDateParser.parseEpochSecond(strict), strict);
+            assertEquals(epoch, GitDateParser.parseEpochSecond(Long.toString(epoch)));
+        }
+    }
+
+    @Test
+    void calendarEdges() {
+        assertEquals(0, GitDateParser.parseEpochSecond("1970-01-01 00:00:00 +0000"));
+        assertEquals(0, GitDateParser.parseEpochSecond("1970-01-01T01:00:00+01:00"));
+        assertEquals(0, GitDateParser.parseEpochSecond("1969-12-31T23:00:00-01:00"));
+        assertEquals(0, GitDateParser.parseEpochSecond("1970-01-01T00:00:00Z"));
+        assertEquals(0, GitDateParser.parseEpochSecond("1970-01-01 00:00:00")); // no offset: UTC
+        assertEquals(0, GitDateParser.parseEpochSecond("1970-01-01 00:00:00 +0000  ")); // trailing spaces
+        assertEquals(951_782_400, GitDateParser.parseEpochSecond("2000-02-29 00:00:00 +0000"));
+        assertEquals(-1, GitDateParser.parseEpochSecond("-1"));
+        for (int year = 1583; year <= 2500; year++) {
+            assertEquals(LocalDate.of(year, 3, 1).toEpochDay(), GitDateParser.daysFromCivil(year, 3, 1));
+            assertEquals(LocalDate.of(year, 2, 28).toEpochDay(), GitDateParser.daysFromCivil(year, 2, 28));
+        }
+    }
+
+    @Test
+    void malformedDatesAreInvalidAndCounted() {
+        List<String> malformed = List.of("", "   ", "yesterday", "12a4", "-",
+                "2021-02-29 10:00:00 +0000", // not a leap year
+                "1900-02-29 10:00:00 +0000",
+                "2020-13-01 10:00:00 +0000", "2020-04-31 10:00:00 +0000", "2020-01-01 24:00:00 +0000",
+                "2020-01-01 10:60:00 +0000", "2020/01/01 10:00:00 +0000", "2020-01-01_10:00:00 +0000",
+                "2020-01-01 10:00:00 0100", "2020-01-01 10:00:00 +01", "2020-01-01 10:00:00 +1900",
+                "2020-01-01 10:00:00 +01:000", "2020-01-01T10:00:00ZZ");
+        GitDateParser parser = new GitDateParser();
+        for (String date : malformed) {
+            assertEquals(GitDateParser.INVALID, parser.parse(date), date);
+        }
+        assertEquals(1_577_872_800L, parser.parse("2020-01-01 10:00:00 +0000"));
+        assertEquals(malformed.size(), parser.getErrorCount());
+    }
+}
@@ -0,0 +1,178 @@
+package it.torvergata.bugprediction.utils;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * The response cache against a local stub server that counts the requests and answers
+ * conditional GETs with 304 while its body keeps the same ETag, or, for a resource
+ * without validators, to any If-Modified-Since.
+ */
+class JiraClientTest {
+
+    @TempDir
+    Path cacheDir;
+
+    private HttpServer server;
+    private String baseUrl;
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger notModified = new AtomicInteger();
+    private volatile String body = "{\"version\":1}";
+    private volatile String etag = "\"v1\"";
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/rest/api/2/project", this::serveProject);
+        server.createContext("/rest/api/2/search", this::serveSearch);
+        server.createContext("/rest/api/2/serverInfo", this::serveServerInfo);
+        server.start();
+        baseUrl = "http://localhost:" + server.getAddress().getPort();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    void freshCopyIsServedWithoutRequest() throws IOException {
+        try (JiraClient client = client(Duration.ofHours(1), false)) {
+            Path first = client.fetch(url());
+            Path second = client.fetch(url());
+            assertEquals(first, second);
+            assertEquals(1, requests.get());
+            assertEquals(1, client.getDownloads());
+            assertEquals(1, client.getCacheHits());
+        }
+    }
+
+    @Test
+    void staleCopyIsRevalidated() throws IOException {
+        try (JiraClient client = client(Duration.ZERO, false)) {
+            client.fetch(url());
+            Path revalidated = client.fetch(url());
+            assertEquals(2, requests.get());
+            assertEquals(1, notModified.get());
+            assertEquals(1, client.getDownloads());
+            assertEquals(1, client.getCacheHits());
+            assertEquals("{\"version\":1}", Files.readString(revalidated));
+
+            body = "{\"version\":2}";
+            etag = "\"v2\"";
+            assertEquals("{\"version\":2}", Files.readString(client.fetch(url())));
+            assertEquals(2, client.getDownloads());
+        }
+    }
+
+    @Test
+    void responseDateIsTheFallbackValidator() throws IOException {
+        String url = baseUrl + "/rest/api/2/serverInfo";
+        try (JiraClient client = client(Duration.ZERO, false)) {
+            client.fetch(url);
+            assertEquals("{\"version\":1}", Files.readString(client.fetch(url)));
+            assertEquals(1, notModified.get());
+            assertEquals(1, client.getDownloads());
+        }
+        // Only the body and its validators are left in the cache
+        try (Stream<Path> files = Files.list(cacheDir)) {
+            List<String> extensions = files.map(Path::toString)
+                    .map(name -> name.substring(name.lastIndexOf('.')))
+                    .sorted()
+                    .collect(Collectors.toList());
+            assertEquals(List.of(".json", ".meta"), extensions);
+        }
+    }
+
+    @Test
+    void offlineModeOnlyReadsTheCache() throws IOException {
+        try (JiraClient client = client(Duration.ZERO, false)) {
+            client.fetch(url());
+        }
+        try (JiraClient client = client(Duration.ZERO, true)) {
+            assertEquals("{\"version\":1}", Files.readString(client.fetch(url())));
+            assertThrows(IOException.class, () -> client.fetch(url() + "?expand=all"));
+            assertEquals(1, requests.get());
+            assertEquals(1, client.getCacheHits());
+        }
+    }
+
+    @Test
+    void searchPagesAreHandedOverInOrder() throws IOException {
+        List<Integer> startAts = new ArrayList<>();
+        try (JiraClient client = client(Duration.ZERO, false)) {
+            client.fetchSearchPages(baseUrl + "/rest/api/2/search?jql=x", 2, (startAt, page) -> {
+                assertEquals("{\"total\":5,\"startAt\":" + startAt + "}", Files.readString(page));
+                startAts.add(startAt);
+            });
+        }
+        assertEquals(List.of(0, 2, 4), startAts);
+    }
+
+    private JiraClient client(Duration maxAge, boolean offline) {
+        return new JiraClient(baseUrl, cacheDir, 2, maxAge, offline);
+    }
+
+    private String url() {
+        return baseUrl + "/rest/api/2/project/BOOKKEEPER";
+    }
+
+    private void serveProject(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            notModified.incrementAndGet();
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+            return;
+        }
+        exchange.getResponseHeaders().set("ETag", etag);
+        send(exchange, body);
+    }
+
+    private void serveServerInfo(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        if (exchange.getRequestHeaders().getFirst("If-Modified-Since") != null) {
+            notModified.incrementAndGet();
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+            return;
+        }
+        send(exchange, body);
+    }
+
+    private void serveSearch(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        String query = exchange.getRequestURI().getQuery();
+        String startAt = query.replaceAll(".*startAt=(\\d+).*", "$1");
+        send(exchange, "{\"total\":5,\"startAt\":" + startAt + "}");
+    }
+
+    private static void send(HttpExchange exchange, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package it.torvergata.bugprediction.utils;
+
+import it.torvergata.bugprediction.utils.JsonPullParser.Token;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The pull parser and the JIRA search streaming built on it, on documents written by hand.
+ */
+class JsonPullParserTest {
+
+    @Test
+    void tokensOfADocument() throws IOException {
+        assertEquals(List.of("START_OBJECT", "FIELD_NAME a", "NUMBER -1.5e3", "FIELD_NAME b", "START_ARRAY",
+                        "TRUE", "FALSE", "NULL", "STRING x", "END_ARRAY", "END_OBJECT", "END_DOCUMENT"),
+                tokens("{ \"a\" : -1.5e3,\n\"b\":[true,false , null,\"x\"]}"));
+    }
+
+    @Test
+    void escapesAreDecoded() throws IOException {
+        JsonPullParser parser = new JsonPullParser(new StringReader(
+                "\"q\\\" b\\\\ s\\/ \\b\\f\\n\\r\\t \\u00e8\\u20AC \\ud83d\\ude00\""));
+        assertEquals(Token.STRING, parser.next());
+        assertEquals("q\" b\\ s/ \b\f\n\r\t è€ \uD83D\uDE00", parser.text());
+        assertTrue(parser.textEquals("q\" b\\ s/ \b\f\n\r\t è€ \uD83D\uDE00"));
+        assertEquals(Token.END_DOCUMENT, parser.next());
+    }
+
+    @Test
+    void skipValueSkipsNestedContainers() throws IOException {
+        JsonPullParser parser = new JsonPullParser(new StringReader(
+                "{\"skip\":{\"a\":[1,{\"b\":[[],{}]},\"]}\"],\"c\":{}},\"keep\":7}"));
+        assertEquals(Token.START_OBJECT, parser.next());
+        assertEquals(Token.FIELD_NAME, parser.next());
+        parser.skipValue();
+        assertEquals(Token.FIELD_NAME, parser.next());
+        assertEquals("keep", parser.text());
+        assertEquals(Token.NUMBER, parser.next());
+        assertEquals("7", parser.text());
+        assertEquals(Token.END_OBJECT, parser.next());
+    }
+
+    @Test
+    void malformedInputIsRejected() {
+        for (String json : List.of("{\"a\":[1,2", "{\"a\":\"open", "\"\\u12\"", "\"\\x\"", "{\"a\" 1}", "[1}", "nul")) {
+            assertThrows(IOException.class, () -> tokens(json), json);
+        }
+        JsonPullParser truncated = new JsonPullParser(new StringReader("{\"a\":{\"b\":[1,"));
+        assertThrows(IOException.class, () -> {
+            truncated.next();
+            truncated.next();
+            truncated.skipValue();
+        });
+    }
+
+    @Test
+    void issuesAreStreamedWithTheirVersions() throws IOException {
+        String page = "{\"expand\":\"names\",\"startAt\":0,\"total\":3,\"issues\":["
+                + "{\"id\":\"1\",\"key\":\"BOOKKEEPER-1\",\"fields\":{\"resolutiondate\":\"2012-05-15T10:00:00.000+0000\","
+                + "\"created\":\"2012-04-15T10:00:00.000+0000\",\"fixVersions\":[{\"name\":\"4.1\"}],"
+                + "\"versions\":[null,{\"self\":\"x\",\"name\":\"4.0\",\"extra\":{\"n\":[1]}},\"4.9\",{\"name\":\"4.\\u0031;rc\"}]}},"
+                + "null,"
+                + "{\"key\":\"BOOKKEEPER-2\",\"fields\":{\"resolutiondate\":null,\"created\":\"2012-01-01T00:00:00.000+0000\","
+                + "\"versions\":{}}}]}";
+        List<JiraIssue> issues = new ArrayList<>();
+        JsonUtils.streamIssues(new StringReader(page), issues::add);
+
+        assertEquals(2, issues.size());
+        assertEquals("BOOKKEEPER-1", issues.get(0).key);
+        assertEquals("2012-05-15T10:00:00.000+0000", issues.get(0).resolutionDate);
+        assertEquals(List.of("4.0", "4.1;rc"), issues.get(0).affectedVersions);
+        assertEquals("BOOKKEEPER-2", issues.get(1).key);
+        assertNull(issues.get(1).resolutionDate);
+        assertEquals(List.of(), issues.get(1).affectedVersions);
+        assertEquals(3, JsonUtils.readTopLevelInt(new StringReader(page), "total"));
+    }
+
+    @Test
+    void truncatedPageIsAnError() {
+        String page = "{\"total\":1,\"issues\":[{\"key\":\"BOOKKEEPER-1\",\"fields\":{\"versions\":[{\"name\":\"4.0\"";
+        assertThrows(IOException.class, () -> JsonUtils.streamIssues(new StringReader(page), issue -> { }));
+    }
+
+    // One entry per token, with the text of the tokens that have one
+    private static List<String> tokens(String json) throws IOException {
+        JsonPullParser parser = new JsonPullParser(new StringReader(json));
+        List<String> tokens = new ArrayList<>();
+        Token t;
+        do {
+            t = parser.next();
+            boolean hasText = t == Token.FIELD_NAME || t == Token.STRING || t == Token.NUMBER;
+            tokens.add(hasText ? t + " " + parser.text() : t.toString());
+        } while (t != Token.END_DOCUMENT);
+        return tokens;
+    }
+}
@@ -0,0 +1,108 @@
+package it.torvergata.bugprediction.utils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Rows read through mapping windows of every size, down to windows just large enough for
+ * the longest row, which cut most rows and must map them again whole.
+ */
+class MappedCsvReaderTest {
+
+    @TempDir
+    Path tmp;
+
+    @Test
+    void quotedFieldsAndLineEndings() throws IOException {
+        Path csv = write("a,\"b,c\",\"say \"\"hi\"\"\"\r\n"
+                + "\r\n"
+                + "\"\",,\"x\ny\"\n"
+                + "è€😀,\"\"\"\",-12\r\n"
+                + "last,row");
+        for (int window : new int[]{1 << 20, 32, 25}) {
+            assertEquals(List.of(
+                    List.of("a", "b,c", "say \"hi\""),
+                    List.of("", "", "x\ny"),
+                    List.of("è€😀", "\"", "-12"),
+                    List.of("last", "row")), rows(csv, window), "window " + window);
+        }
+    }
+
+    @Test
+    void fieldsAreComparedAndParsedInPlace() throws IOException {
+        try (MappedCsvReader reader = new MappedCsvReader(write("abc,\"a\"\"b\",+42,-2147483648,2147483648,4x\n"))) {
+            assertTrue(reader.next());
+            assertEquals(6, reader.fieldCount());
+            assertTrue(reader.fieldEquals(0, "abc"));
+            assertFalse(reader.fieldEquals(0, "abd"));
+            assertFalse(reader.fieldEquals(0, "ab"));
+            assertTrue(reader.fieldEquals(1, "a\"b"));
+            assertEquals(42, reader.parseInt(2));
+            assertEquals(Integer.MIN_VALUE, reader.parseInt(3));
+            assertThrows(NumberFormatException.class, () -> reader.parseInt(4));
+            assertThrows(NumberFormatException.class, () -> reader.parseInt(5));
+            assertThrows(IndexOutOfBoundsException.class, () -> reader.text(6));
+            assertFalse(reader.next());
+        }
+    }
+
+    @Test
+    void rowsCrossingWindowBoundariesAreReadWhole() throws IOException {
+        Random random = new Random(3);
+        StringBuilder sb = new StringBuilder();
+        List<List<String>> expected = new ArrayList<>();
+        String alphabet = "ab,\"\n\r é€";
+        for (int r = 0; r < 500; r++) {
+            List<String> row = new ArrayList<>();
+            int fields = 1 + random.nextInt(5);
+            for (int f = 0; f < fields; f++) {
+                StringBuilder value = new StringBuilder();
+                int length = 1 + random.nextInt(12);
+                for (int i = 0; i < length; i++) value.append(alphabet.charAt(random.nextInt(alphabet.length())));
+                row.add(value.toString());
+                if (f > 0) sb.append(',');
+                sb.append('"').append(value.toString().replace("\"", "\"\"")).append('"');
+            }
+            sb.append(random.nextBoolean() ? "\r\n" : "\n");
+            expected.add(row);
+        }
+        // At most 5 fields of 12 three-byte characters, quoted, and CRLF: 196 bytes
+        Path csv = write(sb.toString());
+
+        for (int window : new int[]{1 << 20, 4096, 333, 196}) {
+            assertEquals(expected, rows(csv, window), "window " + window);
+        }
+        assertThrows(IOException.class, () -> rows(csv, 8));
+    }
+
+    private Path write(String text) throws IOException {
+        Path csv = Files.createTempFile(tmp, "rows", ".csv");
+        Files.writeString(csv, text, StandardCharsets.UTF_8);
+        return csv;
+    }
+
+    private static List<List<String>> rows(Path csv, int window) throws IOException {
+        List<List<String>> rows = new ArrayList<>();
+        try (MappedCsvReader reader = new MappedCsvReader(csv, window)) {
+            while (reader.next()) {
+                List<String> row = new ArrayList<>();
+                for (int f = 0; f < reader.fieldCount(); f++) row.add(reader.getString(f));
+                rows.add(row);
+            }
+        }
+        return rows;
+    }
+}